@@ -17,11 +17,11 @@ package net.utp4j.channels;
 
 import net.utp4j.channels.futures.UtpAcceptFuture;
 import net.utp4j.channels.impl.UtpServerSocketChannelImpl;
-import net.utp4j.channels.impl.recieve.UtpRecieveRunnable;
+import net.utp4j.channels.impl.alg.UtpConnectionConfiguration;
 
 import java.io.IOException;
-import java.net.DatagramSocket;
 import java.net.InetSocketAddress;
+import java.nio.channels.DatagramChannel;
 
 /**
  * Server class interface
@@ -31,7 +31,7 @@ import java.net.InetSocketAddress;
 public abstract class UtpServerSocketChannel {
 
     /*underlying socket*/
-    private DatagramSocket socket;
+    private DatagramChannel socket;
 
     /**
      * Opens and returns a server
@@ -43,7 +43,7 @@ public abstract class UtpServerSocketChannel {
     }
 
     /*Subclasses implement this methods*/
-    protected abstract UtpAcceptFuture acceptImpl() throws IOException;
+    protected abstract UtpAcceptFuture acceptImpl(UtpConnectionConfiguration config) throws IOException;
 
     /**
      * Listens on incomming Connection requests
@@ -52,28 +52,45 @@ public abstract class UtpServerSocketChannel {
      * @throws IOException
      */
     public UtpAcceptFuture accept() throws IOException {
-        return acceptImpl();
+        return acceptImpl(UtpConnectionConfiguration.defaults());
     }
 
     /**
-     * Binds the server to an {@link DatagramSocket} and binds {@link InetSocketAddress}
+     * Listens on incomming Connection requests, the accepted connection uses the given configuration.
+     *
+     * @param config configuration of the accepted connection.
+     * @return {@link UtpAcceptFuture}
+     * @throws IOException
+     */
+    public UtpAcceptFuture accept(UtpConnectionConfiguration config) throws IOException {
+        return acceptImpl(config);
+    }
+
+    /**
+     * Binds the server to an {@link DatagramChannel} and binds {@link InetSocketAddress}
      *
      * @param addr
-     * @throws IOException see {@link DatagramSocket} Constructor Details
+     * @throws IOException see {@link DatagramChannel#bind(java.net.SocketAddress)}
      */
     public void bind(InetSocketAddress addr) throws IOException {
-        setSocket(new DatagramSocket(addr));
-        UtpServerSocketChannelImpl me = (UtpServerSocketChannelImpl) this;
-        me.setListenRunnable(new UtpRecieveRunnable(this.getSocket(), me));
+        DatagramChannel channel = DatagramChannel.open();
+        try {
+            channel.configureBlocking(false);
+            channel.bind(addr);
+        } catch (IOException exp) {
+            channel.close();
+            throw exp;
+        }
+        setSocket(channel);
     }
 
 
-    protected DatagramSocket getSocket() {
+    protected DatagramChannel getSocket() {
         return socket;
     }
 
 
-    protected void setSocket(DatagramSocket socket) {
+    protected void setSocket(DatagramChannel socket) {
         this.socket = socket;
     }
 
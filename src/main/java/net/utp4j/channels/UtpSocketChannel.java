@@ -19,7 +19,10 @@ import net.utp4j.channels.futures.UtpConnectFuture;
 import net.utp4j.channels.futures.UtpReadFuture;
 import net.utp4j.channels.futures.UtpWriteFuture;
 import net.utp4j.channels.impl.UtpSocketChannelImpl;
+import net.utp4j.channels.impl.alg.UtpConnectionConfiguration;
 import net.utp4j.channels.impl.conn.UtpConnectFutureImpl;
+import net.utp4j.channels.impl.read.UtpReadStream;
+import net.utp4j.channels.impl.write.UtpWriteStream;
 import net.utp4j.data.MicroSecondsTimeStamp;
 import net.utp4j.data.UtpPacket;
 import net.utp4j.data.UtpPacketUtils;
@@ -28,9 +31,10 @@ import org.slf4j.LoggerFactory;
 
 import java.io.IOException;
 import java.net.DatagramPacket;
-import java.net.DatagramSocket;
 import java.net.SocketAddress;
 import java.nio.ByteBuffer;
+import java.nio.channels.DatagramChannel;
+import java.nio.channels.FileChannel;
 import java.util.Random;
 import java.util.concurrent.locks.ReentrantLock;
 
@@ -63,11 +67,11 @@ public abstract class UtpSocketChannel {
      */
     protected SocketAddress remoteAddress;
 
-    /* current ack Number */
-    protected int ackNumber;
+    /* current ack Number, set by the reader and sent by the writer */
+    protected volatile int ackNumber;
 
     /* reference to the underlying UDP Socket */
-    protected DatagramSocket dgSocket;
+    protected DatagramChannel dgChannel;
 
     /*
      * Connection Future Object - need to hold a reference here i case
@@ -93,12 +97,26 @@ public abstract class UtpSocketChannel {
      * Opens a new Socket and binds it to any available port
      *
      * @return {@link UtpSocketChannel}
-     * @throws IOException see {@link DatagramSocket#DatagramSocket()}
+     * @throws IOException see {@link DatagramChannel#open()}
      */
     public static UtpSocketChannel open() throws IOException {
-        UtpSocketChannelImpl c = new UtpSocketChannelImpl();
+        return open(UtpConnectionConfiguration.defaults());
+    }
+
+    /**
+     * Opens a new Socket and binds it to any available port
+     *
+     * @param config configuration of the connection.
+     * @return {@link UtpSocketChannel}
+     * @throws IOException see {@link DatagramChannel#open()}
+     */
+    public static UtpSocketChannel open(UtpConnectionConfiguration config) throws IOException {
+        UtpSocketChannelImpl c = new UtpSocketChannelImpl(config);
         try {
-            c.setDgSocket(new DatagramSocket());
+            DatagramChannel channel = DatagramChannel.open();
+            channel.configureBlocking(false);
+            channel.bind(null);
+            c.setDgChannel(channel);
             c.setState(CLOSED);
         } catch (IOException exp) {
             throw new IOException("Could not open UtpSocketChannel: "
@@ -123,14 +141,14 @@ public abstract class UtpSocketChannel {
                 return null;
             }
             try {
-                /* underlying impl does it's connection setup */
-                connectImpl(connectFuture);
-
                 /* fill packet, set initial variables and send packet */
                 setRemoteAddress(address);
                 setupConnectionId();
                 setSequenceNumber(DEF_SEQ_START);
 
+                /* underlying impl does it's connection setup, needs the connection id */
+                connectImpl(connectFuture);
+
                 UtpPacket synPacket = UtpPacketUtils.createSynPacket();
                 synPacket
                         .setConnectionId(longToUshort(getConnectionIdRecieving()));
@@ -159,6 +177,18 @@ public abstract class UtpSocketChannel {
      */
     public abstract UtpWriteFuture write(ByteBuffer src);
 
+    /**
+     * Sends a region of a file. The file is mapped in pieces and packets are sent straight out of the mapping,
+     * resent packets are read from there again, so the payload is never copied onto the heap.
+     * The file must not change until the future is done.
+     *
+     * @param src      the file.
+     * @param position first byte to send.
+     * @param count    number of bytes to send.
+     * @return {@link UtpWriteFuture} which will be updated by the channel
+     */
+    public abstract UtpWriteFuture transferFrom(FileChannel src, long position, long count);
+
     /**
      * Reads the incomming data to the channel.
      *
@@ -167,6 +197,34 @@ public abstract class UtpSocketChannel {
      */
     public abstract UtpReadFuture read(ByteBuffer dst);
 
+    /**
+     * Reads the incomming data into a file until the remote side sends a FIN. Payloads are put
+     * straight into a mapping of the file, the file grows as needed.
+     *
+     * @param dst      the file, opened for reading and writing.
+     * @param position where the first byte goes.
+     * @return {@link UtpReadFuture} which will be updated by the channel, it holds no buffer.
+     */
+    public abstract UtpReadFuture transferTo(FileChannel dst, long position);
+
+    /**
+     * Starts reading the incomming data as a stream. Data is handed out in order as it arrives,
+     * in pieces of any size, and the remote side only sends as much as the stream can hold
+     * until the application reads it. Use either this or {@link #read(ByteBuffer)}.
+     *
+     * @return the stream, ends once the remote side sent a FIN.
+     */
+    public abstract UtpReadStream readStream();
+
+    /**
+     * Starts writing a stream. Writes are copied into a send buffer of fixed size and sent from there,
+     * a non blocking stream takes only what fits. Closing the stream ends it with a FIN.
+     * Use either this or {@link #write(ByteBuffer)}.
+     *
+     * @return the stream, see {@link UtpWriteStream#getWriteFuture()} for when it was recieved.
+     */
+    public abstract UtpWriteStream writeStream();
+
 
     /**
      * Closes the channel. Also unbinds the socket if the socket is not shared,
@@ -219,8 +277,8 @@ public abstract class UtpSocketChannel {
         return sequenceNumber;
     }
 
-    public DatagramSocket getDgSocket() {
-        return dgSocket;
+    public DatagramChannel getDgChannel() {
+        return dgChannel;
     }
 
     /* signal the implementation to start the reConnect Timer */
@@ -323,6 +381,6 @@ public abstract class UtpSocketChannel {
 
     protected abstract void setAckNumber(int ackNumber);
 
-    protected abstract void setDgSocket(DatagramSocket dgSocket);
+    protected abstract void setDgChannel(DatagramChannel dgChannel);
 
 }
\ No newline at end of file
@@ -29,6 +29,8 @@ public class UtpReadFuture extends UtpBlockableFuture {
     }
 
     protected volatile ByteBuffer buffer;
+    /* bytes read into a file, there is no buffer then */
+    protected volatile long bytesTransferred;
     protected volatile UtpReadListener listener;
     protected final ReentrantLock listenerLock = new ReentrantLock();
 
@@ -50,10 +52,17 @@ public class UtpReadFuture extends UtpBlockableFuture {
      * @return The number of bytes that was read by this task.
      */
     public int getBytesRead() {
+        return (int) Math.min(getTotalBytesRead(), Integer.MAX_VALUE);
+    }
+
+    /**
+     * @return The number of bytes that was read by this task, also beyond 2 GB.
+     */
+    public long getTotalBytesRead() {
         if (buffer != null) {
             return buffer.position();
         }
-        return 0;
+        return bytesTransferred;
     }
 
 }
@@ -25,12 +25,19 @@ public abstract class UtpWriteFuture extends UtpBlockableFuture {
         super();
     }
 
-    protected volatile int bytesWritten;
+    protected volatile long bytesWritten;
 
     /**
-     * @return number of bytes that was written.
+     * @return number of bytes that was written, at most {@link Integer#MAX_VALUE}.
      */
     public int getBytesSend() {
+        return (int) Math.min(bytesWritten, Integer.MAX_VALUE);
+    }
+
+    /**
+     * @return number of bytes that was written, also beyond 2 GB.
+     */
+    public long getTotalBytesSend() {
         return bytesWritten;
     }
 
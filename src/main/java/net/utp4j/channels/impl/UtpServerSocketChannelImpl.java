@@ -15,48 +15,52 @@
 package net.utp4j.channels.impl;
 
 import net.utp4j.channels.UtpServerSocketChannel;
-import net.utp4j.channels.UtpSocketChannel;
 import net.utp4j.channels.UtpSocketState;
 import net.utp4j.channels.exception.CannotCloseServerException;
 import net.utp4j.channels.futures.UtpAcceptFuture;
 import net.utp4j.channels.impl.accept.UtpAcceptFutureImpl;
+import net.utp4j.channels.impl.alg.UtpConnectionConfiguration;
 import net.utp4j.channels.impl.recieve.ConnectionIdTriplet;
+import net.utp4j.channels.impl.recieve.UtpEventLoop;
+import net.utp4j.channels.impl.recieve.UtpEventLoopGroup;
+import net.utp4j.channels.impl.recieve.PooledDatagram;
 import net.utp4j.channels.impl.recieve.UtpPacketRecievable;
-import net.utp4j.channels.impl.recieve.UtpRecieveRunnable;
-import net.utp4j.data.UtpPacket;
 import net.utp4j.data.UtpPacketUtils;
+import net.utp4j.data.UtpPacketView;
 
 import java.io.IOException;
 import java.net.DatagramPacket;
-import java.util.HashMap;
-import java.util.LinkedList;
 import java.util.Map;
 import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+import static net.utp4j.channels.UtpSocketState.CLOSED;
 
 public class UtpServerSocketChannelImpl extends UtpServerSocketChannel implements UtpPacketRecievable {
 
-    private UtpRecieveRunnable listenRunnable;
-    private final Queue<UtpAcceptFutureImpl> acceptQueue = new LinkedList<UtpAcceptFutureImpl>();
-    private final Map<Integer, ConnectionIdTriplet> connectionIds = new HashMap<Integer, ConnectionIdTriplet>();
-    private boolean listenRunnerStarted = false;
+    private final UtpEventLoopGroup loopGroup = UtpEventLoopGroup.getDefault();
+    private UtpEventLoop listenLoop;
+    private final Queue<UtpAcceptFutureImpl> acceptQueue = new ConcurrentLinkedQueue<UtpAcceptFutureImpl>();
+    private final Map<Integer, ConnectionIdTriplet> connectionIds = new ConcurrentHashMap<Integer, ConnectionIdTriplet>();
+    /* header of the packet being routed, only used on the listen loop */
+    private final UtpPacketView view = new UtpPacketView();
 
 
     /*
      * implements accept.
      */
     @Override
-    protected UtpAcceptFuture acceptImpl() {
+    protected synchronized UtpAcceptFuture acceptImpl(UtpConnectionConfiguration config) {
 
-        if (!listenRunnerStarted) {
-            Thread listenRunner = new Thread(getListenRunnable(),
-                    "listenRunnable_" + getSocket().getLocalPort());
-            listenRunner.start();
-            listenRunnerStarted = true;
+        if (listenLoop == null) {
+            listenLoop = loopGroup.nextSocketLoop();
+            listenLoop.register(getSocket(), this);
         }
 
         UtpAcceptFutureImpl future;
         try {
-            future = new UtpAcceptFutureImpl();
+            future = new UtpAcceptFutureImpl(config);
             acceptQueue.add(future);
             return future;
         } catch (InterruptedException e) {
@@ -69,23 +73,20 @@ public class UtpServerSocketChannelImpl extends UtpServerSocketChannel implement
     /*
      * handles syn packet.
      */
-    private void synRecieved(DatagramPacket packet) {
-        if (handleDoubleSyn(packet)) {
+    private void synRecieved(DatagramPacket packet, PooledDatagram pooled) {
+        if (handleDoubleSyn(packet, view.connectionId(), pooled)) {
             return;
         }
         if (packet != null && acceptQueue.peek() != null) {
             boolean registered = false;
             UtpAcceptFutureImpl future = acceptQueue.poll();
             UtpSocketChannelImpl utpChannel = null;
-            try {
-                utpChannel = (UtpSocketChannelImpl) UtpSocketChannel.open();
-                utpChannel.setDgSocket(getSocket());
-                utpChannel.recievePacket(packet);
-                utpChannel.setServer(this);
-                registered = registerChannel(utpChannel);
-            } catch (IOException e) {
-                future.setIOException(e);
-            }
+            utpChannel = new UtpSocketChannelImpl(future.getConfiguration());
+            utpChannel.setState(CLOSED);
+            utpChannel.setDgChannel(getSocket());
+            utpChannel.recievePacket(packet);
+            utpChannel.setServer(this);
+            registered = registerChannel(utpChannel);
 
             /* Collision in Connection ids or failed to ack.
              * Ignore Syn Packet and let other side handle the issue. */
@@ -99,13 +100,10 @@ public class UtpServerSocketChannelImpl extends UtpServerSocketChannel implement
     /*
      * handles double syn....
      */
-    private boolean handleDoubleSyn(DatagramPacket packet) {
-        UtpPacket pkt = UtpPacketUtils.extractUtpPacket(packet);
-        int connId = pkt.getConnectionId();
-        connId = (connId & 0xFFFF) + 1;
-        ConnectionIdTriplet triplet = connectionIds.get(connId);
+    private boolean handleDoubleSyn(DatagramPacket packet, int synConnId, PooledDatagram pooled) {
+        ConnectionIdTriplet triplet = connectionIds.get(synConnId + 1);
         if (triplet != null) {
-            triplet.getChannel().recievePacket(packet);
+            dispatch(triplet.getChannel(), packet, pooled);
             return true;
         }
 
@@ -117,23 +115,49 @@ public class UtpServerSocketChannelImpl extends UtpServerSocketChannel implement
      */
     @Override
     public void recievePacket(DatagramPacket packet) {
-        if (UtpPacketUtils.isSynPkt(packet)) {
-            synRecieved(packet);
+        route(packet, null);
+    }
+
+    /*
+     * same as above, the pooled buffer is released once the packet is handled or handed over.
+     */
+    @Override
+    public void recievePacket(PooledDatagram datagram) {
+        try {
+            route(datagram.packet(), datagram);
+        } finally {
+            datagram.release();
+        }
+    }
+
+    private void route(DatagramPacket packet, PooledDatagram pooled) {
+        if (view.wrap(packet).isType(UtpPacketUtils.SYN)) {
+            synRecieved(packet, pooled);
         } else {
-            UtpPacket utpPacket = UtpPacketUtils.extractUtpPacket(packet);
-            ConnectionIdTriplet triplet = connectionIds.get(utpPacket.getConnectionId() & 0xFFFF);
+            ConnectionIdTriplet triplet = connectionIds.get(view.connectionId());
             if (triplet != null) {
-                triplet.getChannel().recievePacket(packet);
+                dispatch(triplet.getChannel(), packet, pooled);
             }
         }
     }
 
-    protected UtpRecieveRunnable getListenRunnable() {
-        return listenRunnable;
-    }
-
-    public void setListenRunnable(UtpRecieveRunnable listenRunnable) {
-        this.listenRunnable = listenRunnable;
+    /*
+     * hands the packet over to the loop the connection is sharded onto.
+     * A pooled buffer travels with the packet and gets its own reference.
+     */
+    private void dispatch(UtpSocketChannelImpl channel, DatagramPacket packet, PooledDatagram pooled) {
+        UtpEventLoop loop = channel.getEventLoop();
+        if (loop == null || loop.inEventLoop()) {
+            if (pooled != null) {
+                channel.recievePacket(pooled.retain());
+            } else {
+                channel.recievePacket(packet);
+            }
+        } else if (pooled != null) {
+            loop.deliver(channel, pooled.retain());
+        } else {
+            loop.deliver(channel, packet);
+        }
     }
 
     /*
@@ -145,6 +169,7 @@ public class UtpServerSocketChannelImpl extends UtpServerSocketChannel implement
 
         if (isChannelRegistrationNecessary(channel)) {
             connectionIds.put((int) (channel.getConnectionIdRecieving() & 0xFFFF), triplet);
+            channel.setEventLoop(loopGroup.loopFor(channel.getConnectionIdRecieving()));
             return true;
         }
 
@@ -165,9 +190,17 @@ public class UtpServerSocketChannelImpl extends UtpServerSocketChannel implement
      * closes this server.
      */
     @Override
-    public void close() {
+    public synchronized void close() {
         if (connectionIds.isEmpty()) {
-            listenRunnable.graceFullInterrupt();
+            if (listenLoop != null) {
+                listenLoop.close(getSocket());
+            } else {
+                try {
+                    getSocket().close();
+                } catch (IOException exp) {
+                    exp.printStackTrace();
+                }
+            }
         } else {
             throw new CannotCloseServerException(connectionIds.values());
         }
@@ -17,15 +17,23 @@ package net.utp4j.channels.impl;
 import net.utp4j.channels.UtpSocketChannel;
 import net.utp4j.channels.UtpSocketState;
 import net.utp4j.channels.futures.UtpCloseFuture;
+import net.utp4j.channels.futures.UtpReadFuture;
 import net.utp4j.channels.futures.UtpWriteFuture;
-import net.utp4j.channels.impl.alg.UtpAlgConfiguration;
+import net.utp4j.channels.impl.alg.UtpAlgorithm;
+import net.utp4j.channels.impl.alg.UtpConnectionConfiguration;
 import net.utp4j.channels.impl.conn.ConnectionTimeOutRunnable;
 import net.utp4j.channels.impl.conn.UtpConnectFutureImpl;
 import net.utp4j.channels.impl.read.UtpReadFutureImpl;
+import net.utp4j.channels.impl.read.UtpReadStream;
 import net.utp4j.channels.impl.read.UtpReadingRunnable;
+import net.utp4j.channels.impl.recieve.HandoffQueue;
+import net.utp4j.channels.impl.recieve.UtpEventLoop;
+import net.utp4j.channels.impl.recieve.UtpEventLoopGroup;
+import net.utp4j.channels.impl.recieve.PooledDatagram;
 import net.utp4j.channels.impl.recieve.UtpPacketRecievable;
-import net.utp4j.channels.impl.recieve.UtpRecieveRunnable;
+import net.utp4j.channels.impl.recieve.UtpTimer;
 import net.utp4j.channels.impl.write.UtpWriteFutureImpl;
+import net.utp4j.channels.impl.write.UtpWriteStream;
 import net.utp4j.channels.impl.write.UtpWritingRunnable;
 import net.utp4j.data.*;
 import org.slf4j.Logger;
@@ -33,10 +41,11 @@ import org.slf4j.LoggerFactory;
 
 import java.io.IOException;
 import java.net.DatagramPacket;
-import java.net.DatagramSocket;
 import java.net.SocketAddress;
 import java.net.SocketTimeoutException;
 import java.nio.ByteBuffer;
+import java.nio.channels.DatagramChannel;
+import java.nio.channels.FileChannel;
 import java.util.Random;
 import java.util.concurrent.*;
 
@@ -52,82 +61,190 @@ import static net.utp4j.data.bytes.UnsignedTypesUtil.*;
 public class UtpSocketChannelImpl extends UtpSocketChannel implements
         UtpPacketRecievable {
 
-    private final BlockingQueue<UtpTimestampedPacketDTO> queue = new LinkedBlockingQueue<UtpTimestampedPacketDTO>();
+    /**
+     * Taken from the ack or data queue when the writer or reader was woken up, carries no packet.
+     */
+    public static final UtpTimestampedPacketDTO WAKE_UP = new UtpTimestampedPacketDTO(null, null, 0L, 0);
+
+    private final UtpConnectionConfiguration config;
 
-    private UtpRecieveRunnable reciever;
+    /* STATE packets and acks carried by DATA packets, offered by the event loop and consumed by the writer */
+    private final HandoffQueue<UtpTimestampedPacketDTO> ackQueue;
+    /* DATA packets, offered by the event loop and consumed by the reader */
+    private final HandoffQueue<UtpTimestampedPacketDTO> dataQueue;
+
+    /* timestamp difference of the last recieved DATA packet, echoed in outgoing DATA packets */
+    private volatile int lastTimestampDifference = 0;
+    /* ack number carried by the last DATA packet that was created */
+    private volatile int piggybackedAckNumber = -1;
+    /* header of the packet being handled, packets of a connection are handled one at a time */
+    private final UtpPacketView view = new UtpPacketView();
+
+    private UtpEventLoop eventLoop;
+    /* congestion and rtt state, shared by all writes on this connection, the reader asks it for the rtt */
+    private volatile UtpAlgorithm algorithm;
     private UtpWritingRunnable writer;
     private UtpReadingRunnable reader;
     private final Object sendLock = new Object();
+    /* datagrams with a payload kept outside the packet are put together here, guarded by sendLock */
+    private ByteBuffer sendBuffer;
 
     private UtpServerSocketChannelImpl server;
-    private ScheduledExecutorService retryConnectionTimeScheduler;
+    private UtpTimer synRetryTimer;
     private int connectionAttempts = 0;
+    /* when the SYN or syn ack was sent, 0 once it was resent */
+    private long handshakeSent;
+    /* rtt of the handshake, the reader uses it until acks were timed by the writer */
+    private volatile long handshakeRttMicros;
 
-    private int eofPacket;
+    /* sequence number of the last FIN recieved */
+    private volatile int eofPacket;
+    /* after a read ended on a FIN, resent packets of that transfer are acked here instead of by the reader */
+    private volatile boolean lingering;
+    private UtpTimer lingerTimer;
 
 
     private static final Logger log = LoggerFactory
             .getLogger(UtpSocketChannelImpl.class);
 
+    public UtpSocketChannelImpl() {
+        this(UtpConnectionConfiguration.defaults());
+    }
+
+    public UtpSocketChannelImpl(UtpConnectionConfiguration config) {
+        this.config = config;
+        ackQueue = new HandoffQueue<UtpTimestampedPacketDTO>(config.getHandoffQueueSize(), WAKE_UP);
+        dataQueue = new HandoffQueue<UtpTimestampedPacketDTO>(config.getHandoffQueueSize(), WAKE_UP);
+    }
+
+    /**
+     * @return the configuration this connection was opened with.
+     */
+    public UtpConnectionConfiguration getConfiguration() {
+        return config;
+    }
+
     /*
-     * Handles packet.
+     * A STATE packet for the writer is not extracted. While the writer waits it is applied right here,
+     * otherwise the writer reads the ack straight from the recieve buffer and releases it afterwards.
      */
     @Override
-    public void recievePacket(DatagramPacket udpPacket) {
+    public void recievePacket(PooledDatagram datagram) {
+        DatagramPacket udpPacket = datagram.packet();
+        if (view.wrap(udpPacket).isType(STATE) && !isSynAckPacket(view) && isWriting()) {
+            UtpWritingRunnable currentWriter = writer;
+            if (currentWriter != null && currentWriter.ackRecievedInline(udpPacket, timeStamper.utpTimeStamp())) {
+                datagram.release();
+                return;
+            }
+            UtpTimestampedPacketDTO ack = datagram.timestamped(timeStamper.timeStamp(), timeStamper.utpTimeStamp());
+            if (!ackQueue.offer(ack)) {
+                ack.release();
+            }
+            return;
+        }
+        try {
+            recievePacket(udpPacket);
+        } finally {
+            datagram.release();
+        }
+    }
 
+    /*
+     * Handles packet. The header is read once through the view,
+     * a UtpPacket is only extracted for packets that are kept.
+     */
+    @Override
+    public void recievePacket(DatagramPacket udpPacket) {
+        UtpPacketView pkt = view.wrap(udpPacket);
 
-        if (isSynAckPacket(udpPacket)) {
-            handleSynAckPacket(udpPacket);
-        } else if (isResetPacket(udpPacket)) {
+        if (isSynAckPacket(pkt)) {
+            handleSynAckPacket(udpPacket, pkt);
+        } else if (pkt.isType(RESET)) {
             handleResetPacket(udpPacket);
-        } else if (isSynPkt(udpPacket)) {
-            handleIncommingConnectionRequest(udpPacket);
-        } else if (isDataPacket(udpPacket)) {
-            handlePacket(udpPacket);
-        } else if (isStatePacket(udpPacket)) {
-            handlePacket(udpPacket);
-        } else if (isFinPacket(udpPacket)) {
-            handleFinPacket(udpPacket);
+        } else if (pkt.isType(SYN)) {
+            handleIncommingConnectionRequest(udpPacket, pkt);
+        } else if (pkt.isType(DATA)) {
+            handleDataPacket(pkt);
+        } else if (pkt.isType(STATE)) {
+            handleStatePacket(pkt);
+        } else if (pkt.isType(FIN)) {
+            handleFinPacket(pkt);
         } else {
             sendResetPacket(udpPacket.getSocketAddress());
         }
 
     }
 
-    private void handleFinPacket(DatagramPacket udpPacket) {
+    /*
+     * The FIN takes the sequence number after the last DATA packet of a transfer.
+     * The reader acks it once everything before it was recieved, which ends the read.
+     */
+    private void handleFinPacket(UtpPacketView pkt) {
+        int finSeqNr = pkt.sequenceNumber();
+        if (isLingeringPacket(finSeqNr)) {
+            ackLingeringPacket(pkt);
+            return;
+        }
+        UtpPacket finPacket = pkt.toUtpPacket();
         stateLock.lock();
         try {
             setState(UtpSocketState.GOT_FIN);
-            UtpPacket finPacket = extractUtpPacket(udpPacket);
-            long freeBuffer = 0;
-            if (reader != null && reader.isRunning()) {
-                freeBuffer = reader.getLeftSpaceInBuffer();
-            } else {
-                freeBuffer = UtpAlgConfiguration.MAX_PACKET_SIZE;
-            }
-            this.eofPacket = finPacket.getSequenceNumber() & 0xFFFF;
-            ackPacket(finPacket, timeStamper.utpDifference(finPacket.getTimestamp()), freeBuffer);
-        } catch (IOException exp) {
-            exp.printStackTrace();
-            // TODO: what to do if exception?
+            this.eofPacket = finSeqNr;
         } finally {
             stateLock.unlock();
         }
+        UtpTimestampedPacketDTO dto = timestamped(finPacket);
+        dataQueue.offer(dto);
+        if (isWriting()) {
+            ackQueue.offer(dto);
+        }
+    }
+
+    /* the packet belongs to the transfer whose FIN was already acked, the remote side missed our ack */
+    private boolean isLingeringPacket(int seqNr) {
+        if (!lingering) {
+            return false;
+        }
+        int ahead = (seqNr - eofPacket) & 0xFFFF;
+        return ahead == 0 || ahead > MAX_USHORT / 2;
+    }
+
+    private void ackLingeringPacket(UtpPacketView pkt) {
+        try {
+            ackCurrentPosition(timeStamper.utpDifference(pkt.timestamp()), config.getMaxPacketSize());
+        } catch (IOException exp) {
+            exp.printStackTrace();
+        }
+    }
+
+    /**
+     * Called by the reader once it recieved everything up to the FIN.
+     * Until the linger time is over, packets of that transfer are acked again without a reader.
+     */
+    public void lingerAfterFin() {
+        if (lingerTimer == null) {
+            lingerTimer = newTimer(() -> lingering = false);
+        }
+        lingering = true;
+        lingerTimer.schedule(config.getTimeWaitAfterLastPacket());
     }
 
     private void handleResetPacket(DatagramPacket udpPacket) {
         this.close();
     }
 
-    private boolean isSynAckPacket(DatagramPacket udpPacket) {
-        return isStatePacket(udpPacket) && getState() == UtpSocketState.SYN_SENT;
+    private boolean isSynAckPacket(UtpPacketView pkt) {
+        return pkt.isType(STATE) && getState() == UtpSocketState.SYN_SENT;
     }
 
-    private void handleSynAckPacket(DatagramPacket udpPacket) {
-        UtpPacket pkt = extractUtpPacket(udpPacket);
-        if ((pkt.getConnectionId() & 0xFFFF) == getConnectionIdRecieving()) {
+    private void handleSynAckPacket(DatagramPacket udpPacket, UtpPacketView pkt) {
+        if (pkt.connectionId() == getConnectionIdRecieving()) {
             stateLock.lock();
-            setAckNrFromPacketSqNr(pkt);
+            // the syn ack carries the sequence number of the first DATA packet to expect
+            int synAckSeqNr = pkt.sequenceNumber();
+            setAckNumber(synAckSeqNr <= 1 ? (int) MAX_USHORT : synAckSeqNr - 1);
+            handshakeDone();
             setState(CONNECTED);
             printState("[SynAck recieved] ");
             disableConnectionTimeOutCounter();
@@ -144,9 +261,9 @@ public class UtpSocketChannelImpl extends UtpSocketChannel implements
     }
 
     private void disableConnectionTimeOutCounter() {
-        if (retryConnectionTimeScheduler != null) {
-            retryConnectionTimeScheduler.shutdown();
-            retryConnectionTimeScheduler = null;
+        if (synRetryTimer != null) {
+            synRetryTimer.cancel();
+            synRetryTimer = null;
         }
         connectionAttempts = 0;
     }
@@ -159,11 +276,33 @@ public class UtpSocketChannelImpl extends UtpSocketChannel implements
         connectionAttempts++;
     }
 
-    private void handlePacket(DatagramPacket udpPacket) {
-        UtpPacket utpPacket = extractUtpPacket(udpPacket);
-        queue.offer(new UtpTimestampedPacketDTO(udpPacket, utpPacket,
-                timeStamper.timeStamp(), timeStamper.utpTimeStamp()));
+    private void handleStatePacket(UtpPacketView pkt) {
+        ackQueue.offer(timestamped(pkt.toUtpPacket()));
+    }
+
+    /*
+     * DATA goes to the reader. Its ack number is an ack for our own data,
+     * so the writer gets it too while it is running.
+     */
+    private void handleDataPacket(UtpPacketView pkt) {
+        handshakeDone();
+        if (isLingeringPacket(pkt.sequenceNumber())) {
+            ackLingeringPacket(pkt);
+            return;
+        }
+        UtpTimestampedPacketDTO dto = timestamped(pkt.toUtpPacket());
+        lastTimestampDifference = timeStamper.utpDifference(dto.utpTimeStamp(), dto.utpPacket().getTimestamp());
+        dataQueue.offer(dto);
+        if (isWriting()) {
+            ackQueue.offer(dto);
+        }
+    }
 
+    private UtpTimestampedPacketDTO timestamped(UtpPacket utpPacket) {
+        /* the datagram may live in a pooled recieve buffer that is reused once this returns,
+         * the extracted packet holds its own copy of the payload. */
+        return new UtpTimestampedPacketDTO(null, utpPacket,
+                timeStamper.timeStamp(), timeStamper.utpTimeStamp());
     }
 
     /**
@@ -187,15 +326,15 @@ public class UtpSocketChannelImpl extends UtpSocketChannel implements
     public void setupRandomSeqNumber() {
         Random rnd = new Random();
         int max = (int) (MAX_USHORT - 1);
-        int rndInt = rnd.nextInt(max);
+        // 0 is not a valid sequence number
+        int rndInt = rnd.nextInt(max) + 1;
         setSequenceNumber(rndInt);
 
     }
 
-    private void handleIncommingConnectionRequest(DatagramPacket udpPacket) {
-        UtpPacket utpPacket = extractUtpPacket(udpPacket);
-
-        if (acceptSyn(udpPacket)) {
+    private void handleIncommingConnectionRequest(DatagramPacket udpPacket, UtpPacketView pkt) {
+        if (acceptSyn(udpPacket, pkt)) {
+            UtpPacket utpPacket = pkt.toUtpPacket();
             int timeStamp = timeStamper.utpTimeStamp();
             setRemoteAddress(udpPacket.getSocketAddress());
             setConnectionIdsFromPacket(utpPacket);
@@ -206,10 +345,13 @@ public class UtpSocketChannelImpl extends UtpSocketChannel implements
                     utpPacket.getTimestamp());
             UtpPacket ackPacket = createAckPacket(utpPacket,
                     timestampDifference,
-                    UtpAlgConfiguration.MAX_PACKET_SIZE * 1000L);
+                    config.getMaxPacketSize() * 1000L);
+            // our first DATA packet will carry this sequence number
+            ackPacket.setSequenceNumber(longToUshort(getSequenceNumber()));
             try {
                 log.debug("sending syn ack");
                 sendPacket(ackPacket);
+                handshakeSent(getState() == CLOSED);
                 setState(CONNECTED);
             } catch (IOException exp) {
                 // TODO: In future?
@@ -230,11 +372,10 @@ public class UtpSocketChannelImpl extends UtpSocketChannel implements
 
     }
 
-    private boolean acceptSyn(DatagramPacket udpPacket) {
-        UtpPacket pkt = extractUtpPacket(udpPacket);
+    private boolean acceptSyn(DatagramPacket udpPacket, UtpPacketView pkt) {
         return getState() == CLOSED
                 || (getState() == CONNECTED && isSameAddressAndId(
-                pkt.getConnectionId(), udpPacket.getSocketAddress()));
+                pkt.connectionId(), udpPacket.getSocketAddress()));
     }
 
     @Override
@@ -254,20 +395,44 @@ public class UtpSocketChannelImpl extends UtpSocketChannel implements
 
     @Override
     protected void connectImpl(UtpConnectFutureImpl future) {
-        reciever = new UtpRecieveRunnable(getDgSocket(), this);
-        reciever.start();
-
+        if (eventLoop == null) {
+            eventLoop = UtpEventLoopGroup.getDefault().loopFor(getConnectionIdRecieving());
+            eventLoop.register(getDgChannel(), this);
+        }
     }
 
     @Override
     protected void abortImpl() {
-        if (reciever != null) {
-            reciever.graceFullInterrupt();
-        } else if (server != null) {
+        if (server != null) {
             server.unregister(this);
+        } else if (eventLoop != null) {
+            eventLoop.close(getDgChannel());
+            eventLoop = null;
         }
     }
 
+    /**
+     * @return the loop all packets of this connection are handled on, null if not yet connected.
+     */
+    public UtpEventLoop getEventLoop() {
+        return eventLoop;
+    }
+
+    public void setEventLoop(UtpEventLoop eventLoop) {
+        this.eventLoop = eventLoop;
+    }
+
+    /**
+     * Creates a timer that runs the task on the loop of this connection.
+     */
+    public UtpTimer newTimer(Runnable task) {
+        UtpEventLoop loop = eventLoop;
+        if (loop == null) {
+            loop = UtpEventLoopGroup.getDefault().loopFor(getConnectionIdRecieving());
+        }
+        return loop.newTimer(task);
+    }
+
     @Override
     public UtpWriteFuture write(ByteBuffer src) {
         UtpWriteFutureImpl future = null;
@@ -276,13 +441,69 @@ public class UtpSocketChannelImpl extends UtpSocketChannel implements
         } catch (InterruptedException e) {
             e.printStackTrace();
         }
-        writer = new UtpWritingRunnable(this, src, timeStamper, future);
+        writer = new UtpWritingRunnable(this, src, timeStamper, future, getAlgorithm());
         writer.start();
         return future;
     }
 
-    public BlockingQueue<UtpTimestampedPacketDTO> getDataGramQueue() {
-        return queue;
+    @Override
+    public UtpWriteFuture transferFrom(FileChannel src, long position, long count) {
+        UtpWriteFutureImpl future = null;
+        try {
+            future = new UtpWriteFutureImpl();
+        } catch (InterruptedException e) {
+            e.printStackTrace();
+        }
+        writer = new UtpWritingRunnable(this, src, position, count, timeStamper, future, getAlgorithm());
+        writer.start();
+        return future;
+    }
+
+    @Override
+    public UtpWriteStream writeStream() {
+        UtpWriteFutureImpl future = null;
+        try {
+            future = new UtpWriteFutureImpl();
+        } catch (InterruptedException e) {
+            e.printStackTrace();
+        }
+        UtpWriteStream stream = new UtpWriteStream(config.getSendBufferSize(), future);
+        writer = new UtpWritingRunnable(this, stream, timeStamper, future, getAlgorithm());
+        writer.start();
+        return stream;
+    }
+
+    /**
+     * @return congestion and rtt state of this connection, created with the first write.
+     */
+    public UtpAlgorithm getAlgorithm() {
+        if (algorithm == null) {
+            algorithm = new UtpAlgorithm(config, timeStamper, getRemoteAdress());
+        }
+        return algorithm;
+    }
+
+    /**
+     * @return inbound acks, either STATE packets or DATA packets carrying an ack number.
+     * Packets dropped because the writer fell behind are counted there.
+     */
+    public HandoffQueue<UtpTimestampedPacketDTO> getAckQueue() {
+        return ackQueue;
+    }
+
+    /**
+     * @return inbound DATA packets.
+     */
+    public HandoffQueue<UtpTimestampedPacketDTO> getDataQueue() {
+        return dataQueue;
+    }
+
+    /**
+     * @return true if the last DATA packet sent already carried the current ack number,
+     * so the remote side knows about every packet recieved so far.
+     */
+    public boolean isAckNumberPiggybacked() {
+        return piggybackedAckNumber == getAckNumber();
     }
 
     /**
@@ -294,6 +515,17 @@ public class UtpSocketChannelImpl extends UtpSocketChannel implements
         return createDataPacket();
     }
 
+    /**
+     * Same as {@link #getNextDataPacket()}, but fills a packet that is reused.
+     */
+    public void fillNextDataPacket(UtpPacket pkt) {
+        pkt.setFirstExtension(UtpPacketUtils.NO_EXTENSION);
+        pkt.setExtensions(null);
+        pkt.setPayload(null);
+        pkt.setWindowSize(0);
+        fillDataPacket(pkt);
+    }
+
     /**
      * Returns predefined fin packet
      *
@@ -318,6 +550,32 @@ public class UtpSocketChannelImpl extends UtpSocketChannel implements
         return readFuture;
     }
 
+    @Override
+    public UtpReadFuture transferTo(FileChannel dst, long position) {
+        UtpReadFutureImpl readFuture = null;
+        try {
+            readFuture = new UtpReadFutureImpl();
+        } catch (InterruptedException e) {
+            e.printStackTrace();
+        }
+        try {
+            reader = new UtpReadingRunnable(this, dst, position, timeStamper, readFuture);
+        } catch (IOException exp) {
+            readFuture.finished(exp, 0L);
+            return readFuture;
+        }
+        reader.start();
+        return readFuture;
+    }
+
+    @Override
+    public UtpReadStream readStream() {
+        UtpReadStream stream = new UtpReadStream(config.getRecieveBufferSize());
+        reader = new UtpReadingRunnable(this, stream, timeStamper);
+        reader.start();
+        return stream;
+    }
+
     /**
      * Creates an Selective Ack packet
      *
@@ -370,6 +628,13 @@ public class UtpSocketChannelImpl extends UtpSocketChannel implements
         if (isWriting()) {
             writer.graceFullInterrupt();
         }
+        if (algorithm != null) {
+            algorithm.close();
+        }
+        if (lingerTimer != null) {
+            lingerTimer.cancel();
+        }
+        lingering = false;
         return null;
     }
 
@@ -383,6 +648,24 @@ public class UtpSocketChannelImpl extends UtpSocketChannel implements
         return (writer != null && writer.isRunning());
     }
 
+    /**
+     * Acks everything recieved in order so far, without touching the ack number.
+     *
+     * @param timestampDifference timestamp difference for the ack packet.
+     * @param windowSize          the remaining buffer size.
+     * @throws IOException
+     */
+    public void ackCurrentPosition(int timestampDifference, long windowSize) throws IOException {
+        UtpPacket ackPacket = new UtpPacket();
+        ackPacket.setAckNumber(longToUshort(getAckNumber()));
+        ackPacket.setTimestampDifference(timestampDifference);
+        ackPacket.setTimestamp(timeStamper.utpTimeStamp());
+        ackPacket.setConnectionId(longToUshort(getConnectionIdsending()));
+        ackPacket.setTypeVersion(STATE);
+        ackPacket.setWindowSize(longToUint(windowSize));
+        sendPacket(ackPacket);
+    }
+
     public void ackAlreadyAcked(SelectiveAckHeaderExtension extension, int timestampDifference,
                                 long windowSize) throws IOException {
         UtpPacket ackPacket = new UtpPacket();
@@ -400,12 +683,38 @@ public class UtpSocketChannelImpl extends UtpSocketChannel implements
 
     @Override
     public void sendPacket(DatagramPacket pkt) throws IOException {
+        ByteBuffer data = ByteBuffer.wrap(pkt.getData(), pkt.getOffset(), pkt.getLength());
         synchronized (sendLock) {
-            getDgSocket().send(pkt);
+            // non blocking: if the socket buffer is full, the datagram is dropped like on the wire.
+            getDgChannel().send(data, pkt.getSocketAddress());
         }
 
     }
 
+    /**
+     * Sends the packet with a payload that is not part of it, e.g. a part of the write buffer or a mapped file.
+     * Header and payload are put together in a reused direct buffer, nothing is allocated.
+     *
+     * @param packet  header of the packet, without payload.
+     * @param payload position and limit are left unchanged.
+     * @param offset  index of the payload in payload.
+     * @param length  length of the payload.
+     */
+    public void sendPacket(UtpPacket packet, ByteBuffer payload, int offset, int length) throws IOException {
+        synchronized (sendLock) {
+            int headerLength = packet.getHeaderLength();
+            if (sendBuffer == null || sendBuffer.capacity() < headerLength + length) {
+                sendBuffer = ByteBuffer.allocateDirect(Math.max(headerLength + length, config.getMaxPacketSize() * 2));
+            }
+            sendBuffer.clear();
+            packet.writeHeader(sendBuffer, 0);
+            sendBuffer.put(headerLength, payload, offset, length);
+            sendBuffer.limit(headerLength + length);
+            sendBuffer.position(0);
+            getDgChannel().send(sendBuffer, getRemoteAdress());
+        }
+    }
+
     /* general method to send a packet, will be wrapped by a UDP Packet */
     @Override
     public void sendPacket(UtpPacket packet) throws IOException {
@@ -419,11 +728,15 @@ public class UtpSocketChannelImpl extends UtpSocketChannel implements
     }
 
     @Override
-    public void setDgSocket(DatagramSocket dgSocket) {
-        if (this.dgSocket != null) {
-            this.dgSocket.close();
+    public void setDgChannel(DatagramChannel dgChannel) {
+        if (this.dgChannel != null) {
+            try {
+                this.dgChannel.close();
+            } catch (IOException exp) {
+                exp.printStackTrace();
+            }
         }
-        this.dgSocket = dgSocket;
+        this.dgChannel = dgChannel;
     }
 
     @Override
@@ -459,16 +772,41 @@ public class UtpSocketChannelImpl extends UtpSocketChannel implements
      */
     @Override
     protected void startConnectionTimeOutCounter(UtpPacket synPacket) {
-        retryConnectionTimeScheduler = Executors
-                .newSingleThreadScheduledExecutor();
         ConnectionTimeOutRunnable runnable = new ConnectionTimeOutRunnable(
                 synPacket, this, stateLock);
-        log.debug("starting scheduler");
-        // retryConnectionTimeScheduler.schedule(runnable, 2, TimeUnit.SECONDS);
-        retryConnectionTimeScheduler.scheduleWithFixedDelay(runnable,
-                UtpAlgConfiguration.CONNECTION_ATTEMPT_INTERVALL_MILLIS,
-                UtpAlgConfiguration.CONNECTION_ATTEMPT_INTERVALL_MILLIS,
-                TimeUnit.MILLISECONDS);
+        log.debug("starting syn retry timer");
+        synRetryTimer = newTimer(runnable);
+        scheduleSynRetry();
+        handshakeSent(true);
+    }
+
+    /* a resent SYN or syn ack makes the sample ambiguous, no rtt is taken then */
+    private void handshakeSent(boolean first) {
+        handshakeSent = first ? timeStamper.timeStamp() : 0;
+    }
+
+    /* the syn ack or the first DATA packet after ours came in */
+    private void handshakeDone() {
+        if (handshakeRttMicros == 0 && handshakeSent != 0) {
+            handshakeRttMicros = Math.max(1, timeStamper.timeStamp() - handshakeSent);
+        }
+        handshakeSent = 0;
+    }
+
+    /**
+     * @return rtt of this connection in micro seconds, the smoothed rtt once data was acked,
+     * before that the rtt of the handshake. 0 if unknown.
+     */
+    public long getRttMicros() {
+        UtpAlgorithm alg = algorithm;
+        long rtt = alg == null ? 0 : alg.getSmoothedRttMicros();
+        return rtt > 0 ? rtt : handshakeRttMicros;
+    }
+
+    private void scheduleSynRetry() {
+        if (synRetryTimer != null) {
+            synRetryTimer.schedule(config.getConnectionAttemptIntervalMillis() * 1000L);
+        }
     }
 
     /**
@@ -482,8 +820,7 @@ public class UtpSocketChannelImpl extends UtpSocketChannel implements
         setRemoteAddress(null);
         abortImpl();
         setState(CLOSED);
-        retryConnectionTimeScheduler.shutdown();
-        retryConnectionTimeScheduler = null;
+        disableConnectionTimeOutCounter();
         connectFuture.finished(exp);
 
     }
@@ -500,17 +837,19 @@ public class UtpSocketChannelImpl extends UtpSocketChannel implements
             log.debug("attempt: " + attempts);
             if (getState() == UtpSocketState.SYN_SENT) {
                 try {
-                    if (attempts < UtpAlgConfiguration.MAX_CONNECTION_ATTEMPTS) {
+                    if (attempts < config.getMaxConnectionAttempts()) {
                         incrementConnectionAttempts();
                         log.debug("REATTEMPTING CONNECTION");
+                        scheduleSynRetry();
+                        handshakeSent(false);
                         sendPacket(synPacket);
                     } else {
                         connectionFailed(new SocketTimeoutException());
                     }
                 } catch (IOException e) {
-                    if (attempts >= UtpAlgConfiguration.MAX_CONNECTION_ATTEMPTS) {
+                    if (attempts >= config.getMaxConnectionAttempts()) {
                         connectionFailed(e);
-                    } // else ignore, try in next attempt
+                    } // else ignore, try in next attempt, already scheduled
                 }
             }
         } finally {
@@ -530,9 +869,7 @@ public class UtpSocketChannelImpl extends UtpSocketChannel implements
     protected UtpPacket createAckPacket(UtpPacket pkt, int timedifference,
                                         long advertisedWindow) {
         UtpPacket ackPacket = new UtpPacket();
-        if (pkt.getTypeVersion() != FIN) {
-            setAckNrFromPacketSqNr(pkt);
-        }
+        setAckNrFromPacketSqNr(pkt);
         ackPacket.setAckNumber(longToUshort(getAckNumber()));
 
         ackPacket.setTimestampDifference(timedifference);
@@ -545,13 +882,20 @@ public class UtpSocketChannelImpl extends UtpSocketChannel implements
 
     protected UtpPacket createDataPacket() {
         UtpPacket pkt = new UtpPacket();
+        fillDataPacket(pkt);
+        return pkt;
+    }
+
+    private void fillDataPacket(UtpPacket pkt) {
         pkt.setSequenceNumber(longToUshort(getSequenceNumber()));
         incrementSequenceNumber();
-        pkt.setAckNumber(longToUshort(getAckNumber()));
+        int ackNumber = getAckNumber();
+        pkt.setAckNumber(longToUshort(ackNumber));
+        piggybackedAckNumber = ackNumber;
         pkt.setConnectionId(longToUshort(getConnectionIdsending()));
         pkt.setTimestamp(timeStamper.utpTimeStamp());
+        pkt.setTimestampDifference(lastTimestampDifference);
         pkt.setTypeVersion(UtpPacketUtils.DATA);
-        return pkt;
     }
 
 }
@@ -14,9 +14,11 @@
  */
 package net.utp4j.channels.impl;
 
+import net.utp4j.channels.impl.recieve.PooledDatagram;
 import net.utp4j.data.UtpPacket;
 
 import java.net.DatagramPacket;
+import java.nio.ByteBuffer;
 
 
 /**
@@ -27,10 +29,17 @@ import java.net.DatagramPacket;
 public class UtpTimestampedPacketDTO {
 
     private DatagramPacket packet;
-    private Long timestamp;
+    private long timestamp;
     private final UtpPacket utpPacket;
-    private final int utpTimeStamp;
-    private int ackedAfterMeCounter = 0;
+    /* payload still in the source, e.g. a mapped file, instead of in the packet and the datagram */
+    private ByteBuffer payloadSource;
+    private int payloadOffset;
+    private int payloadLength;
+    /* created by the writer, goes back to it once acked */
+    private final boolean reusable;
+    /* an ack that was not extracted, it is read from the recieve buffer */
+    private final PooledDatagram recieveBuffer;
+    private int utpTimeStamp;
     private boolean isPacketAcked = false;
     private boolean reduceWindow;
 
@@ -45,11 +54,44 @@ public class UtpTimestampedPacketDTO {
         return resendCounter;
     }
 
-    public UtpTimestampedPacketDTO(DatagramPacket p, UtpPacket u, Long s, int utpStamp) {
+    public UtpTimestampedPacketDTO(DatagramPacket p, UtpPacket u, long s, int utpStamp) {
+        this(p, u, null, s, utpStamp);
+    }
+
+    /**
+     * @param payloadSlice payload of a packet that has no datagram, it is sent from there with every (re)send.
+     */
+    public UtpTimestampedPacketDTO(DatagramPacket p, UtpPacket u, ByteBuffer payloadSlice, long s, int utpStamp) {
         this.timestamp = s;
         this.utpPacket = u;
         this.packet = p;
         this.utpTimeStamp = utpStamp;
+        this.recieveBuffer = null;
+        this.reusable = false;
+        if (payloadSlice != null) {
+            setPayload(payloadSlice, payloadSlice.position(), payloadSlice.remaining());
+        }
+    }
+
+    /**
+     * A packet the writer takes again for a later packet once this one was acked,
+     * see {@link #isReusable()}. It has no datagram, the payload is set with {@link #setPayload}.
+     */
+    public UtpTimestampedPacketDTO(UtpPacket u) {
+        this.utpPacket = u;
+        this.recieveBuffer = null;
+        this.reusable = true;
+    }
+
+    /**
+     * A packet that stays in its recieve buffer, it has no {@link #utpPacket()}.
+     * The buffer keeps this instance and hands it out again for every packet recieved into it,
+     * see {@link PooledDatagram#timestamped(long, int)}.
+     */
+    public UtpTimestampedPacketDTO(PooledDatagram recieveBuffer) {
+        this.utpPacket = null;
+        this.recieveBuffer = recieveBuffer;
+        this.reusable = false;
     }
 
     public DatagramPacket dataGram() {
@@ -60,7 +102,7 @@ public class UtpTimestampedPacketDTO {
         this.packet = p;
     }
 
-    public Long stamp() {
+    public long stamp() {
         return timestamp;
     }
 
@@ -68,32 +110,95 @@ public class UtpTimestampedPacketDTO {
         this.timestamp = stamp;
     }
 
+    /**
+     * Sets both time stamps of a packet that was just recieved.
+     */
+    public void setRecieved(long stamp, int utpStamp) {
+        this.timestamp = stamp;
+        this.utpTimeStamp = utpStamp;
+    }
+
     public UtpPacket utpPacket() {
         return utpPacket;
     }
 
-    public int utpTimeStamp() {
-        return utpTimeStamp;
+    /**
+     * The payload is not part of the packet, every (re)send takes it from source.
+     *
+     * @param source kept unchanged until the packet is acked, its position and limit are not used.
+     */
+    public void setPayload(ByteBuffer source, int offset, int length) {
+        this.payloadSource = source;
+        this.payloadOffset = offset;
+        this.payloadLength = length;
     }
 
-    public boolean isPacketAcked() {
-        return isPacketAcked;
+    /**
+     * @return where the payload is if it is not part of the packet, otherwise null.
+     */
+    public ByteBuffer payloadSource() {
+        return payloadSource;
     }
 
-    public void setPacketAcked(boolean isPacketAcked) {
-        this.isPacketAcked = isPacketAcked;
+    public int payloadOffset() {
+        return payloadOffset;
     }
 
-    public int getAckedAfterMeCounter() {
-        return ackedAfterMeCounter;
+    /**
+     * @return payload bytes, wherever they are kept.
+     */
+    public int payloadLength() {
+        if (payloadSource != null) {
+            return payloadLength;
+        }
+        byte[] payload = utpPacket.getPayload();
+        return payload == null ? 0 : payload.length;
     }
 
-    public void setAckedAfterMeCounter(int ackedAfterMeCounter) {
-        this.ackedAfterMeCounter = ackedAfterMeCounter;
+    /**
+     * @return true if the packet can be used again for another packet once it was acked.
+     */
+    public boolean isReusable() {
+        return reusable;
     }
 
-    public void incrementAckedAfterMe() {
-        ackedAfterMeCounter++;
+    /**
+     * Forgets everything about the last packet sent with it, see {@link #isReusable()}.
+     */
+    public void reuse() {
+        isPacketAcked = false;
+        reduceWindow = false;
+        resendBecauseSkipped = false;
+        resendCounter = 0;
+        payloadSource = null;
+    }
+
+    public int utpTimeStamp() {
+        return utpTimeStamp;
+    }
+
+    /**
+     * @return the buffer the packet was recieved into if it was not extracted, otherwise null.
+     */
+    public PooledDatagram recieveBuffer() {
+        return recieveBuffer;
+    }
+
+    /**
+     * Gives the recieve buffer back once the packet was handled, does nothing for an extracted packet.
+     */
+    public void release() {
+        if (recieveBuffer != null) {
+            recieveBuffer.release();
+        }
+    }
+
+    public boolean isPacketAcked() {
+        return isPacketAcked;
+    }
+
+    public void setPacketAcked(boolean isPacketAcked) {
+        this.isPacketAcked = isPacketAcked;
     }
 
     public boolean reduceWindow() {
@@ -16,6 +16,7 @@ package net.utp4j.channels.impl.accept;
 
 import net.utp4j.channels.futures.UtpAcceptFuture;
 import net.utp4j.channels.impl.UtpSocketChannelImpl;
+import net.utp4j.channels.impl.alg.UtpConnectionConfiguration;
 
 import java.io.IOException;
 
@@ -26,9 +27,22 @@ import java.io.IOException;
  */
 public class UtpAcceptFutureImpl extends UtpAcceptFuture {
 
+    private final UtpConnectionConfiguration config;
 
     public UtpAcceptFutureImpl() throws InterruptedException {
+        this(UtpConnectionConfiguration.defaults());
+    }
+
+    /**
+     * @param config configuration of the connection that gets accepted.
+     */
+    public UtpAcceptFutureImpl(UtpConnectionConfiguration config) throws InterruptedException {
         super();
+        this.config = config;
+    }
+
+    public UtpConnectionConfiguration getConfiguration() {
+        return config;
     }
 
     /**
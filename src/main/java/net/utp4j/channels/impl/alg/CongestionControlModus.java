@@ -0,0 +1,12 @@
+package net.utp4j.channels.impl.alg;
+
+public enum CongestionControlModus {
+    /**
+     * delay based scavenger, yields to other traffic
+     */
+    LEDBAT,
+    /**
+     * loss based, competes with TCP for its share of the link
+     */
+    CUBIC
+}
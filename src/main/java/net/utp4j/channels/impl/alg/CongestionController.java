@@ -0,0 +1,64 @@
+package net.utp4j.channels.impl.alg;
+
+/**
+ * Decides how many bytes a connection may have on fly and how fast it may send them.
+ * {@link UtpAlgorithm} does the packet bookkeeping and reports every sample it takes
+ * to the controller of its connection. All calls come from the writing thread.
+ * <p>
+ * Time stamps are micro seconds from {@link net.utp4j.data.MicroSecondsTimeStamp}.
+ */
+public interface CongestionController {
+
+    /**
+     * A packet was newly acked.
+     *
+     * @param bytesAcked size of the acked packet.
+     * @param windowFull true if the bytes on fly still fill the allowed window.
+     * @param timeStamp  now.
+     */
+    void ackRecieved(int bytesAcked, boolean windowFull, long timeStamp);
+
+    /**
+     * One way delay measured with an ack, the base delay already substracted.
+     * At most one sample is taken per recieved ack.
+     *
+     * @param ourDelayMicros queuing delay on the path to the remote side.
+     * @param bytesAcked     size of the packet the sample was taken with.
+     * @param timeStamp      now.
+     */
+    void delaySample(long ourDelayMicros, int bytesAcked, long timeStamp);
+
+    /**
+     * Round trip time of a packet that was not resent.
+     *
+     * @param rttMicros         rtt of this packet.
+     * @param smoothedRttMicros the smoothed rtt including this sample.
+     */
+    void rttSample(long rttMicros, long smoothedRttMicros);
+
+    /**
+     * A packet is resent because it timed out or because later packets were acked.
+     * {@link UtpAlgorithm} reports at most one loss per rtt after the window was reduced.
+     *
+     * @param timedOut  true if the packet timed out.
+     * @param timeStamp now.
+     * @return true if the window was reduced. Further losses within the same rtt
+     * then belong to the same congestion event.
+     */
+    boolean packetLost(boolean timedOut, long timeStamp);
+
+    /**
+     * @return bytes allowed on fly.
+     */
+    int getWindow();
+
+    /**
+     * Overrides the window, e.g. to leave a zero window after a timeout.
+     */
+    void setWindow(int window);
+
+    /**
+     * @return bytes per second packets should be spread at, 0 if there is no rtt sample yet.
+     */
+    long getPacingRate();
+}
@@ -0,0 +1,130 @@
+package net.utp4j.channels.impl.alg;
+
+/**
+ * CUBIC foreground congestion control (RFC 9438). Ignores queuing delay and only backs off on loss,
+ * so it competes with TCP for its share of the link instead of yielding like LEDBAT.
+ * <p>
+ * After a loss the window grows along a cubic function of the time since the loss: fast while far
+ * from the window the loss happened at, flat around it, then probing beyond it. It never grows slower
+ * than an AIMD flow with the same decrease factor would.
+ */
+public class CubicCongestionController implements CongestionController {
+
+    /**
+     * multiplicative decrease factor
+     */
+    private static final double BETA = 0.7;
+
+    /**
+     * aggressiveness of the cubic function, in packets per second cubed
+     */
+    private static final double C = 0.4;
+
+    /**
+     * window increase per rtt of the AIMD estimate, in packets
+     */
+    private static final double ALPHA = 3 * (1 - BETA) / (1 + BETA);
+
+    private static final int INITIAL_WINDOW_PACKETS = 10;
+
+    /* window unit, one full packet */
+    private final int mss;
+    private int window;
+    private int slowStartThreshold = Integer.MAX_VALUE;
+
+    /* window before the last reduction, in packets */
+    private double windowMax;
+    /* start of the current congestion avoidance epoch, 0 if none started */
+    private long epochStart;
+    /* seconds it takes the cubic function to reach windowMax again */
+    private double k;
+    /* window of an AIMD flow in the same epoch, in bytes */
+    private double aimdWindow;
+    private long smoothedRttMicros;
+
+    public CubicCongestionController(UtpConnectionConfiguration config) {
+        mss = config.getMaxPacketSize();
+        window = INITIAL_WINDOW_PACKETS * mss;
+    }
+
+    @Override
+    public void ackRecieved(int bytesAcked, boolean windowFull, long timeStamp) {
+        if (window < slowStartThreshold) {
+            window += bytesAcked;
+            return;
+        }
+        if (epochStart == 0) {
+            startEpoch(timeStamp);
+        }
+        // target for one rtt ahead, growth is capped at 50% per rtt
+        double t = (timeStamp - epochStart + smoothedRttMicros) / 1000000d;
+        double target = (C * Math.pow(t - k, 3) + windowMax) * mss;
+        target = Math.min(target, 1.5 * window);
+
+        aimdWindow += ALPHA * mss * bytesAcked / window;
+
+        double grown = window;
+        if (target > window) {
+            grown += (target - window) * bytesAcked / window;
+        }
+        window = (int) Math.max(grown, aimdWindow);
+    }
+
+    private void startEpoch(long timeStamp) {
+        epochStart = timeStamp;
+        double packets = (double) window / mss;
+        if (packets < windowMax) {
+            k = Math.cbrt((windowMax - packets) / C);
+        } else {
+            k = 0;
+            windowMax = packets;
+        }
+        aimdWindow = window;
+    }
+
+    /**
+     * CUBIC ignores the queuing delay.
+     */
+    @Override
+    public void delaySample(long ourDelayMicros, int bytesAcked, long timeStamp) {
+    }
+
+    @Override
+    public void rttSample(long rttMicros, long smoothedRttMicros) {
+        this.smoothedRttMicros = smoothedRttMicros;
+    }
+
+    @Override
+    public boolean packetLost(boolean timedOut, long timeStamp) {
+        epochStart = 0;
+        double packets = (double) window / mss;
+        // fast convergence: a flow that lost below its last maximum releases bandwidth to new flows
+        windowMax = packets < windowMax ? packets * (1 + BETA) / 2 : packets;
+        slowStartThreshold = Math.max((int) (window * BETA), 2 * mss);
+        window = timedOut ? mss : slowStartThreshold;
+        return true;
+    }
+
+    @Override
+    public int getWindow() {
+        return window;
+    }
+
+    @Override
+    public void setWindow(int window) {
+        this.window = window;
+    }
+
+    /**
+     * Paces at twice the window per rtt in slow start and 1.2 times afterwards, so pacing
+     * does not hold back the growth of the window.
+     */
+    @Override
+    public long getPacingRate() {
+        if (smoothedRttMicros <= 0) {
+            return 0;
+        }
+        double factor = window < slowStartThreshold ? 2 : 1.2;
+        return (long) (factor * window * 1000000L / smoothedRttMicros);
+    }
+}
@@ -0,0 +1,113 @@
+package net.utp4j.channels.impl.alg;
+
+import net.utp4j.channels.impl.log.UtpStatisticLogger;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * LEDBAT scavenger congestion control, the default. The window grows while the queuing delay
+ * stays below {@link UtpConnectionConfiguration#getCControlTargetMicros()} and shrinks above it,
+ * so uTP yields to other traffic on the same link. Timeouts halve the window.
+ */
+public class LedbatCongestionController implements CongestionController {
+
+    private final UtpStatisticLogger statisticLogger;
+    private final int maxCwndIncreasePacketsPerRtt;
+    private final int cControlTargetMicros;
+    private final long minimumDeltaToMaxWindowMicros;
+    private final boolean onlyPositiveGain;
+    private int maxWindow;
+    private long lastMaxedOutWindow;
+    private long smoothedRttMicros;
+    /* only logged when the gain starts being held at zero, not for every ack */
+    private boolean gainHeldAtZero;
+
+    private final static Logger log = LoggerFactory.getLogger(LedbatCongestionController.class);
+
+    public LedbatCongestionController(UtpConnectionConfiguration config, UtpStatisticLogger statisticLogger) {
+        this.statisticLogger = statisticLogger;
+        maxCwndIncreasePacketsPerRtt = config.getMaxCwndIncreasePacketsPerRtt();
+        cControlTargetMicros = config.getCControlTargetMicros();
+        minimumDeltaToMaxWindowMicros = config.getMinimumDeltaToMaxWindowMicros();
+        onlyPositiveGain = config.isOnlyPositiveGain();
+        maxWindow = maxCwndIncreasePacketsPerRtt;
+    }
+
+    @Override
+    public void ackRecieved(int bytesAcked, boolean windowFull, long timeStamp) {
+        if (windowFull) {
+            lastMaxedOutWindow = timeStamp;
+        }
+    }
+
+    @Override
+    public void delaySample(long ourDelayMicros, int bytesAcked, long timeStamp) {
+        long offTarget = cControlTargetMicros - ourDelayMicros;
+        statisticLogger.offTarget(offTarget);
+        double delayFactor = ((double) offTarget) / ((double) cControlTargetMicros);
+        statisticLogger.delayFactor(delayFactor);
+        double windowFactor = (Math.min(bytesAcked, (double) maxWindow)) / (Math.max(maxWindow, (double) bytesAcked));
+        statisticLogger.windowFactor(windowFactor);
+        int gain = (int) (maxCwndIncreasePacketsPerRtt * delayFactor * windowFactor);
+
+        if (setGainToZero(gain, timeStamp)) {
+            gain = 0;
+        }
+
+        statisticLogger.gain(gain);
+        maxWindow += gain;
+        if (maxWindow < 0) {
+            maxWindow = 0;
+        }
+    }
+
+    private boolean setGainToZero(int gain, long timeStamp) {
+        // if i have ever reached lastMaxWindow then check if its longer than 1kk micros
+        // if not, true
+        boolean lastMaxWindowNeverReached
+                = lastMaxedOutWindow == 0 || (lastMaxedOutWindow - timeStamp >= minimumDeltaToMaxWindowMicros);
+        if (lastMaxWindowNeverReached && !gainHeldAtZero) {
+            log.debug("last maxed window: setting gain to 0");
+        }
+        gainHeldAtZero = lastMaxWindowNeverReached;
+        return (onlyPositiveGain && gain < 0) || lastMaxWindowNeverReached;
+    }
+
+    @Override
+    public void rttSample(long rttMicros, long smoothedRttMicros) {
+        this.smoothedRttMicros = smoothedRttMicros;
+    }
+
+    /**
+     * Packets lost to a fast resend do not shrink the window, the delay samples already did.
+     */
+    @Override
+    public boolean packetLost(boolean timedOut, long timeStamp) {
+        if (!timedOut) {
+            return false;
+        }
+        maxWindow /= 2;
+        return true;
+    }
+
+    @Override
+    public int getWindow() {
+        return maxWindow;
+    }
+
+    @Override
+    public void setWindow(int window) {
+        this.maxWindow = window;
+    }
+
+    /**
+     * Paces at 1.2 times the window per rtt, so pacing does not keep the window from filling up.
+     */
+    @Override
+    public long getPacingRate() {
+        if (smoothedRttMicros <= 0) {
+            return 0;
+        }
+        return (long) (1.2 * maxWindow * 1000000L / smoothedRttMicros);
+    }
+}
@@ -14,9 +14,6 @@
  */
 package net.utp4j.channels.impl.alg;
 
-import java.util.LinkedList;
-import java.util.Queue;
-
 /**
  * Class implements the base delay calculation.
  *
@@ -30,7 +27,23 @@ public class MinimumDelay {
 
     private long theirTimeStamp = 0;
     private long theirMinDelay = 0;
-    private final Queue<Long> ourLastDelays = new LinkedList<>();
+    /* ring of the last delay samples, the oldest is overwritten */
+    private final long[] ourLastDelays = new long[DELAY_SAMPLE_SIZE + 1];
+    private int nextSample = 0;
+    private int sampleCount = 0;
+    private long sampleSum = 0;
+    private final long minimumDifferenceTimestampMicros;
+
+    public MinimumDelay() {
+        this(UtpAlgConfiguration.MINIMUM_DIFFERENCE_TIMESTAMP_MICROSEC);
+    }
+
+    /**
+     * @param minimumDifferenceTimestampMicros age after which a min delay sample gets replaced.
+     */
+    public MinimumDelay(long minimumDifferenceTimestampMicros) {
+        this.minimumDifferenceTimestampMicros = minimumDifferenceTimestampMicros;
+    }
 
     public long getCorrectedMinDelay() {
         return minDelay;
@@ -44,7 +57,7 @@ public class MinimumDelay {
      */
     public void updateOurDelay(long difference, long timestamp) {
 
-        if ((timestamp - this.ourTimeStamp >= UtpAlgConfiguration.MINIMUM_DIFFERENCE_TIMESTAMP_MICROSEC)
+        if ((timestamp - this.ourTimeStamp >= minimumDifferenceTimestampMicros)
                 || (this.ourTimeStamp == 0 && this.minDelay == 0)) {
             this.ourTimeStamp = timestamp;
             this.minDelay = difference;
@@ -64,7 +77,7 @@ public class MinimumDelay {
      * @param timeStampNow - timestamp  now.
      */
     public void updateTheirDelay(long theirDifference, long timeStampNow) {
-        if ((timeStampNow - this.theirTimeStamp >= UtpAlgConfiguration.MINIMUM_DIFFERENCE_TIMESTAMP_MICROSEC)
+        if ((timeStampNow - this.theirTimeStamp >= minimumDifferenceTimestampMicros)
                 || (this.theirTimeStamp == 0 && this.theirMinDelay == 0)) {
             theirMinDelay = theirDifference;
             this.theirTimeStamp = timeStampNow;
@@ -87,11 +100,14 @@ public class MinimumDelay {
      * @param ourDelay the delay
      */
     public void addSample(long ourDelay) {
-        while (ourLastDelays.size() > DELAY_SAMPLE_SIZE) {
-            ourLastDelays.poll();
+        if (sampleCount == ourLastDelays.length) {
+            sampleSum -= ourLastDelays[nextSample];
+        } else {
+            sampleCount++;
         }
-        ourLastDelays.add(ourDelay);
-
+        ourLastDelays[nextSample] = ourDelay;
+        sampleSum += ourDelay;
+        nextSample = (nextSample + 1) % ourLastDelays.length;
     }
 
     /**
@@ -100,15 +116,10 @@ public class MinimumDelay {
      * @return avg delay.
      */
     public long getRecentAverageDelay() {
-        long sum = 0;
-        for (long delay : ourLastDelays) {
-            sum += delay;
-        }
-        long sampleSize = ourLastDelays.size();
-        if (sampleSize == 0) {
+        if (sampleCount == 0) {
             return 0L;
         } else {
-            return sum / sampleSize;
+            return sampleSum / sampleCount;
         }
     }
 
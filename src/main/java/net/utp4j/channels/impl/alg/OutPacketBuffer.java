@@ -24,23 +24,59 @@ import org.slf4j.LoggerFactory;
 import java.net.DatagramPacket;
 import java.net.SocketAddress;
 import java.net.SocketException;
-import java.util.ArrayList;
-import java.util.LinkedList;
+import java.util.ArrayDeque;
 import java.util.Queue;
 
 /**
  * Out buffer that handles outgoing packets.
+ * <p>
+ * Packets are kept in a power of two ring indexed by {@code seqNr & mask}, so lookup, ack and
+ * removal are O(1). Unacked packets are additionally linked in the order they were (re)sent,
+ * which makes the oldest unacked send time an O(1) lookup as well.
+ * <p>
+ * Loss detection uses a SACK scoreboard that is updated with every packet that gets acked:
+ * an unacked packet is lost once {@link UtpConnectionConfiguration#getMinSkipPacketBeforeResend()} packets
+ * above it were acked, i.e. once it lies below the threshold formed by the n-th highest acked packet.
+ * Positions are counted from the first packet ever buffered, so they do not wrap like sequence numbers.
  *
  * @author Ivan Iljkic (i.iljkic@gmail.com)
  */
 public class OutPacketBuffer {
 
-    private static final int size = 3000;
-    private final ArrayList<UtpTimestampedPacketDTO> buffer = new ArrayList<>(
-            size);
+    private static final int INITIAL_CAPACITY = 1024;
+    /* sequence numbers are 16 bit, more packets can never be on fly */
+    private static final int MAX_CAPACITY = 1 << 16;
+
+    private UtpTimestampedPacketDTO[] ring = new UtpTimestampedPacketDTO[INITIAL_CAPACITY];
+    /* send order links of unacked packets, parallel to ring */
+    private UtpTimestampedPacketDTO[] sentBefore = new UtpTimestampedPacketDTO[INITIAL_CAPACITY];
+    private UtpTimestampedPacketDTO[] sentAfter = new UtpTimestampedPacketDTO[INITIAL_CAPACITY];
+    private int mask = INITIAL_CAPACITY - 1;
+    /* acked flags indexed by position & mask, a selective ack is checked against them a word at a time */
+    private long[] ackedBits = new long[INITIAL_CAPACITY / 64];
+
+    private int firstSeqNr;
+    private long firstPosition = 0;
+    private int count = 0;
+
+    /* scoreboard: position of the n-th highest acked packet, acked packets at or above it (at most n) */
+    private long lossThreshold = -1;
+    private int ackedAboveThreshold = 0;
+    /* packets below this position were already checked for fast resend */
+    private long lossScanPosition = 0;
+    private UtpTimestampedPacketDTO oldestUnacked;
+    private UtpTimestampedPacketDTO newestUnacked;
+
     private int bytesOnFly = 0;
+    /* payload bytes of all packets removed since the buffer was created */
+    private long payloadBytesRemoved = 0;
     private long resendTimeOutMicros;
 
+    /* acked packets of the writer, taken again for later packets */
+    private final ArrayDeque<UtpTimestampedPacketDTO> reusable = new ArrayDeque<>();
+    /* returned by getPacketsToResend, cleared with every call */
+    private final ArrayDeque<UtpTimestampedPacketDTO> toResend = new ArrayDeque<>();
+
     private final static Logger log = LoggerFactory
             .getLogger(OutPacketBuffer.class);
 
@@ -53,28 +89,40 @@ public class OutPacketBuffer {
     }
 
     private final MicroSecondsTimeStamp timeStamper;
+    private final int minSkipPacketBeforeResend;
     private SocketAddress addr;
     private long currentTime;
 
     public OutPacketBuffer(MicroSecondsTimeStamp stamper) {
+        this(stamper, UtpConnectionConfiguration.defaults());
+    }
+
+    public OutPacketBuffer(MicroSecondsTimeStamp stamper, UtpConnectionConfiguration config) {
         timeStamper = stamper;
+        minSkipPacketBeforeResend = config.getMinSkipPacketBeforeResend();
     }
 
     /**
-     * Puts a packet in the buffer.
+     * Puts a packet in the buffer. Packets must be buffered in sequence number order.
      *
      * @param pkt - the packet.
      */
     public void bufferPacket(UtpTimestampedPacketDTO pkt) {
-        buffer.add(pkt);
-        if (pkt.utpPacket().getPayload() != null) {
-            bytesOnFly += pkt.utpPacket().getPayload().length;
+        int seqNr = seqNr(pkt);
+        if (ring[seqNr & mask] != null) {
+            grow();
+        }
+        ring[seqNr & mask] = pkt;
+        if (count == 0) {
+            firstSeqNr = seqNr;
         }
-        bytesOnFly += UtpPacketUtils.DEF_HEADER_LENGTH;
+        count++;
+        linkAsNewest(pkt);
+        bytesOnFly += packetLength(pkt);
     }
 
     public boolean isEmpty() {
-        return buffer.isEmpty();
+        return count == 0;
     }
 
     /**
@@ -89,157 +137,218 @@ public class OutPacketBuffer {
         int bytesJustAcked = -1;
         UtpTimestampedPacketDTO pkt = findPacket(seqNrToAck);
         if (pkt != null) {
-            if ((pkt.utpPacket().getSequenceNumber() & 0xFFFF) == seqNrToAck) {
-                if (!pkt.isPacketAcked()) {
-                    int payloadLength = pkt.utpPacket().getPayload() == null ? 0
-                            : pkt.utpPacket().getPayload().length;
-                    bytesJustAcked = payloadLength
-                            + UtpPacketUtils.DEF_HEADER_LENGTH;
-                }
-                pkt.setPacketAcked(true);
-                if (ackSmallerThanThisSeq) {
-                    for (UtpTimestampedPacketDTO toAck : buffer) {
-                        if ((toAck.utpPacket().getSequenceNumber() & 0xFFFF) == seqNrToAck) {
-                            break;
-                        } else {
-                            toAck.setPacketAcked(true);
-                        }
+            if (!pkt.isPacketAcked()) {
+                bytesJustAcked = packetLength(pkt);
+                setAcked(pkt);
+            }
+            if (ackSmallerThanThisSeq) {
+                for (int seqNr = firstSeqNr; seqNr != seqNrToAck; seqNr = nextSeqNr(seqNr)) {
+                    UtpTimestampedPacketDTO toAck = ring[seqNr & mask];
+                    if (!toAck.isPacketAcked()) {
+                        setAcked(toAck);
                     }
                 }
-            } else {
-                log.error("ERROR FOUND WRONG SEQ NR: " + seqNrToAck
-                        + " but returned "
-                        + (pkt.utpPacket().getSequenceNumber() & 0xFFFF));
             }
         }
         return bytesJustAcked;
     }
 
-    private UtpTimestampedPacketDTO findPacket(int seqNrToAck) {
+    private void setAcked(UtpTimestampedPacketDTO pkt) {
+        pkt.setPacketAcked(true);
+        unlink(pkt);
+        long position = positionOf(seqNr(pkt));
+        int index = (int) (position & mask);
+        ackedBits[index >>> 6] |= 1L << index;
+        updateScoreboard(position);
+    }
 
-        if (!buffer.isEmpty()) {
-            int firstSeqNr = buffer.get(0).utpPacket().getSequenceNumber() & 0xFFFF;
-            int index = seqNrToAck - firstSeqNr;
-            if (index < 0) {
-                // overflow in seq nr
-                index += UnsignedTypesUtil.MAX_USHORT;
+    /**
+     * Filters a word of a selective ack before the packets are looked up, so packets that were
+     * selectively acked before cost nothing.
+     *
+     * @param seqNr sequence number of the least significant bit.
+     * @param bits  bit i stands for seqNr + i, 0 skipped.
+     * @return the bits of packets that are on fly and not acked yet.
+     */
+    public long unackedOf(int seqNr, long bits) {
+        if (count == 0 || bits == 0) {
+            return 0;
+        }
+        int max = (int) UnsignedTypesUtil.MAX_USHORT;
+        int offset = seqNr - firstSeqNr;
+        if (offset > max / 2) {
+            offset -= max;
+        } else if (offset < -max / 2) {
+            offset += max;
+        }
+        // bits below the first packet in the buffer were removed already
+        int below = 0;
+        if (offset < 0) {
+            if (offset <= -64) {
+                return 0;
             }
+            below = -offset;
+            bits >>>= below;
+            offset = 0;
+        }
+        if (offset >= count) {
+            return 0;
+        }
+        if (count - offset < 64) {
+            bits &= (1L << (count - offset)) - 1;
+        }
+        int index = (int) ((firstPosition + offset) & mask);
+        int word = index >>> 6;
+        int shift = index & 63;
+        long acked = ackedBits[word] >>> shift;
+        if (shift != 0) {
+            acked |= ackedBits[(word + 1) & (ackedBits.length - 1)] << (64 - shift);
+        }
+        return (bits & ~acked) << below;
+    }
 
-            if (index < buffer.size()
-                    && (buffer.get(index).utpPacket().getSequenceNumber() & 0xFFFF) == seqNrToAck) {
-                return buffer.get(index);
-            } else {
-                // bug -> search sequentially until fixed
-                for (UtpTimestampedPacketDTO pkt : buffer) {
-                    if ((pkt.utpPacket().getSequenceNumber() & 0xFFFF) == seqNrToAck) {
-                        return pkt;
-                    }
-                }
+    /*
+     * keeps the threshold on the n-th highest acked packet. it only moves up once n packets are acked,
+     * so all walks together cover each position at most once.
+     */
+    private void updateScoreboard(long ackedPosition) {
+        if (ackedAboveThreshold < minSkipPacketBeforeResend) {
+            ackedAboveThreshold++;
+            if (lossThreshold < 0 || ackedPosition < lossThreshold) {
+                lossThreshold = ackedPosition;
             }
-            return null;
+        } else if (ackedPosition > lossThreshold) {
+            do {
+                lossThreshold++;
+            } while (!isAckedAt(lossThreshold));
         }
+    }
 
-        return null;
+    /* removed packets were acked */
+    private boolean isAckedAt(long position) {
+        return position < firstPosition || ring[seqNrAt(position) & mask].isPacketAcked();
+    }
 
+    private UtpTimestampedPacketDTO findPacket(int seqNrToAck) {
+        UtpTimestampedPacketDTO pkt = ring[seqNrToAck & mask];
+        if (pkt != null && seqNr(pkt) == seqNrToAck) {
+            return pkt;
+        }
+        return null;
     }
 
     /**
      * Removes all acked packets up to the first unacked packet.
      */
     public void removeAcked() {
-        ArrayList<UtpTimestampedPacketDTO> toRemove = new ArrayList<UtpTimestampedPacketDTO>(
-                size);
-        for (UtpTimestampedPacketDTO pkt : buffer) {
-            if (pkt.isPacketAcked()) {
-                // we got the header, remove it from the bytes that are on the
-                // wire
-                bytesOnFly -= UtpPacketUtils.DEF_HEADER_LENGTH;
-                if (pkt.utpPacket().getPayload() != null) {
-                    // in case of a data packet, subtract the payload
-                    bytesOnFly -= pkt.utpPacket().getPayload().length;
-                }
-                toRemove.add(pkt);
-            } else {
+        while (count > 0) {
+            int slot = firstSeqNr & mask;
+            UtpTimestampedPacketDTO pkt = ring[slot];
+            if (!pkt.isPacketAcked()) {
                 break;
             }
+            // we got the header and the payload, remove them from the bytes that are on the wire
+            bytesOnFly -= packetLength(pkt);
+            payloadBytesRemoved += pkt.payloadLength();
+            ring[slot] = null;
+            int index = (int) (firstPosition & mask);
+            ackedBits[index >>> 6] &= ~(1L << index);
+            if (pkt.isReusable()) {
+                pkt.reuse();
+                reusable.push(pkt);
+            }
+            count--;
+            firstSeqNr = nextSeqNr(firstSeqNr);
+            firstPosition++;
         }
-        buffer.removeAll(toRemove);
+    }
+
+    /**
+     * @return a removed packet that {@link UtpTimestampedPacketDTO#isReusable() can be reused}, or null.
+     */
+    public UtpTimestampedPacketDTO takeReusable() {
+        return reusable.poll();
+    }
+
+    /**
+     * @return true if the loss threshold moved since the last {@link #getPacketsToResend(int)}, it may
+     * have passed unacked packets. Cheap enough to ask for every ack.
+     */
+    public boolean hasPacketsToFastResend() {
+        return ackedAboveThreshold >= minSkipPacketBeforeResend
+                && Math.max(lossScanPosition, firstPosition) < lossThreshold;
     }
 
     /**
      * Returns all packets that timed out or that should be resend by fast resend.
      *
      * @param maxResend maximum number of packets to resend.
-     * @return Queue with all packets that must be resend.
+     * @return Queue with all packets that must be resend, it is reused by the next call.
      * @throws SocketException
      */
     public Queue<UtpTimestampedPacketDTO> getPacketsToResend(int maxResend)
             throws SocketException {
         currentTime = timeStamper.timeStamp();
-        Queue<UtpTimestampedPacketDTO> unacked = new LinkedList<UtpTimestampedPacketDTO>();
-        for (UtpTimestampedPacketDTO pkt : buffer) {
-            if (!pkt.isPacketAcked()) {
-                unacked.add(pkt);
-            } else {
-                for (UtpTimestampedPacketDTO unackedPkt : unacked) {
-                    unackedPkt.incrementAckedAfterMe();
+        Queue<UtpTimestampedPacketDTO> toReturn = toResend;
+        toReturn.clear();
+        // fast resend: unacked packets that fell below the threshold since the last call
+        if (ackedAboveThreshold >= minSkipPacketBeforeResend) {
+            long position = Math.max(lossScanPosition, firstPosition);
+            for (; position < lossThreshold && toReturn.size() <= maxResend; position++) {
+                UtpTimestampedPacketDTO pkt = ring[seqNrAt(position) & mask];
+                if (!pkt.isPacketAcked() && !pkt.alreadyResendBecauseSkipped()) {
+                    pkt.setResendBecauseSkipped(true);
+                    pkt.setReduceWindow(isTimedOut(pkt));
+                    toReturn.add(pkt);
+                    updateResendTimeStamps(pkt);
                 }
             }
-
+            lossScanPosition = position;
         }
-        Queue<UtpTimestampedPacketDTO> toReturn = new LinkedList<UtpTimestampedPacketDTO>();
-
-        for (UtpTimestampedPacketDTO unackedPkt : unacked) {
-            if (resendRequired(unackedPkt) && toReturn.size() <= maxResend) {
-                toReturn.add(unackedPkt);
-//				log.debug("Resending: " + (unackedPkt.utpPacket().getSequenceNumber() & 0xFFFF));
-                updateResendTimeStamps(unackedPkt);
-            }
-            unackedPkt.setAckedAfterMeCounter(0);
+        // timeouts: the oldest sent packets, a resent packet becomes the newest one
+        while (oldestUnacked != null && isTimedOut(oldestUnacked) && toReturn.size() <= maxResend) {
+            UtpTimestampedPacketDTO pkt = oldestUnacked;
+            pkt.setReduceWindow(true);
+            toReturn.add(pkt);
+            updateResendTimeStamps(pkt);
         }
-
         return toReturn;
-
-    }
-
-    private void updateResendTimeStamps(UtpTimestampedPacketDTO unackedPkt)
-            throws SocketException {
-        unackedPkt.utpPacket().setTimestamp(timeStamper.utpTimeStamp());
-        byte[] newBytes = unackedPkt.utpPacket().toByteArray();
-        // TB: why create new datagram packet, can't it be reused?
-        // TODO: ukackedPacket.datagram.getData()[x] = newtimestamp[0]
-        // 		 ukackedPacket.datagram.getData()[x + 1] = newtimestamp[1]
-        // 		 ukackedPacket.datagram.getData()[x + 2] = newtimestamp[2]
-        // 		 ukackedPacket.datagram.getData()[x + 3] = newtimestamp[3]
-        unackedPkt.setDgPacket(new DatagramPacket(newBytes, newBytes.length,
-                addr));
-        unackedPkt.setStamp(currentTime);
     }
 
-    private boolean resendRequired(UtpTimestampedPacketDTO unackedPkt) {
-        boolean fastResend = false;
-        if (unackedPkt.getAckedAfterMeCounter() >= UtpAlgConfiguration.MIN_SKIP_PACKET_BEFORE_RESEND) {
-            if (!unackedPkt.alreadyResendBecauseSkipped()) {
-                fastResend = true;
-                unackedPkt.setResendBecauseSkipped(true);
+    private void updateResendTimeStamps(UtpTimestampedPacketDTO unackedPkt) {
+        int timestamp = timeStamper.utpTimeStamp();
+        unackedPkt.utpPacket().setTimestamp(timestamp);
+        DatagramPacket datagram = unackedPkt.dataGram();
+        if (unackedPkt.payloadSource() == null && datagram != null) {
+            // the encoded packet is sent again, only its timestamp changes
+            UtpPacketUtils.writeUint(datagram.getData(), datagram.getOffset() + UtpPacketUtils.TIMESTAMP_INDEX,
+                    timestamp);
+            if (addr != null) {
+                datagram.setSocketAddress(addr);
             }
         }
-        boolean timedOut = isTimedOut(unackedPkt);
-
-        if (!timedOut && fastResend) {
-            unackedPkt.setReduceWindow(false);
-        }
-        if (timedOut && !unackedPkt.reduceWindow()) {
-            unackedPkt.setReduceWindow(true);
-        }
+        // without a datagram the header is written again when it is sent
+        updateSendOrder(unackedPkt);
+    }
 
-        return fastResend || timedOut;
+    private void updateSendOrder(UtpTimestampedPacketDTO unackedPkt) {
+        unackedPkt.setStamp(currentTime);
+        // resend, so this is now the most recently sent packet
+        unlink(unackedPkt);
+        linkAsNewest(unackedPkt);
     }
 
     public int getBytesOnfly() {
         return bytesOnFly;
     }
 
+    /**
+     * @return payload bytes of all packets that were acked and removed, the writer frees them with it.
+     */
+    public long getPayloadBytesRemoved() {
+        return payloadBytesRemoved;
+    }
+
     private boolean isTimedOut(UtpTimestampedPacketDTO utpTimestampedPacketDTO) {
         long delta = currentTime - utpTimestampedPacketDTO.stamp();
         // if (delta > timeOutMicroSec) {
@@ -252,8 +361,8 @@ public class OutPacketBuffer {
     // helper method
     public String getSequenceOfLeft() {
         StringBuilder returnString = new StringBuilder();
-        for (UtpTimestampedPacketDTO el : buffer) {
-            returnString.append(" ").append(el.utpPacket().getSequenceNumber() & 0xFFFF);
+        for (int seqNr = firstSeqNr, i = 0; i < count; seqNr = nextSeqNr(seqNr), i++) {
+            returnString.append(" ").append(seqNr);
         }
         return returnString.toString().trim();
     }
@@ -262,16 +371,10 @@ public class OutPacketBuffer {
      * @return the timestamp of the oldest unacked packet.
      */
     public long getOldestUnackedTimestamp() {
-        if (!buffer.isEmpty()) {
-            long timeStamp = Long.MAX_VALUE;
-            for (UtpTimestampedPacketDTO pkt : buffer) {
-                if (pkt.stamp() < timeStamp && !pkt.isPacketAcked()) {
-                    timeStamp = pkt.stamp();
-                }
-            }
-            return timeStamp;
+        if (count == 0) {
+            return 0L;
         }
-        return 0L;
+        return oldestUnacked != null ? oldestUnacked.stamp() : Long.MAX_VALUE;
     }
 
     /**
@@ -304,4 +407,95 @@ public class OutPacketBuffer {
         return 1;
     }
 
+    /*
+     * doubles the ring, every packet moves to its slot under the new mask.
+     */
+    private void grow() {
+        int capacity = ring.length << 1;
+        if (capacity > MAX_CAPACITY) {
+            throw new IllegalStateException("more packets on fly than sequence numbers");
+        }
+        UtpTimestampedPacketDTO[] oldRing = ring;
+        UtpTimestampedPacketDTO[] oldBefore = sentBefore;
+        UtpTimestampedPacketDTO[] oldAfter = sentAfter;
+        int oldMask = mask;
+        ring = new UtpTimestampedPacketDTO[capacity];
+        sentBefore = new UtpTimestampedPacketDTO[capacity];
+        sentAfter = new UtpTimestampedPacketDTO[capacity];
+        mask = capacity - 1;
+        ackedBits = new long[capacity / 64];
+        for (int seqNr = firstSeqNr, i = 0; i < count; seqNr = nextSeqNr(seqNr), i++) {
+            ring[seqNr & mask] = oldRing[seqNr & oldMask];
+            sentBefore[seqNr & mask] = oldBefore[seqNr & oldMask];
+            sentAfter[seqNr & mask] = oldAfter[seqNr & oldMask];
+            if (ring[seqNr & mask].isPacketAcked()) {
+                int index = (int) ((firstPosition + i) & mask);
+                ackedBits[index >>> 6] |= 1L << index;
+            }
+        }
+        log.debug("out buffer grown to " + capacity + " packets");
+    }
+
+    private void linkAsNewest(UtpTimestampedPacketDTO pkt) {
+        int slot = seqNr(pkt) & mask;
+        sentBefore[slot] = newestUnacked;
+        sentAfter[slot] = null;
+        if (newestUnacked != null) {
+            sentAfter[seqNr(newestUnacked) & mask] = pkt;
+        } else {
+            oldestUnacked = pkt;
+        }
+        newestUnacked = pkt;
+    }
+
+    private void unlink(UtpTimestampedPacketDTO pkt) {
+        int slot = seqNr(pkt) & mask;
+        UtpTimestampedPacketDTO before = sentBefore[slot];
+        UtpTimestampedPacketDTO after = sentAfter[slot];
+        if (before != null) {
+            sentAfter[seqNr(before) & mask] = after;
+        } else {
+            oldestUnacked = after;
+        }
+        if (after != null) {
+            sentBefore[seqNr(after) & mask] = before;
+        } else {
+            newestUnacked = before;
+        }
+        sentBefore[slot] = null;
+        sentAfter[slot] = null;
+    }
+
+    /*
+     * sequence numbers wrap from MAX_USHORT to 1, 0 is never used.
+     */
+    private static int nextSeqNr(int seqNr) {
+        return seqNr == UnsignedTypesUtil.MAX_USHORT ? 1 : seqNr + 1;
+    }
+
+    private long positionOf(int seqNr) {
+        int offset = seqNr - firstSeqNr;
+        if (offset < 0) {
+            // 0 is skipped when wrapping
+            offset += (int) UnsignedTypesUtil.MAX_USHORT;
+        }
+        return firstPosition + offset;
+    }
+
+    private int seqNrAt(long position) {
+        int seqNr = firstSeqNr + (int) (position - firstPosition);
+        if (seqNr > UnsignedTypesUtil.MAX_USHORT) {
+            seqNr -= (int) UnsignedTypesUtil.MAX_USHORT;
+        }
+        return seqNr;
+    }
+
+    private static int seqNr(UtpTimestampedPacketDTO pkt) {
+        return pkt.utpPacket().getSequenceNumber() & 0xFFFF;
+    }
+
+    private static int packetLength(UtpTimestampedPacketDTO pkt) {
+        return UtpPacketUtils.DEF_HEADER_LENGTH + pkt.payloadLength();
+    }
+
 }
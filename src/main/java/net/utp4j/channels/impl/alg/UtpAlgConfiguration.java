@@ -14,13 +14,39 @@
  */
 package net.utp4j.channels.impl.alg;
 
+/**
+ * Process wide settings. The per connection values are only defaults, they are copied
+ * into a {@link UtpConnectionConfiguration} when a connection is opened or accepted,
+ * so changing them does not affect running connections.
+ */
 public class UtpAlgConfiguration {
 
     public static final int MAX_CONNECTION_ATTEMPTS = 5;
     public static final int CONNECTION_ATTEMPT_INTERVALL_MILLIS = 5000;
 
+    /**
+     * Number of event loop threads that serve all sockets.
+     * Read once, when the first socket is opened.
+     */
+    public static volatile int EVENT_LOOP_THREADS = Runtime.getRuntime().availableProcessors();
+
+    /**
+     * Number of recieve buffers each event loop keeps pooled.
+     */
+    public static volatile int RECIEVE_BUFFER_POOL_SIZE = 1024;
+
+    /**
+     * Resolution of the timer wheel each event loop keeps, timers fire on the first tick after their deadline.
+     */
+    public static volatile long TIMER_TICK_MICROS = 1000;
+
+    /**
+     * Number of slots of the timer wheel, one turn of the wheel covers this many ticks.
+     */
+    public static volatile int TIMER_WHEEL_SIZE = 512;
+
     public static long MINIMUM_DELTA_TO_MAX_WINDOW_MICROS = 1000000;
-    // ack every second packets
+    // ack every second packets on a steady path, every packet while ramping up or after a loss
     public static int SKIP_PACKETS_UNTIL_ACK = 2;
 
 
@@ -48,6 +74,11 @@ public class UtpAlgConfiguration {
      */
     public static PacketSizeModus PACKET_SIZE_MODE = PacketSizeModus.CONSTANT_1472;
 
+    /**
+     * Congestion control of new connections
+     */
+    public static volatile CongestionControlModus CONGESTION_CONTROL_MODE = CongestionControlModus.LEDBAT;
+
     /**
      * maximum packet size should be dynamically set once path mtu discovery
      * implemented.
@@ -78,11 +109,14 @@ public class UtpAlgConfiguration {
 
     /**
      * activate burst sending
+     *
+     * @deprecated sending is paced over the round trip time, see {@link UtpPacer}. Has no effect.
      */
+    @Deprecated
     public static volatile boolean SEND_IN_BURST = true;
 
     /**
-     * Reduce burst sending artificially
+     * Maximum number of packets resent at once
      */
     public static volatile int MAX_BURST_SEND = 5;
 
@@ -91,12 +125,57 @@ public class UtpAlgConfiguration {
      */
     public static volatile int MIN_SKIP_PACKET_BEFORE_RESEND = 3;
 
+    /**
+     * @deprecated sending is paced over the round trip time, see {@link UtpPacer}. Has no effect.
+     */
+    @Deprecated
     public static volatile long MICROSECOND_WAIT_BETWEEN_BURSTS = 28000;
 
+    /**
+     * Time after a read ended on a FIN during which resent packets of that transfer are still acked.
+     * Does not delay the read.
+     */
     public static volatile long TIME_WAIT_AFTER_LAST_PACKET = 3000000;
 
+    /**
+     * Longest time a recieved packet waits for the next one before it is acked on its own.
+     * Once the rtt is known, a packet waits a quarter of it at most.
+     */
+    public static volatile long DELAYED_ACK_MICROS = 100000;
+
+    /**
+     * Bytes a streaming reader buffers until the application reads them, see {@link net.utp4j.channels.UtpSocketChannel#readStream()}.
+     * The advertised window follows the free space in this buffer.
+     */
+    public static volatile int RECIEVE_BUFFER_SIZE = 1048576;
+
+    /**
+     * Bytes a streaming writer takes from the application before writes block or are cut short,
+     * see {@link net.utp4j.channels.UtpSocketChannel#writeStream()}.
+     */
+    public static volatile int SEND_BUFFER_SIZE = 1048576;
+
+    /**
+     * Bytes of a file mapped at once by {@link net.utp4j.channels.UtpSocketChannel#transferFrom} and
+     * {@link net.utp4j.channels.UtpSocketChannel#transferTo}, payloads go straight from or into the mapping.
+     */
+    public static volatile int TRANSFER_MAP_SIZE = 64 * 1048576;
+
+    /**
+     * Packets each connection queues from the event loop for its reader and for its writer.
+     * Packets that arrive while the queue is full are dropped and resent by the remote side.
+     */
+    public static volatile int HANDOFF_QUEUE_SIZE = 2048;
+
     public static volatile boolean ONLY_POSITIVE_GAIN = false;
 
+    /**
+     * Acks recieved while the writer waits are applied on the event loop that recieved them,
+     * the writer is only woken up once it can send again. Otherwise every ack is queued for the writer.
+     * Saves a thread hand off per ack where the event loop and the writer have a core each.
+     */
+    public static volatile boolean INLINE_ACKS = false;
+
     public static volatile boolean DEBUG = false;
 
 
@@ -107,6 +186,7 @@ public class UtpAlgConfiguration {
         String toReturn = "";
         toReturn += "MINIMUM_TIMEOUT_MILLIS: " + MINIMUM_TIMEOUT_MILLIS + " ";
         toReturn += "PACKET_SIZE_MODE: " + PACKET_SIZE_MODE + " ";
+        toReturn += "CONGESTION_CONTROL_MODE: " + CONGESTION_CONTROL_MODE + " ";
         toReturn += "MAX_PACKET_SIZE: " + MAX_PACKET_SIZE + " ";
         toReturn += "MIN_PACKET_SIZE: " + MIN_PACKET_SIZE + " ";
         toReturn += "MINIMUM_MTU: " + MINIMUM_MTU + " ";
@@ -117,7 +197,13 @@ public class UtpAlgConfiguration {
         toReturn += "MIN_SKIP_PACKET_BEFORE_RESEND: " + MIN_SKIP_PACKET_BEFORE_RESEND + " ";
         toReturn += "MICROSECOND_WAIT_BETWEEN_BURSTS: " + MICROSECOND_WAIT_BETWEEN_BURSTS + " ";
         toReturn += "TIME_WAIT_AFTER_FIN_MICROS: " + TIME_WAIT_AFTER_LAST_PACKET + " ";
+        toReturn += "DELAYED_ACK_MICROS: " + DELAYED_ACK_MICROS + " ";
+        toReturn += "RECIEVE_BUFFER_SIZE: " + RECIEVE_BUFFER_SIZE + " ";
+        toReturn += "SEND_BUFFER_SIZE: " + SEND_BUFFER_SIZE + " ";
+        toReturn += "TRANSFER_MAP_SIZE: " + TRANSFER_MAP_SIZE + " ";
+        toReturn += "HANDOFF_QUEUE_SIZE: " + HANDOFF_QUEUE_SIZE + " ";
         toReturn += "ONLY_POSITIVE_GAIN: " + ONLY_POSITIVE_GAIN + " ";
+        toReturn += "INLINE_ACKS: " + INLINE_ACKS + " ";
         toReturn += "DEBUG: " + DEBUG + " ";
         return toReturn;
     }
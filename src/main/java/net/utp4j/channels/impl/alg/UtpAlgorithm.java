@@ -16,6 +16,7 @@ package net.utp4j.channels.impl.alg;
 
 import net.utp4j.channels.impl.UtpTimestampedPacketDTO;
 import net.utp4j.channels.impl.log.UtpDataLogger;
+import net.utp4j.channels.impl.recieve.PooledDatagram;
 import net.utp4j.channels.impl.log.UtpNopLogger;
 import net.utp4j.channels.impl.log.UtpStatisticLogger;
 import net.utp4j.data.*;
@@ -27,34 +28,41 @@ import java.net.DatagramPacket;
 import java.net.SocketAddress;
 import java.net.SocketException;
 import java.nio.ByteBuffer;
+import java.util.Arrays;
 import java.util.LinkedList;
+import java.util.List;
 import java.util.Queue;
 
-import static net.utp4j.channels.impl.alg.UtpAlgConfiguration.*;
-
 public class UtpAlgorithm {
 
     /**
      * Variables
      */
+    private final UtpConnectionConfiguration config;
     private int currentWindow = 0;
-    private int maxWindow;
-    private MinimumDelay minDelay = new MinimumDelay();
+    private CongestionController congestionController;
+    private MinimumDelay minDelay;
     private OutPacketBuffer buffer;
     private MicroSecondsTimeStamp timeStamper;
     private int currentAckPosition = 0;
-    private int currentBurstSend = 0;
+    private final UtpPacer pacer;
     private long lastZeroWindow;
     private ByteBuffer bBuffer;
 
     private long rtt;
     private long rttVar = 0;
+    /* to the micro second and seeded by the first sample, unlike rtt which seeds the timeout */
+    private long smoothedRttMicros = 0;
+    /* copy of smoothedRttMicros for the reader of the connection, which runs on another thread */
+    private volatile long publishedRttMicros = 0;
 
 
     private int advertisedWindowSize;
     private boolean advertisedWindowSizeSet = false;
 
     private final UtpStatisticLogger statisticLogger;
+    private final SocketAddress remoteAddress;
+    private long totalBytesSend = 0;
 
     private long lastTimeWindowReduced;
     private long timeStampNow;
@@ -62,24 +70,61 @@ public class UtpAlgorithm {
 
     private int resentPackets = 0;
     private int totalPackets = 0;
-    private long lastMaxedOutWindow;
+
+    /* set while acksRecieved folds a batch of acks, see foldAck */
+    private boolean folding;
+    private int foldedAcks;
+    private int foldedAckNr;
+    private int foldedBytes;
+    /* first packet newly acked by a selective ack of the batch, -1 if none */
+    private int foldedSackNr;
+    /* time stamps of the acks of the batch that carry a delay sample */
+    private int[] sampleTimestamps = new int[16];
+    private int[] sampleDifferences = new int[16];
+    private int[] sampleRecieved = new int[16];
+    private int samples;
+
+    /* the pacing credit may cover a few wake ups of the writer */
+    private static final int PACING_QUANTUM_TICKS = 2;
 
     private final static Logger log = LoggerFactory.getLogger(UtpAlgorithm.class);
 
 
     public UtpAlgorithm(MicroSecondsTimeStamp timestamper, SocketAddress addr) {
-        maxWindow = MAX_CWND_INCREASE_PACKETS_PER_RTT;
-        rtt = MINIMUM_TIMEOUT_MILLIS * 2L;
+        this(UtpConnectionConfiguration.defaults(), timestamper, addr);
+    }
+
+    public UtpAlgorithm(UtpConnectionConfiguration config, MicroSecondsTimeStamp timestamper, SocketAddress addr) {
+        this.config = config;
+        this.remoteAddress = addr;
+        rtt = config.getMinimumTimeoutMillis() * 2L;
         timeStamper = timestamper;
-        buffer = new OutPacketBuffer(timestamper);
+        minDelay = new MinimumDelay(config.getMinimumDifferenceTimestampMicros());
+        buffer = new OutPacketBuffer(timestamper, config);
         buffer.setRemoteAdress(addr);
-        log.debug(UtpAlgConfiguration.getString());
+        log.debug(config.toString());
         timeStampNow = timeStamper.timeStamp();
         if (UtpAlgConfiguration.DEBUG) {
             statisticLogger = new UtpDataLogger();
         } else {
             statisticLogger = new UtpNopLogger();
         }
+        congestionController = createCongestionController(config.getCongestionControlMode());
+        pacer = new UtpPacer(2 * config.getMaxPacketSize(), PACING_QUANTUM_TICKS * UtpAlgConfiguration.TIMER_TICK_MICROS);
+    }
+
+    private CongestionController createCongestionController(CongestionControlModus modus) {
+        if (modus == CongestionControlModus.CUBIC) {
+            return new CubicCongestionController(config);
+        }
+        return new LedbatCongestionController(config, statisticLogger);
+    }
+
+    /**
+     * Replaces the congestion controller, e.g. by an own implementation.
+     */
+    public void setCongestionController(CongestionController congestionController) {
+        this.congestionController = congestionController;
     }
 
     public void setOutPacketBuffer(OutPacketBuffer outBuffer) {
@@ -92,69 +137,220 @@ public class UtpAlgorithm {
      * @param pair packet with the meta data.
      */
     public void ackRecieved(UtpTimestampedPacketDTO pair) {
-        int seqNrToAck = pair.utpPacket().getAckNumber() & 0xFFFF;
-//		log.debug("Recieved ACK " + pair.utpPacket().toString());
+        PooledDatagram recieveBuffer = pair.recieveBuffer();
+        if (recieveBuffer != null) {
+            DatagramPacket udpPacket = recieveBuffer.packet();
+            ackRecieved(udpPacket.getData(), udpPacket.getOffset(), udpPacket.getLength(), pair.utpTimeStamp());
+            return;
+        }
+        UtpPacket utpPacket = pair.utpPacket();
+        SelectiveAckHeaderExtension selectiveAckExtension = findSelectiveAckExtension(utpPacket);
+        byte[] bitMask = selectiveAckExtension == null ? null : selectiveAckExtension.getBitMask();
+        ackRecieved(utpPacket.getTypeVersion(), utpPacket.getAckNumber() & 0xFFFF, utpPacket.getWindowSize(),
+                utpPacket.getTimestamp(), utpPacket.getTimestampDifference(), pair.utpTimeStamp(),
+                bitMask, 0, bitMask == null ? 0 : bitMask.length);
+    }
+
+    /**
+     * Handles the acks as one: the highest ack number acks everything below it once and the selective
+     * acks are applied together, so rtt and window are updated once for the batch instead of for every ack.
+     * The delay of every ack is still sampled, each with an equal share of the bytes the batch acked.
+     * The acks are not released, acked packets are not removed.
+     *
+     * @param acks acks in the order they were recieved.
+     */
+    public void acksRecieved(List<UtpTimestampedPacketDTO> acks) {
+        if (acks.size() == 1) {
+            ackRecieved(acks.get(0));
+            return;
+        }
+        if (acks.isEmpty()) {
+            return;
+        }
         timeStampNow = timeStamper.timeStamp();
         lastAckRecieved = timeStampNow;
-        int advertisedWindo = pair.utpPacket().getWindowSize() & 0xFFFFFFFF;
-        updateAdvertisedWindowSize(advertisedWindo);
+        folding = true;
+        foldedAcks = 0;
+        foldedBytes = 0;
+        foldedSackNr = -1;
+        samples = 0;
+        try {
+            for (int i = 0; i < acks.size(); i++) {
+                ackRecieved(acks.get(i));
+            }
+        } finally {
+            folding = false;
+        }
+        if (foldedAcks == 0) {
+            return;
+        }
+        int packetSizeJustAcked = buffer.markPacketAcked(foldedAckNr, timeStampNow,
+                config.isAutoAckSmallerThanAckNumber());
+        if (packetSizeJustAcked > 0) {
+            updateRtt(timeStampNow, foldedAckNr);
+            foldedBytes += packetSizeJustAcked;
+        } else if (foldedSackNr >= 0) {
+            updateRtt(timeStampNow, foldedSackNr);
+        }
+        if (foldedBytes > 0) {
+            packetAcked(foldedBytes);
+            int share = foldedBytes / Math.max(samples, 1);
+            for (int i = 0; i < samples; i++) {
+                int bytes = i == samples - 1 ? foldedBytes - share * i : share;
+                updateWindow(sampleTimestamps[i], sampleDifferences[i], bytes, sampleRecieved[i]);
+            }
+        }
+        statisticLogger.next();
+    }
+
+    /*
+     * one ack of a batch: only the highest ack number is kept, selective acks are applied
+     * right away and the delay sample waits until the batch is through.
+     */
+    private void foldAck(boolean isDataPacket, int seqNrToAck, int timestamp, int timestampDifference,
+                         int utpRecieved, byte[] bitMask, int bitMaskOffset, int bitMaskLength) {
+        int ahead = (seqNrToAck - foldedAckNr) & 0xFFFF;
+        if (foldedAcks == 0 || (ahead != 0 && ahead < UnsignedTypesUtil.MAX_USHORT / 2)) {
+            foldedAckNr = seqNrToAck;
+        }
+        foldedAcks++;
+        if (!isDataPacket || timestampDifference != 0) {
+            if (samples == sampleTimestamps.length) {
+                sampleTimestamps = Arrays.copyOf(sampleTimestamps, samples * 2);
+                sampleDifferences = Arrays.copyOf(sampleDifferences, samples * 2);
+                sampleRecieved = Arrays.copyOf(sampleRecieved, samples * 2);
+            }
+            sampleTimestamps[samples] = timestamp;
+            sampleDifferences[samples] = timestampDifference;
+            sampleRecieved[samples] = utpRecieved;
+            samples++;
+        }
+        if (bitMaskLength > 0) {
+            selectiveAckRecieved(seqNrToAck, timestamp, timestampDifference, utpRecieved, bitMask, bitMaskOffset,
+                    bitMaskLength);
+        }
+    }
+
+    /**
+     * Same as {@link #ackRecieved(UtpTimestampedPacketDTO)}, but reads the header fields and the
+     * selective ack from where the packet was recieved into, nothing is allocated.
+     *
+     * @param data        the recieved bytes
+     * @param offset      start of the packet
+     * @param length      length of the packet
+     * @param utpRecieved uTP time stamp when the packet was recieved.
+     */
+    public void ackRecieved(byte[] data, int offset, int length, int utpRecieved) {
+        if (length < UtpPacketUtils.DEF_HEADER_LENGTH) {
+            return;
+        }
+        int bitMaskIndex = UtpPacketUtils.findSelectiveAck(data, offset, length);
+        int bitMaskLength = bitMaskIndex < 0 ? 0 : data[bitMaskIndex - 1] & 0xFF;
+        ackRecieved(data[offset],
+                UtpPacketUtils.readUshort(data, offset + UtpPacketUtils.ACK_NUMBER_INDEX),
+                UtpPacketUtils.readUint(data, offset + UtpPacketUtils.WINDOW_SIZE_INDEX),
+                UtpPacketUtils.readUint(data, offset + UtpPacketUtils.TIMESTAMP_INDEX),
+                UtpPacketUtils.readUint(data, offset + UtpPacketUtils.TIMESTAMP_DIFFERENCE_INDEX),
+                utpRecieved, data, bitMaskIndex, bitMaskLength);
+    }
+
+    private void ackRecieved(byte type, int seqNrToAck, int windowSize, int timestamp, int timestampDifference,
+                             int utpRecieved, byte[] bitMask, int bitMaskOffset, int bitMaskLength) {
+//		log.debug("Recieved ACK " + seqNrToAck);
+        // the window field of a DATA or FIN packet does not advertise a recieve window
+        boolean isDataPacket = type == UtpPacketUtils.DATA || type == UtpPacketUtils.FIN;
+        if (!isDataPacket) {
+            updateAdvertisedWindowSize(windowSize);
+        }
         statisticLogger.ackRecieved(seqNrToAck);
+        if (folding) {
+            foldAck(isDataPacket, seqNrToAck, timestamp, timestampDifference, utpRecieved, bitMask, bitMaskOffset,
+                    bitMaskLength);
+            return;
+        }
+        timeStampNow = timeStamper.timeStamp();
+        lastAckRecieved = timeStampNow;
         int packetSizeJustAcked = buffer.markPacketAcked(seqNrToAck, timeStampNow,
-                UtpAlgConfiguration.AUTO_ACK_SMALLER_THAN_ACK_NUMBER);
+                config.isAutoAckSmallerThanAckNumber());
         if (packetSizeJustAcked > 0) {
             updateRtt(timeStampNow, seqNrToAck);
-            updateWindow(pair.utpPacket(), timeStampNow, packetSizeJustAcked, pair.utpTimeStamp());
-        }
-        // TODO: With libutp, sometimes null pointer exception -> investigate.
-//			log.debug("utpPacket With Ext: " + pair.utpPacket().toString());
-        SelectiveAckHeaderExtension selectiveAckExtension = findSelectiveAckExtension(pair.utpPacket());
-        if (selectiveAckExtension != null) {
-
-            // if a new packed is acked by selectiveAck, we will
-            // only update this one. if more than one is acked newly,
-            // ignore it, because it will corrupt our measurements
-            boolean windowAlreadyUpdated = false;
-
-            // For each byte in the selective Ack header extension
-            byte[] bitMask = selectiveAckExtension.getBitMask();
-            for (int i = 0; i < bitMask.length; i++) {
-                // each bit in the extension, from 2 to 9, because least significant
-                // bit is ACK+2, most significant bit is ack+9 -> loop [2,9]
-                for (int j = 2; j < 10; j++) {
-                    if (SelectiveAckHeaderExtension.isBitMarked(bitMask[i], j)) {
-                        // j-th bit of i-th byte + seqNrToAck equals our selective-Ack-number.
-                        // example:
-                        // ack:5, sack: 8 -> i = 0, j =3 -> 0*8+3+5 = 8.
-                        // bitpattern in this case would be 00000010, bit_index 1 from right side, added 2 to it equals 3
-                        // thats why we start with j=2. most significant bit is index 7, j would be 9 then.
-                        int sackSeqNr = i * 8 + j + seqNrToAck;
-                        // sackSeqNr can overflow too !!
-                        if (sackSeqNr > UnsignedTypesUtil.MAX_USHORT) {
-                            sackSeqNr -= (int) UnsignedTypesUtil.MAX_USHORT;
-                        }
-                        statisticLogger.sAck(sackSeqNr);
-                        // dont ack smaller seq numbers in case of Selective ack !!!!!
-                        packetSizeJustAcked = buffer.markPacketAcked(sackSeqNr, timeStampNow, false);
-                        if (packetSizeJustAcked > 0 && !windowAlreadyUpdated) {
-                            windowAlreadyUpdated = true;
-                            updateRtt(timeStampNow, sackSeqNr);
-                            updateWindow(pair.utpPacket(), timeStampNow, packetSizeJustAcked, pair.utpTimeStamp());
-                        }
-                    }
-                }
+            packetAcked(packetSizeJustAcked);
+            // a DATA packet sent before the remote side recieved anything carries no delay sample
+            if (!isDataPacket || timestampDifference != 0) {
+                updateWindow(timestamp, timestampDifference, packetSizeJustAcked, utpRecieved);
             }
         }
+        if (bitMaskLength > 0) {
+            selectiveAckRecieved(seqNrToAck, timestamp, timestampDifference, utpRecieved, bitMask, bitMaskOffset,
+                    bitMaskLength);
+        }
         statisticLogger.next();
 
     }
 
+    /*
+     * the bitmask is read 64 bits at a time, only the set bits are visited. bit i is ack + 2 + i,
+     * the least significant bit of the first byte is ack + 2.
+     */
+    private void selectiveAckRecieved(int seqNrToAck, int timestamp, int timestampDifference, int utpRecieved,
+                                      byte[] bitMask, int bitMaskOffset, int bitMaskLength) {
+        // if a new packed is acked by selectiveAck, we will
+        // only update this one. if more than one is acked newly,
+        // ignore it, because it will corrupt our measurements
+        boolean windowAlreadyUpdated = false;
+        for (int i = 0; i < bitMaskLength; i += 8) {
+            long bits = 0;
+            int wordLength = Math.min(8, bitMaskLength - i);
+            for (int j = 0; j < wordLength; j++) {
+                bits |= (bitMask[bitMaskOffset + i + j] & 0xFFL) << (j * 8);
+            }
+            // sackSeqNr can overflow too, 0 is skipped
+            int wordSeqNr = (int) ((seqNrToAck + 1L + i * 8) % UnsignedTypesUtil.MAX_USHORT) + 1;
+            // only packets not acked before are looked up, they go to the congestion control at once
+            bits = buffer.unackedOf(wordSeqNr, bits);
+            int bytesJustAcked = 0;
+            while (bits != 0) {
+                int bit = Long.numberOfTrailingZeros(bits);
+                bits &= bits - 1;
+                int sackSeqNr = (int) ((wordSeqNr - 1L + bit) % UnsignedTypesUtil.MAX_USHORT) + 1;
+                statisticLogger.sAck(sackSeqNr);
+                // dont ack smaller seq numbers in case of Selective ack !!!!!
+                int packetSizeJustAcked = buffer.markPacketAcked(sackSeqNr, timeStampNow, false);
+                if (packetSizeJustAcked > 0 && folding) {
+                    if (foldedSackNr < 0) {
+                        foldedSackNr = sackSeqNr;
+                    }
+                    foldedBytes += packetSizeJustAcked;
+                } else if (packetSizeJustAcked > 0 && !windowAlreadyUpdated) {
+                    windowAlreadyUpdated = true;
+                    packetAcked(packetSizeJustAcked);
+                    updateRtt(timeStampNow, sackSeqNr);
+                    updateWindow(timestamp, timestampDifference, packetSizeJustAcked, utpRecieved);
+                } else if (packetSizeJustAcked > 0) {
+                    bytesJustAcked += packetSizeJustAcked;
+                }
+            }
+            if (bytesJustAcked > 0) {
+                packetAcked(bytesJustAcked);
+            }
+        }
+    }
+
     private void updateRtt(long timestamp, int seqNrToAck) {
         long sendTimeStamp = buffer.getSendTimeStamp(seqNrToAck);
         if (rttUpdateNecessary(sendTimeStamp, seqNrToAck)) {
-            long packetRtt = (timestamp - sendTimeStamp) / 1000;
+            long packetRttMicros = timestamp - sendTimeStamp;
+            long packetRtt = packetRttMicros / 1000;
             long delta = rtt - packetRtt;
             rttVar += (Math.abs(delta) - rttVar) / 4;
             rtt += (packetRtt - rtt) / 8;
+            if (smoothedRttMicros == 0) {
+                smoothedRttMicros = packetRttMicros;
+            } else {
+                smoothedRttMicros += (packetRttMicros - smoothedRttMicros) / 8;
+            }
+            publishedRttMicros = smoothedRttMicros;
+            congestionController.rttSample(packetRttMicros, smoothedRttMicros);
             statisticLogger.pktRtt(packetRtt);
             statisticLogger.rttVar(rttVar);
             statisticLogger.rtt(rtt);
@@ -175,21 +371,22 @@ public class UtpAlgorithm {
 
     }
 
-    private void updateWindow(UtpPacket utpPacket, long timestamp, int packetSizeJustAcked, int utpRecieved) {
-        statisticLogger.microSecTimeStamp(timeStampNow);
+    private void packetAcked(int packetSizeJustAcked) {
         currentWindow = buffer.getBytesOnfly();
+        congestionController.ackRecieved(packetSizeJustAcked, isWindowFull(), timeStampNow);
+    }
 
-        if (isWindowFull()) {
-            lastMaxedOutWindow = timeStampNow;
-        }
+    private void updateWindow(int timestamp, int timestampDifference, int packetSizeJustAcked, int utpRecieved) {
+        statisticLogger.microSecTimeStamp(timeStampNow);
+        currentWindow = buffer.getBytesOnfly();
 
         statisticLogger.currentWindow(currentWindow);
 
-        long ourDifference = utpPacket.getTimestampDifference() & 0xFFFFFFFF;
+        long ourDifference = timestampDifference & 0xFFFFFFFF;
         statisticLogger.ourDifference(ourDifference);
         updateOurDelay(ourDifference);
 
-        int theirDifference = timeStamper.utpDifference(utpRecieved, utpPacket.getTimestamp());
+        int theirDifference = timeStamper.utpDifference(utpRecieved, timestamp);
 
         statisticLogger.theirDifference(theirDifference);
         updateTheirDelay(theirDifference);
@@ -200,23 +397,8 @@ public class UtpAlgorithm {
         statisticLogger.minDelay(minDelay.getCorrectedMinDelay());
         statisticLogger.ourDelay(ourDelay);
 
-        long offTarget = C_CONTROL_TARGET_MICROS - ourDelay;
-        statisticLogger.offTarget(offTarget);
-        double delayFactor = ((double) offTarget) / ((double) C_CONTROL_TARGET_MICROS);
-        statisticLogger.delayFactor(delayFactor);
-        double windowFactor = (Math.min(packetSizeJustAcked, (double) maxWindow)) / (Math.max(maxWindow, (double) packetSizeJustAcked));
-        statisticLogger.windowFactor(windowFactor);
-        int gain = (int) (MAX_CWND_INCREASE_PACKETS_PER_RTT * delayFactor * windowFactor);
-
-        if (setGainToZero(gain)) {
-            gain = 0;
-        }
-
-        statisticLogger.gain(gain);
-        maxWindow += gain;
-        if (maxWindow < 0) {
-            maxWindow = 0;
-        }
+        congestionController.delaySample(ourDelay, packetSizeJustAcked, timeStampNow);
+        int maxWindow = congestionController.getWindow();
 //		log.debug("current:max " + currentWindow + ":" + maxWindow);
         statisticLogger.maxWindow(maxWindow);
         statisticLogger.advertisedWindow(advertisedWindowSize);
@@ -234,25 +416,13 @@ public class UtpAlgorithm {
     }
 
 
-    private boolean setGainToZero(int gain) {
-        // if i have ever reached lastMaxWindow then check if its longer than 1kk micros
-        // if not, true
-        boolean lastMaxWindowNeverReached
-                = lastMaxedOutWindow == 0 || (lastMaxedOutWindow - timeStampNow >= UtpAlgConfiguration.MINIMUM_DELTA_TO_MAX_WINDOW_MICROS);
-        if (lastMaxWindowNeverReached) {
-            log.debug("last maxed window: setting gain to 0");
-        }
-        return (ONLY_POSITIVE_GAIN && gain < 0) || lastMaxWindowNeverReached;
-    }
-
-
     private void updateTheirDelay(long theirDifference) {
         minDelay.updateTheirDelay(theirDifference, timeStampNow);
     }
 
 
     private long getTimeOutMicros() {
-        return Math.max(getEstimatedRttMicros(), MINIMUM_TIMEOUT_MILLIS * 1000L);
+        return Math.max(getEstimatedRttMicros(), config.getMinimumTimeoutMillis() * 1000L);
     }
 
     private long getEstimatedRttMicros() {
@@ -270,23 +440,35 @@ public class UtpAlgorithm {
      * @return All packets that must be resend
      */
     public Queue<DatagramPacket> getPacketsToResend() throws SocketException {
-        timeStampNow = timeStamper.timeStamp();
         Queue<DatagramPacket> queue = new LinkedList<DatagramPacket>();
-        Queue<UtpTimestampedPacketDTO> toResend = buffer.getPacketsToResend(UtpAlgConfiguration.MAX_BURST_SEND);
-        for (UtpTimestampedPacketDTO utpTimestampedPacketDTO : toResend) {
+        for (UtpTimestampedPacketDTO utpTimestampedPacketDTO : getTimestampedPacketsToResend()) {
             queue.add(utpTimestampedPacketDTO.dataGram());
+        }
+        return queue;
+    }
+
+    /**
+     * Same as {@link #getPacketsToResend()}, but also returns packets whose payload is not in a datagram,
+     * see {@link UtpTimestampedPacketDTO#payloadSource()}.
+     *
+     * @return All packets that must be resend
+     */
+    public Queue<UtpTimestampedPacketDTO> getTimestampedPacketsToResend() throws SocketException {
+        timeStampNow = timeStamper.timeStamp();
+        Queue<UtpTimestampedPacketDTO> toResend = buffer.getPacketsToResend(config.getMaxBurstSend());
+        for (UtpTimestampedPacketDTO utpTimestampedPacketDTO : toResend) {
+            pacer.packetSent(packetSize(utpTimestampedPacketDTO), timeStampNow);
 //			log.debug("Resending: " + utpTimestampedPacketDTO.utpPacket().toString() );
             utpTimestampedPacketDTO.incrementResendCounter();
-            if (utpTimestampedPacketDTO.reduceWindow()) {
-                if (reduceWindowNecessary()) {
-                    lastTimeWindowReduced = timeStampNow;
-                    maxWindow /= 2;
-                }
-                utpTimestampedPacketDTO.setReduceWindow(false);
+            // reduceWindow marks packets that timed out
+            boolean timedOut = utpTimestampedPacketDTO.reduceWindow();
+            if (reduceWindowNecessary() && congestionController.packetLost(timedOut, timeStampNow)) {
+                lastTimeWindowReduced = timeStampNow;
             }
+            utpTimestampedPacketDTO.setReduceWindow(false);
         }
-        resentPackets += queue.size();
-        return queue;
+        resentPackets += toResend.size();
+        return toResend;
     }
 
 
@@ -317,35 +499,23 @@ public class UtpAlgorithm {
 
 
     /**
-     * Returns true if a packet can NOW be send
+     * Returns true if a packet can NOW be send: the window is not full and the pacer has credit left.
      */
     public boolean canSendNextPacket() {
-        if (timeStampNow - lastZeroWindow > getTimeOutMicros() && lastZeroWindow != 0 && maxWindow == 0) {
+        timeStampNow = timeStamper.timeStamp();
+        if (timeStampNow - lastZeroWindow > getTimeOutMicros() && lastZeroWindow != 0 && congestionController.getWindow() == 0) {
             log.debug("setting window to one packet size. current window is:" + currentWindow);
-            maxWindow = MAX_PACKET_SIZE;
+            congestionController.setWindow(config.getMaxPacketSize());
         }
-        boolean windowNotFull = !isWindowFull();
-        boolean burstFull = false;
-
-        if (windowNotFull) {
-            burstFull = isBurstFull();
-        }
-
-        if (!burstFull && windowNotFull) {
-            currentBurstSend++;
+        if (!isSendWindowOpen()) {
+            return false;
         }
-
-        if (burstFull) {
-            currentBurstSend = 0;
-        }
-        return SEND_IN_BURST ? (!burstFull && windowNotFull) : windowNotFull;
-    }
-
-    private boolean isBurstFull() {
-        return currentBurstSend >= MAX_BURST_SEND;
+        pacer.setRate(congestionController.getPacingRate());
+        return pacer.canSend(timeStampNow);
     }
 
     private boolean isWindowFull() {
+        int maxWindow = congestionController.getWindow();
         int maximumWindow = (advertisedWindowSize < maxWindow
                 && advertisedWindowSizeSet) ? advertisedWindowSize : maxWindow;
         return currentWindow >= maximumWindow;
@@ -357,20 +527,22 @@ public class UtpAlgorithm {
      * @return bytes.
      */
     public int sizeOfNextPacket() {
-        if (PACKET_SIZE_MODE.equals(PacketSizeModus.DYNAMIC_LINEAR)) {
+        PacketSizeModus packetSizeMode = config.getPacketSizeMode();
+        if (packetSizeMode == PacketSizeModus.DYNAMIC_LINEAR) {
             return calculateDynamicLinearPacketSize();
-        } else if (PACKET_SIZE_MODE.equals(PacketSizeModus.CONSTANT_1472)) {
-            return MAX_PACKET_SIZE - UtpPacketUtils.DEF_HEADER_LENGTH;
+        } else if (packetSizeMode == PacketSizeModus.CONSTANT_1472) {
+            return config.getMaxPacketSize() - UtpPacketUtils.DEF_HEADER_LENGTH;
         }
-        return MINIMUM_MTU - UtpPacketUtils.DEF_HEADER_LENGTH;
+        return config.getMinimumMtu() - UtpPacketUtils.DEF_HEADER_LENGTH;
     }
 
     private int calculateDynamicLinearPacketSize() {
-        int packetSizeDelta = MAX_PACKET_SIZE - MIN_PACKET_SIZE;
-        long minDelayOffTarget = C_CONTROL_TARGET_MICROS - minDelay.getRecentAverageDelay();
+        int minPacketSize = config.getMinPacketSize();
+        int packetSizeDelta = config.getMaxPacketSize() - minPacketSize;
+        long minDelayOffTarget = config.getCControlTargetMicros() - minDelay.getRecentAverageDelay();
         minDelayOffTarget = minDelayOffTarget < 0 ? 0 : minDelayOffTarget;
-        double packetSizeFactor = ((double) minDelayOffTarget) / ((double) C_CONTROL_TARGET_MICROS);
-        double packetSize = MIN_PACKET_SIZE + packetSizeFactor * packetSizeDelta;
+        double packetSizeFactor = ((double) minDelayOffTarget) / ((double) config.getCControlTargetMicros());
+        double packetSize = minPacketSize + packetSizeFactor * packetSizeDelta;
         return (int) Math.ceil(packetSize);
     }
 
@@ -383,10 +555,34 @@ public class UtpAlgorithm {
      */
     public void markPacketOnfly(UtpPacket utpPacket, DatagramPacket dgPacket) {
         timeStampNow = timeStamper.timeStamp();
-        UtpTimestampedPacketDTO pkt = new UtpTimestampedPacketDTO(dgPacket, utpPacket, timeStampNow, 0);
+        addPacketOnfly(new UtpTimestampedPacketDTO(dgPacket, utpPacket, timeStampNow, 0));
+    }
+
+    /**
+     * @return a packet to send, one that was acked before if there is one, so sending does not allocate.
+     * The caller fills it and hands it to {@link #markPacketOnfly(UtpTimestampedPacketDTO)}.
+     */
+    public UtpTimestampedPacketDTO takePacketToSend() {
+        UtpTimestampedPacketDTO pkt = buffer.takeReusable();
+        return pkt != null ? pkt : new UtpTimestampedPacketDTO(new UtpPacket());
+    }
+
+    /**
+     * Inform the algorithm that this packet is send now, its payload is kept outside of it,
+     * see {@link UtpTimestampedPacketDTO#setPayload(ByteBuffer, int, int)}.
+     */
+    public void markPacketOnfly(UtpTimestampedPacketDTO pkt) {
+        timeStampNow = timeStamper.timeStamp();
+        pkt.setStamp(timeStampNow);
+        addPacketOnfly(pkt);
+    }
+
+    private void addPacketOnfly(UtpTimestampedPacketDTO pkt) {
+        restartTimeOutIfIdle();
         buffer.bufferPacket(pkt);
         incrementAckNumber();
-        addPacketToCurrentWindow(utpPacket);
+        addPacketToCurrentWindow(pkt);
+        pacer.packetSent(packetSize(pkt), timeStampNow);
         totalPackets++;
 
     }
@@ -405,21 +601,31 @@ public class UtpAlgorithm {
      */
     public void markFinOnfly(UtpPacket fin) {
         timeStampNow = timeStamper.timeStamp();
+        restartTimeOutIfIdle();
         byte[] finBytes = fin.toByteArray();
         DatagramPacket dgFin = new DatagramPacket(finBytes, finBytes.length);
         UtpTimestampedPacketDTO pkt = new UtpTimestampedPacketDTO(dgFin, fin, timeStampNow, 0);
         buffer.bufferPacket(pkt);
         incrementAckNumber();
-        addPacketToCurrentWindow(fin);
+        addPacketToCurrentWindow(pkt);
+        pacer.packetSent(packetSize(pkt), timeStampNow);
     }
 
-    private void addPacketToCurrentWindow(UtpPacket pkt) {
-        currentWindow += UtpPacketUtils.DEF_HEADER_LENGTH;
-        if (pkt.getPayload() != null) {
-            currentWindow += pkt.getPayload().length;
+    /* a stream may have nothing on fly for a while, the reciever only has to answer packets sent since */
+    private void restartTimeOutIfIdle() {
+        if (buffer.isEmpty() && lastAckRecieved != 0) {
+            lastAckRecieved = timeStampNow;
         }
     }
 
+    private void addPacketToCurrentWindow(UtpTimestampedPacketDTO pkt) {
+        currentWindow += packetSize(pkt);
+    }
+
+    private int packetSize(UtpTimestampedPacketDTO pkt) {
+        return UtpPacketUtils.DEF_HEADER_LENGTH + pkt.payloadLength();
+    }
+
 
     public boolean areAllPacketsAcked() {
         return buffer.isEmpty();
@@ -485,6 +691,36 @@ public class UtpAlgorithm {
         currentWindow = buffer.getBytesOnfly();
     }
 
+    /**
+     * Handles an ack while the writer waits, on the thread that recieved it, and removes what it acked.
+     * See {@link #ackRecieved(byte[], int, int, int)}.
+     *
+     * @return true if the writer should be woken up: the window opened again or the pacer lets the next
+     * packet go, packets must be resent or all packets are acked.
+     */
+    public boolean ackRecievedWhileWaiting(byte[] data, int offset, int length, int utpRecieved) {
+        timeStampNow = timeStamper.timeStamp();
+        boolean wasOpen = isSendWindowOpen();
+        ackRecieved(data, offset, length, utpRecieved);
+        removeAcked();
+        if (buffer.isEmpty() || buffer.hasPacketsToFastResend()) {
+            return true;
+        }
+        if (!hasDataToSend() || !isSendWindowOpen()) {
+            return false;
+        }
+        // a writer waiting on a full window waits for a time out, one waiting on the pacer for its next send
+        pacer.setRate(congestionController.getPacingRate());
+        return !wasOpen || pacer.canSend(timeStampNow);
+    }
+
+    /**
+     * @return payload bytes of all packets that were acked and removed from the out buffer.
+     */
+    public long getPayloadBytesAcked() {
+        return buffer.getPayloadBytesRemoved();
+    }
+
 
     public String getLeftElements() {
         return buffer.getSequenceOfLeft();
@@ -492,7 +728,8 @@ public class UtpAlgorithm {
 
 
     /**
-     * Returns the number of micro seconds the writing thread should wait at most based on: timed out packets and window utilisation
+     * Returns the number of micro seconds the writing thread should wait at most based on: timed out packets,
+     * window utilisation and pacing.
      *
      * @return micro seconds.
      */
@@ -504,12 +741,47 @@ public class UtpAlgorithm {
         if (continueImmediately(timeOutInMicroSeconds, oldestTimeStamp)) {
             return 0L;
         }
-        if (!isWindowFull() || maxWindow == 0) {
-            return MICROSECOND_WAIT_BETWEEN_BURSTS;
+        if (oldestTimeStamp == 0) {
+            // nothing on fly that could time out
+            timeOutInMicroSeconds = getTimeOutMicros();
+        }
+        if (congestionController.getWindow() == 0) {
+            if (lastZeroWindow == 0) {
+                return timeOutInMicroSeconds;
+            }
+            // the window is opened again one time out after it closed, see canSendNextPacket()
+            long windowReopens = lastZeroWindow + getTimeOutMicros() + 1 - timeStampNow;
+            return Math.max(Math.min(timeOutInMicroSeconds, windowReopens), 0);
+        }
+        if (isSendWindowOpen() && hasDataToSend()) {
+            pacer.setRate(congestionController.getPacingRate());
+            return Math.min(timeOutInMicroSeconds, pacer.timeUntilNextSend(timeStampNow));
         }
         return timeOutInMicroSeconds;
     }
 
+    /* the next packet fits into the congestion window and into the window the reciever advertised */
+    private boolean isSendWindowOpen() {
+        if (isRecieveWindowProbe()) {
+            return true;
+        }
+        return !isWindowFull()
+                && !(advertisedWindowSizeSet && currentWindow + sizeOfNextPacket() > advertisedWindowSize);
+    }
+
+    /*
+     * The reciever updates a closed window on its own once it has room again. If that update got lost,
+     * one packet is sent into the closed window after a time out, its ack brings the window up to date.
+     */
+    private boolean isRecieveWindowProbe() {
+        return currentWindow == 0 && advertisedWindowSizeSet && congestionController.getWindow() > 0
+                && timeStampNow - lastAckRecieved > getTimeOutMicros();
+    }
+
+    private boolean hasDataToSend() {
+        return bBuffer != null && bBuffer.hasRemaining();
+    }
+
 
     private boolean continueImmediately(
             long timeOutInMicroSeconds, long oldestTimeStamp) {
@@ -517,27 +789,51 @@ public class UtpAlgorithm {
     }
 
     /**
-     * terminates.
+     * Prepares the next write on this connection. The window, rtt and delay history carry over
+     * from earlier writes, so the write continues at the rate already reached.
+     *
+     * @param bBuffer        data of this write.
+     * @param sequenceNumber sequence number of its first packet.
+     */
+    public void startWriting(ByteBuffer bBuffer, int sequenceNumber) {
+        if (!buffer.isEmpty()) {
+            // a failed write left packets behind that will never be acked
+            buffer = new OutPacketBuffer(timeStamper, config);
+            buffer.setRemoteAdress(remoteAddress);
+        }
+        initiateAckPosition(sequenceNumber);
+        setByteBuffer(bBuffer);
+        currentWindow = buffer.getBytesOnfly();
+        timeStampNow = timeStamper.timeStamp();
+        // an idle connection has not timed out
+        lastAckRecieved = 0;
+    }
+
+    /**
+     * terminates a write.
      *
      * @param bytesSend
      * @param successful
      */
-    public void end(int bytesSend, boolean successful) {
+    public void end(long bytesSend, boolean successful) {
         if (successful) {
-            statisticLogger.end(bytesSend);
+            totalBytesSend += bytesSend;
             log.debug("Total packets send: " + totalPackets + ", Total Packets Resend: " + resentPackets);
         }
     }
 
-    public void resetBurst() {
-        currentBurstSend = 0;
+    /**
+     * terminates, called when the connection closes.
+     */
+    public void close() {
+        statisticLogger.end((int) Math.min(totalBytesSend, Integer.MAX_VALUE));
     }
 
     /**
      * returns true when a socket timeout happened. (the reciever does not answer anymore)
      */
     public boolean isTimedOut() {
-        if (timeStampNow - lastAckRecieved > getTimeOutMicros() * 5 && lastAckRecieved != 0) {
+        if (timeStampNow - lastAckRecieved > getTimeOutMicros() * 5 && lastAckRecieved != 0 && !buffer.isEmpty()) {
             log.debug("Timed out!");
             return true;
         }
@@ -546,12 +842,12 @@ public class UtpAlgorithm {
 
 
     public void setMaxWindow(int window) {
-        this.maxWindow = window;
+        congestionController.setWindow(window);
     }
 
 
     public int getMaxWindow() {
-        return maxWindow;
+        return congestionController.getWindow();
     }
 
 
@@ -574,4 +870,12 @@ public class UtpAlgorithm {
 
     }
 
+    /**
+     * @return smoothed rtt of the packets sent so far in micro seconds, 0 before the first sample.
+     * Safe to call from any thread.
+     */
+    public long getSmoothedRttMicros() {
+        return publishedRttMicros;
+    }
+
 }
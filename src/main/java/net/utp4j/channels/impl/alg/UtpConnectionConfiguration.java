@@ -0,0 +1,395 @@
+package net.utp4j.channels.impl.alg;
+
+/**
+ * Immutable tuning of a single connection, passed to
+ * {@link net.utp4j.channels.UtpSocketChannel#open(UtpConnectionConfiguration)} or
+ * {@link net.utp4j.channels.UtpServerSocketChannel#accept(UtpConnectionConfiguration)}.
+ * Connections opened without one use {@link #defaults()}.
+ * <p>
+ * A builder starts from the static values in {@link UtpAlgConfiguration} at the time it is created,
+ * so those keep working as process wide defaults. Once built, a configuration does not change anymore.
+ * See {@link UtpAlgConfiguration} for the meaning of each value.
+ */
+public final class UtpConnectionConfiguration {
+
+    private final int maxConnectionAttempts;
+    private final int connectionAttemptIntervalMillis;
+    private final int skipPacketsUntilAck;
+    private final boolean autoAckSmallerThanAckNumber;
+    private final long minimumDifferenceTimestampMicros;
+    private final long minimumDeltaToMaxWindowMicros;
+    private final int minimumTimeoutMillis;
+    private final PacketSizeModus packetSizeMode;
+    private final CongestionControlModus congestionControlMode;
+    private final int maxPacketSize;
+    private final int minPacketSize;
+    private final int minimumMtu;
+    private final int maxCwndIncreasePacketsPerRtt;
+    private final int cControlTargetMicros;
+    private final int maxBurstSend;
+    private final int minSkipPacketBeforeResend;
+    private final long timeWaitAfterLastPacket;
+    private final long delayedAckMicros;
+    private final int recieveBufferSize;
+    private final int sendBufferSize;
+    private final int transferMapSize;
+    private final int handoffQueueSize;
+    private final boolean onlyPositiveGain;
+    private final boolean inlineAcks;
+
+    private UtpConnectionConfiguration(Builder builder) {
+        maxConnectionAttempts = builder.maxConnectionAttempts;
+        connectionAttemptIntervalMillis = builder.connectionAttemptIntervalMillis;
+        skipPacketsUntilAck = builder.skipPacketsUntilAck;
+        autoAckSmallerThanAckNumber = builder.autoAckSmallerThanAckNumber;
+        minimumDifferenceTimestampMicros = builder.minimumDifferenceTimestampMicros;
+        minimumDeltaToMaxWindowMicros = builder.minimumDeltaToMaxWindowMicros;
+        minimumTimeoutMillis = builder.minimumTimeoutMillis;
+        packetSizeMode = builder.packetSizeMode;
+        congestionControlMode = builder.congestionControlMode;
+        maxPacketSize = builder.maxPacketSize;
+        minPacketSize = builder.minPacketSize;
+        minimumMtu = builder.minimumMtu;
+        maxCwndIncreasePacketsPerRtt = builder.maxCwndIncreasePacketsPerRtt;
+        cControlTargetMicros = builder.cControlTargetMicros;
+        maxBurstSend = builder.maxBurstSend;
+        minSkipPacketBeforeResend = builder.minSkipPacketBeforeResend;
+        timeWaitAfterLastPacket = builder.timeWaitAfterLastPacket;
+        delayedAckMicros = builder.delayedAckMicros;
+        recieveBufferSize = builder.recieveBufferSize;
+        sendBufferSize = builder.sendBufferSize;
+        transferMapSize = builder.transferMapSize;
+        handoffQueueSize = builder.handoffQueueSize;
+        onlyPositiveGain = builder.onlyPositiveGain;
+        inlineAcks = builder.inlineAcks;
+    }
+
+    /**
+     * @return a configuration with the current values of {@link UtpAlgConfiguration}.
+     */
+    public static UtpConnectionConfiguration defaults() {
+        return builder().build();
+    }
+
+    /**
+     * @return a builder initialized with the current values of {@link UtpAlgConfiguration}.
+     */
+    public static Builder builder() {
+        return new Builder();
+    }
+
+    /**
+     * @return a builder initialized with the values of this configuration.
+     */
+    public Builder toBuilder() {
+        return new Builder(this);
+    }
+
+    public int getMaxConnectionAttempts() {
+        return maxConnectionAttempts;
+    }
+
+    public int getConnectionAttemptIntervalMillis() {
+        return connectionAttemptIntervalMillis;
+    }
+
+    public int getSkipPacketsUntilAck() {
+        return skipPacketsUntilAck;
+    }
+
+    public boolean isAutoAckSmallerThanAckNumber() {
+        return autoAckSmallerThanAckNumber;
+    }
+
+    public long getMinimumDifferenceTimestampMicros() {
+        return minimumDifferenceTimestampMicros;
+    }
+
+    public long getMinimumDeltaToMaxWindowMicros() {
+        return minimumDeltaToMaxWindowMicros;
+    }
+
+    public int getMinimumTimeoutMillis() {
+        return minimumTimeoutMillis;
+    }
+
+    public PacketSizeModus getPacketSizeMode() {
+        return packetSizeMode;
+    }
+
+    public CongestionControlModus getCongestionControlMode() {
+        return congestionControlMode;
+    }
+
+    public int getMaxPacketSize() {
+        return maxPacketSize;
+    }
+
+    public int getMinPacketSize() {
+        return minPacketSize;
+    }
+
+    public int getMinimumMtu() {
+        return minimumMtu;
+    }
+
+    public int getMaxCwndIncreasePacketsPerRtt() {
+        return maxCwndIncreasePacketsPerRtt;
+    }
+
+    public int getCControlTargetMicros() {
+        return cControlTargetMicros;
+    }
+
+    public int getMaxBurstSend() {
+        return maxBurstSend;
+    }
+
+    public int getMinSkipPacketBeforeResend() {
+        return minSkipPacketBeforeResend;
+    }
+
+    public long getTimeWaitAfterLastPacket() {
+        return timeWaitAfterLastPacket;
+    }
+
+    public long getDelayedAckMicros() {
+        return delayedAckMicros;
+    }
+
+    public int getRecieveBufferSize() {
+        return recieveBufferSize;
+    }
+
+    public int getSendBufferSize() {
+        return sendBufferSize;
+    }
+
+    public int getTransferMapSize() {
+        return transferMapSize;
+    }
+
+    public int getHandoffQueueSize() {
+        return handoffQueueSize;
+    }
+
+    public boolean isOnlyPositiveGain() {
+        return onlyPositiveGain;
+    }
+
+    public boolean isInlineAcks() {
+        return inlineAcks;
+    }
+
+    /**
+     * @return information about the configuration. This is only used for debugging
+     */
+    @Override
+    public String toString() {
+        String toReturn = "";
+        toReturn += "MINIMUM_TIMEOUT_MILLIS: " + minimumTimeoutMillis + " ";
+        toReturn += "PACKET_SIZE_MODE: " + packetSizeMode + " ";
+        toReturn += "CONGESTION_CONTROL_MODE: " + congestionControlMode + " ";
+        toReturn += "MAX_PACKET_SIZE: " + maxPacketSize + " ";
+        toReturn += "MIN_PACKET_SIZE: " + minPacketSize + " ";
+        toReturn += "MINIMUM_MTU: " + minimumMtu + " ";
+        toReturn += "MAX_CWND_INCREASE_PACKETS_PER_RTT: " + maxCwndIncreasePacketsPerRtt + " ";
+        toReturn += "C_CONTROL_TARGET_MICROS: " + cControlTargetMicros + " ";
+        toReturn += "MAX_BURST_SEND: " + maxBurstSend + " ";
+        toReturn += "MIN_SKIP_PACKET_BEFORE_RESEND: " + minSkipPacketBeforeResend + " ";
+        toReturn += "TIME_WAIT_AFTER_FIN_MICROS: " + timeWaitAfterLastPacket + " ";
+        toReturn += "DELAYED_ACK_MICROS: " + delayedAckMicros + " ";
+        toReturn += "RECIEVE_BUFFER_SIZE: " + recieveBufferSize + " ";
+        toReturn += "SEND_BUFFER_SIZE: " + sendBufferSize + " ";
+        toReturn += "TRANSFER_MAP_SIZE: " + transferMapSize + " ";
+        toReturn += "HANDOFF_QUEUE_SIZE: " + handoffQueueSize + " ";
+        toReturn += "ONLY_POSITIVE_GAIN: " + onlyPositiveGain + " ";
+        toReturn += "INLINE_ACKS: " + inlineAcks + " ";
+        return toReturn;
+    }
+
+    /**
+     * Builds a {@link UtpConnectionConfiguration}.
+     */
+    public static final class Builder {
+
+        private int maxConnectionAttempts = UtpAlgConfiguration.MAX_CONNECTION_ATTEMPTS;
+        private int connectionAttemptIntervalMillis = UtpAlgConfiguration.CONNECTION_ATTEMPT_INTERVALL_MILLIS;
+        private int skipPacketsUntilAck = UtpAlgConfiguration.SKIP_PACKETS_UNTIL_ACK;
+        private boolean autoAckSmallerThanAckNumber = UtpAlgConfiguration.AUTO_ACK_SMALLER_THAN_ACK_NUMBER;
+        private long minimumDifferenceTimestampMicros = UtpAlgConfiguration.MINIMUM_DIFFERENCE_TIMESTAMP_MICROSEC;
+        private long minimumDeltaToMaxWindowMicros = UtpAlgConfiguration.MINIMUM_DELTA_TO_MAX_WINDOW_MICROS;
+        private int minimumTimeoutMillis = UtpAlgConfiguration.MINIMUM_TIMEOUT_MILLIS;
+        private PacketSizeModus packetSizeMode = UtpAlgConfiguration.PACKET_SIZE_MODE;
+        private CongestionControlModus congestionControlMode = UtpAlgConfiguration.CONGESTION_CONTROL_MODE;
+        private int maxPacketSize = UtpAlgConfiguration.MAX_PACKET_SIZE;
+        private int minPacketSize = UtpAlgConfiguration.MIN_PACKET_SIZE;
+        private int minimumMtu = UtpAlgConfiguration.MINIMUM_MTU;
+        private int maxCwndIncreasePacketsPerRtt = UtpAlgConfiguration.MAX_CWND_INCREASE_PACKETS_PER_RTT;
+        private int cControlTargetMicros = UtpAlgConfiguration.C_CONTROL_TARGET_MICROS;
+        private int maxBurstSend = UtpAlgConfiguration.MAX_BURST_SEND;
+        private int minSkipPacketBeforeResend = UtpAlgConfiguration.MIN_SKIP_PACKET_BEFORE_RESEND;
+        private long timeWaitAfterLastPacket = UtpAlgConfiguration.TIME_WAIT_AFTER_LAST_PACKET;
+        private long delayedAckMicros = UtpAlgConfiguration.DELAYED_ACK_MICROS;
+        private int recieveBufferSize = UtpAlgConfiguration.RECIEVE_BUFFER_SIZE;
+        private int sendBufferSize = UtpAlgConfiguration.SEND_BUFFER_SIZE;
+        private int transferMapSize = UtpAlgConfiguration.TRANSFER_MAP_SIZE;
+        private int handoffQueueSize = UtpAlgConfiguration.HANDOFF_QUEUE_SIZE;
+        private boolean onlyPositiveGain = UtpAlgConfiguration.ONLY_POSITIVE_GAIN;
+        private boolean inlineAcks = UtpAlgConfiguration.INLINE_ACKS;
+
+        private Builder() {
+        }
+
+        private Builder(UtpConnectionConfiguration config) {
+            maxConnectionAttempts = config.maxConnectionAttempts;
+            connectionAttemptIntervalMillis = config.connectionAttemptIntervalMillis;
+            skipPacketsUntilAck = config.skipPacketsUntilAck;
+            autoAckSmallerThanAckNumber = config.autoAckSmallerThanAckNumber;
+            minimumDifferenceTimestampMicros = config.minimumDifferenceTimestampMicros;
+            minimumDeltaToMaxWindowMicros = config.minimumDeltaToMaxWindowMicros;
+            minimumTimeoutMillis = config.minimumTimeoutMillis;
+            packetSizeMode = config.packetSizeMode;
+            congestionControlMode = config.congestionControlMode;
+            maxPacketSize = config.maxPacketSize;
+            minPacketSize = config.minPacketSize;
+            minimumMtu = config.minimumMtu;
+            maxCwndIncreasePacketsPerRtt = config.maxCwndIncreasePacketsPerRtt;
+            cControlTargetMicros = config.cControlTargetMicros;
+            maxBurstSend = config.maxBurstSend;
+            minSkipPacketBeforeResend = config.minSkipPacketBeforeResend;
+            timeWaitAfterLastPacket = config.timeWaitAfterLastPacket;
+            delayedAckMicros = config.delayedAckMicros;
+            recieveBufferSize = config.recieveBufferSize;
+            sendBufferSize = config.sendBufferSize;
+            transferMapSize = config.transferMapSize;
+            handoffQueueSize = config.handoffQueueSize;
+            onlyPositiveGain = config.onlyPositiveGain;
+            inlineAcks = config.inlineAcks;
+        }
+
+        public Builder maxConnectionAttempts(int maxConnectionAttempts) {
+            this.maxConnectionAttempts = maxConnectionAttempts;
+            return this;
+        }
+
+        public Builder connectionAttemptIntervalMillis(int connectionAttemptIntervalMillis) {
+            this.connectionAttemptIntervalMillis = connectionAttemptIntervalMillis;
+            return this;
+        }
+
+        public Builder skipPacketsUntilAck(int skipPacketsUntilAck) {
+            this.skipPacketsUntilAck = skipPacketsUntilAck;
+            return this;
+        }
+
+        public Builder autoAckSmallerThanAckNumber(boolean autoAckSmallerThanAckNumber) {
+            this.autoAckSmallerThanAckNumber = autoAckSmallerThanAckNumber;
+            return this;
+        }
+
+        public Builder minimumDifferenceTimestampMicros(long minimumDifferenceTimestampMicros) {
+            this.minimumDifferenceTimestampMicros = minimumDifferenceTimestampMicros;
+            return this;
+        }
+
+        public Builder minimumDeltaToMaxWindowMicros(long minimumDeltaToMaxWindowMicros) {
+            this.minimumDeltaToMaxWindowMicros = minimumDeltaToMaxWindowMicros;
+            return this;
+        }
+
+        public Builder minimumTimeoutMillis(int minimumTimeoutMillis) {
+            this.minimumTimeoutMillis = minimumTimeoutMillis;
+            return this;
+        }
+
+        public Builder packetSizeMode(PacketSizeModus packetSizeMode) {
+            this.packetSizeMode = packetSizeMode;
+            return this;
+        }
+
+        public Builder congestionControlMode(CongestionControlModus congestionControlMode) {
+            this.congestionControlMode = congestionControlMode;
+            return this;
+        }
+
+        public Builder maxPacketSize(int maxPacketSize) {
+            this.maxPacketSize = maxPacketSize;
+            return this;
+        }
+
+        public Builder minPacketSize(int minPacketSize) {
+            this.minPacketSize = minPacketSize;
+            return this;
+        }
+
+        public Builder minimumMtu(int minimumMtu) {
+            this.minimumMtu = minimumMtu;
+            return this;
+        }
+
+        public Builder maxCwndIncreasePacketsPerRtt(int maxCwndIncreasePacketsPerRtt) {
+            this.maxCwndIncreasePacketsPerRtt = maxCwndIncreasePacketsPerRtt;
+            return this;
+        }
+
+        public Builder cControlTargetMicros(int cControlTargetMicros) {
+            this.cControlTargetMicros = cControlTargetMicros;
+            return this;
+        }
+
+        public Builder maxBurstSend(int maxBurstSend) {
+            this.maxBurstSend = maxBurstSend;
+            return this;
+        }
+
+        public Builder minSkipPacketBeforeResend(int minSkipPacketBeforeResend) {
+            this.minSkipPacketBeforeResend = minSkipPacketBeforeResend;
+            return this;
+        }
+
+        public Builder timeWaitAfterLastPacket(long timeWaitAfterLastPacket) {
+            this.timeWaitAfterLastPacket = timeWaitAfterLastPacket;
+            return this;
+        }
+
+        public Builder delayedAckMicros(long delayedAckMicros) {
+            this.delayedAckMicros = delayedAckMicros;
+            return this;
+        }
+
+        public Builder recieveBufferSize(int recieveBufferSize) {
+            this.recieveBufferSize = recieveBufferSize;
+            return this;
+        }
+
+        public Builder sendBufferSize(int sendBufferSize) {
+            this.sendBufferSize = sendBufferSize;
+            return this;
+        }
+
+        public Builder transferMapSize(int transferMapSize) {
+            this.transferMapSize = transferMapSize;
+            return this;
+        }
+
+        public Builder handoffQueueSize(int handoffQueueSize) {
+            this.handoffQueueSize = handoffQueueSize;
+            return this;
+        }
+
+        public Builder onlyPositiveGain(boolean onlyPositiveGain) {
+            this.onlyPositiveGain = onlyPositiveGain;
+            return this;
+        }
+
+        public Builder inlineAcks(boolean inlineAcks) {
+            this.inlineAcks = inlineAcks;
+            return this;
+        }
+
+        public UtpConnectionConfiguration build() {
+            return new UtpConnectionConfiguration(this);
+        }
+    }
+}
@@ -0,0 +1,95 @@
+package net.utp4j.channels.impl.alg;
+
+/**
+ * Spreads packets evenly at the pacing rate of the {@link CongestionController}, so a window goes out
+ * across one round trip instead of in bursts. A packet may be sent while the pacer has credit left, each
+ * packet takes its size off the credit, and the credit refills with the rate to the micro second.
+ * <p>
+ * The writer waits for the next send on the timer wheel of its event loop, which does not fire more often
+ * than once per tick. The credit may therefore build up to a quantum that covers a few ticks, so the pacer
+ * keeps its rate without being woken up before every single packet.
+ */
+public class UtpPacer {
+
+    private static final long MICROS_PER_SECOND = 1000000L;
+    /* upper bound for the time credited at once, keeps rate * elapsed from overflowing */
+    private static final long MAX_REFILL_MICROS = 10 * MICROS_PER_SECOND;
+
+    private final long minimumQuantum;
+    private final long quantumMicros;
+
+    /* bytes per second, 0 if not paced */
+    private long rate;
+    /* in bytes * MICROS_PER_SECOND, negative while in debt */
+    private long credit;
+    private long lastRefill;
+    private boolean started;
+
+    /**
+     * @param minimumQuantum bytes the credit may always build up to, e.g. two packets.
+     * @param quantumMicros  time the credit may build up for.
+     */
+    public UtpPacer(int minimumQuantum, long quantumMicros) {
+        this.minimumQuantum = minimumQuantum;
+        this.quantumMicros = quantumMicros;
+    }
+
+    /**
+     * @param bytesPerSecond new rate, 0 turns pacing off.
+     */
+    public void setRate(long bytesPerSecond) {
+        this.rate = Math.max(bytesPerSecond, 0);
+    }
+
+    public long getRate() {
+        return rate;
+    }
+
+    /**
+     * @return true if a packet may be sent now.
+     */
+    public boolean canSend(long timeStamp) {
+        if (rate == 0) {
+            return true;
+        }
+        refill(timeStamp);
+        return credit >= 0;
+    }
+
+    /**
+     * Takes the packet off the credit, whether or not it was paced (e.g. resends).
+     */
+    public void packetSent(int bytes, long timeStamp) {
+        if (rate == 0) {
+            return;
+        }
+        refill(timeStamp);
+        credit -= bytes * MICROS_PER_SECOND;
+    }
+
+    /**
+     * @return micro seconds until the next packet may be sent, 0 if now.
+     */
+    public long timeUntilNextSend(long timeStamp) {
+        if (!canSend(timeStamp)) {
+            return (-credit + rate - 1) / rate;
+        }
+        return 0;
+    }
+
+    private void refill(long timeStamp) {
+        if (!started) {
+            started = true;
+            lastRefill = timeStamp;
+            credit = 0;
+            return;
+        }
+        long elapsed = Math.min(timeStamp - lastRefill, MAX_REFILL_MICROS);
+        if (elapsed <= 0) {
+            return;
+        }
+        lastRefill = timeStamp;
+        long maxCredit = Math.max(minimumQuantum, rate * quantumMicros / MICROS_PER_SECOND) * MICROS_PER_SECOND;
+        credit = Math.min(credit + rate * elapsed, maxCredit);
+    }
+}
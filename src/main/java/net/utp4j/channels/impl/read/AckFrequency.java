@@ -0,0 +1,79 @@
+package net.utp4j.channels.impl.read;
+
+import net.utp4j.channels.impl.alg.UtpAlgConfiguration;
+
+/**
+ * Decides how many recieved packets are acked together and how long a packet may wait for its ack.
+ * Every packet is acked while a transfer ramps up and after a loss. On a steady path every
+ * {@code maxRatio}-th packet is acked, as long as that still leaves a few acks per round trip,
+ * so a small window is not starved of acks.
+ */
+final class AckFrequency {
+
+    /* packets acked one by one at the start of a read and after a loss */
+    static final int QUICK_ACK_PACKETS = 16;
+    /* acks per round trip the ratio leaves at least */
+    static final int ACKS_PER_RTT = 4;
+
+    private final int maxRatio;
+    private final long maxDelayMicros;
+    private int quickAcks = QUICK_ACK_PACKETS;
+    private int ratio = 1;
+    private int packetsThisRtt;
+    private long rttStarted;
+    private long rttMicros;
+
+    /**
+     * @param maxRatio       packets acked together on a steady path, see
+     *                       {@link net.utp4j.channels.impl.alg.UtpConnectionConfiguration#getSkipPacketsUntilAck()}.
+     * @param maxDelayMicros longest time a packet waits for its ack, also used while the rtt is unknown.
+     */
+    AckFrequency(int maxRatio, long maxDelayMicros) {
+        this.maxRatio = Math.max(1, maxRatio);
+        this.maxDelayMicros = maxDelayMicros;
+    }
+
+    /**
+     * Counts a recieved packet, once per round trip the ratio follows the packets recieved in it.
+     *
+     * @param now       micro second time stamp.
+     * @param rttMicros rtt of the connection, 0 if unknown.
+     */
+    void packetRecieved(long now, long rttMicros) {
+        this.rttMicros = rttMicros;
+        if (quickAcks > 0) {
+            quickAcks--;
+        }
+        packetsThisRtt++;
+        long interval = rttMicros > 0 ? rttMicros : maxDelayMicros;
+        if (now - rttStarted >= interval) {
+            ratio = Math.max(1, Math.min(maxRatio, packetsThisRtt / ACKS_PER_RTT));
+            packetsThisRtt = 0;
+            rttStarted = now;
+        }
+    }
+
+    /**
+     * A packet came out of order, the sender learns about the hole with the next packet.
+     */
+    void lossDetected() {
+        quickAcks = QUICK_ACK_PACKETS;
+    }
+
+    /**
+     * @return number of packets acked together.
+     */
+    int ackRatio() {
+        return quickAcks > 0 ? 1 : ratio;
+    }
+
+    /**
+     * @return a quarter of the rtt, at least a timer tick and at most the configured delay.
+     */
+    long delayMicros() {
+        if (rttMicros <= 0) {
+            return maxDelayMicros;
+        }
+        return Math.min(maxDelayMicros, Math.max(rttMicros / 4, UtpAlgConfiguration.TIMER_TICK_MICROS));
+    }
+}
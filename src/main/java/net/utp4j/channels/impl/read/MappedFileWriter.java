@@ -0,0 +1,122 @@
+package net.utp4j.channels.impl.read;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * Puts recieved payloads into a file through a mapping, see {@link net.utp4j.channels.UtpSocketChannel#transferTo}.
+ * The file is mapped in pieces as it grows, mapping past its end makes it larger, so {@link #finish()}
+ * cuts off what was mapped but never written. The pieces grow with the bytes written so far,
+ * a short transfer does not map a whole piece of mapSize past its end.
+ * <p>
+ * A file can not be cut on Windows while it is mapped, and a mapping is only released once it is
+ * garbage collected. There the file is only mapped up to its size, payloads past it are appended.
+ */
+final class MappedFileWriter {
+
+    private static final boolean MAP_PAST_END = !System.getProperty("os.name", "").startsWith("Windows");
+
+    private final FileChannel file;
+    private final long start;
+    private final int mapSize;
+    private final long sizeBefore;
+    private final boolean mapPastEnd;
+
+    private MappedByteBuffer mapping;
+    /* file position after the current mapping or the last payload appended */
+    private long mappedUpTo;
+    private long bytesWritten;
+
+    /**
+     * @param file     the file, opened for reading and writing.
+     * @param position where the first payload goes.
+     * @param mapSize  bytes mapped at most at once.
+     */
+    MappedFileWriter(FileChannel file, long position, int mapSize) throws IOException {
+        this(file, position, mapSize, MAP_PAST_END);
+    }
+
+    /**
+     * @param mapPastEnd false if the file must not grow through a mapping, it is never cut then.
+     */
+    MappedFileWriter(FileChannel file, long position, int mapSize, boolean mapPastEnd) throws IOException {
+        this.file = file;
+        this.start = position;
+        this.mapSize = mapSize;
+        this.sizeBefore = file.size();
+        this.mappedUpTo = position;
+        this.mapPastEnd = mapPastEnd;
+    }
+
+    /**
+     * Appends the payload after the one written last.
+     */
+    void put(byte[] payload) throws IOException {
+        if (payload == null) {
+            return;
+        }
+        int offset = 0;
+        while (offset < payload.length) {
+            if (mapping == null || !mapping.hasRemaining()) {
+                if (!mapNext(payload.length - offset)) {
+                    append(payload, offset);
+                    break;
+                }
+            }
+            int length = Math.min(payload.length - offset, mapping.remaining());
+            mapping.put(payload, offset, length);
+            offset += length;
+        }
+        bytesWritten += payload.length;
+    }
+
+    /*
+     * at least the rest of the payload, at most mapSize, otherwise as much as was written so far.
+     * returns false if the next bytes are not mapped.
+     */
+    private boolean mapNext(int needed) throws IOException {
+        long size = Math.min(mapSize, Math.max(needed, mappedUpTo - start));
+        if (!mapPastEnd) {
+            size = Math.min(size, sizeBefore - mappedUpTo);
+        }
+        release();
+        if (size <= 0) {
+            return false;
+        }
+        mapping = file.map(FileChannel.MapMode.READ_WRITE, mappedUpTo, size);
+        mappedUpTo += size;
+        return true;
+    }
+
+    private void append(byte[] payload, int offset) throws IOException {
+        ByteBuffer rest = ByteBuffer.wrap(payload, offset, payload.length - offset);
+        while (rest.hasRemaining()) {
+            mappedUpTo += file.write(rest, mappedUpTo);
+        }
+    }
+
+    /* the mapping stays until it is garbage collected, it is only written back here */
+    private void release() {
+        if (mapping != null) {
+            mapping.force();
+            mapping = null;
+        }
+    }
+
+    long getBytesWritten() {
+        return bytesWritten;
+    }
+
+    /**
+     * Cuts the file back to the bytes written, it never gets smaller than it was.
+     */
+    void finish() throws IOException {
+        release();
+        long end = Math.max(sizeBefore, start + bytesWritten);
+        if (file.size() > end) {
+            file.truncate(end);
+        }
+    }
+}
@@ -25,33 +25,52 @@ import java.io.RandomAccessFile;
 import java.nio.ByteBuffer;
 import java.nio.channels.FileChannel;
 import java.text.SimpleDateFormat;
+import java.util.ArrayDeque;
 import java.util.Date;
-import java.util.LinkedList;
 import java.util.Queue;
 
 import static net.utp4j.data.bytes.UnsignedTypesUtil.MAX_USHORT;
 
 /**
  * This buffer handles packets that arrived out of order.
+ * <p>
+ * Packets are kept in a ring indexed by their position after the expected sequence number,
+ * {@link #reindex(int)} only moves the head. A bitset parallel to the ring marks the recieved
+ * packets, the selective ack is built from it a word at a time.
  *
  * @author Ivan Iljkic (i.iljkic@gmail.com)
  */
 public class SkippedPacketBuffer {
 
     private static final int SIZE = 2000;
-    private UtpTimestampedPacketDTO[] buffer = new UtpTimestampedPacketDTO[SIZE];
+    /* power of two and a multiple of 64 above SIZE, so ring slots and bitset words wrap together */
+    private static final int CAPACITY = 2048;
+    private static final int MASK = CAPACITY - 1;
+    private static final int WORD_MASK = CAPACITY / 64 - 1;
+
+    private final UtpTimestampedPacketDTO[] buffer = new UtpTimestampedPacketDTO[CAPACITY];
+    /* bit of a slot is set if it holds a packet */
+    private final long[] recieved = new long[CAPACITY / 64];
+    /* returned by getAllUntillNextMissing, cleared with every call */
+    private final ArrayDeque<UtpTimestampedPacketDTO> delivered = new ArrayDeque<>();
+    /* slot of the expected sequence number */
+    private int head = 0;
+    /* highest position that holds a packet, 0 if none */
+    private int highestPosition = 0;
     private int expectedSequenceNumber = 0;
     private int elementCount = 0;
+    /* payload bytes of all buffered packets */
+    private int bufferedBytes = 0;
     private int debug_lastSeqNumber;
     private int debug_lastPosition;
 
     private static final Logger log = LoggerFactory.getLogger(SkippedPacketBuffer.class);
 
     /**
-     * puts the packet in the buffer.
+     * puts the packet in the buffer, a packet recieved twice replaces the first one.
      *
      * @param pkt the packet with meta data.
-     * @throws IOException
+     * @throws IOException if the packet is too far ahead of the expected one.
      */
     public void bufferPacket(UtpTimestampedPacketDTO pkt) throws IOException {
         int sequenceNumber = pkt.utpPacket().getSequenceNumber() & 0xFFFF;
@@ -61,23 +80,55 @@ public class SkippedPacketBuffer {
             position = mapOverflowPosition(sequenceNumber);
         }
         debug_lastPosition = position;
-        elementCount++;
-        try {
-            buffer[position] = pkt;
-        } catch (ArrayIndexOutOfBoundsException ioobe) {
+        if (position >= SIZE) {
             log.error("seq, exp: " + sequenceNumber + " " + expectedSequenceNumber + " ");
-            ioobe.printStackTrace();
-
-            dumpBuffer("oob: " + ioobe.getMessage());
+            dumpBuffer("oob: " + position);
             throw new IOException();
         }
+        int slot = slot(position);
+        UtpTimestampedPacketDTO replaced = buffer[slot];
+        buffer[slot] = pkt;
+        if (replaced != null) {
+            bufferedBytes -= payloadLength(replaced);
+        } else {
+            recieved[slot >>> 6] |= 1L << slot;
+            elementCount++;
+        }
+        bufferedBytes += payloadLength(pkt);
+        highestPosition = Math.max(highestPosition, position);
+    }
 
+    private static int payloadLength(UtpTimestampedPacketDTO pkt) {
+        byte[] payload = pkt.utpPacket().getPayload();
+        return payload == null ? 0 : payload.length;
+    }
+
+    /**
+     * @return payload bytes held by the buffer, they still need space once they can be delivered.
+     */
+    public int getBufferedBytes() {
+        return bufferedBytes;
     }
 
     private int mapOverflowPosition(int sequenceNumber) {
         return (int) (MAX_USHORT - expectedSequenceNumber + sequenceNumber);
     }
 
+    private int slot(int position) {
+        return (head + position) & MASK;
+    }
+
+    private boolean isRecieved(int slot) {
+        return (recieved[slot >>> 6] & (1L << slot)) != 0;
+    }
+
+    private void remove(int slot) {
+        bufferedBytes -= payloadLength(buffer[slot]);
+        buffer[slot] = null;
+        recieved[slot >>> 6] &= ~(1L << slot);
+        elementCount--;
+    }
+
     public void setExpectedSequenceNumber(int seq) {
         this.expectedSequenceNumber = seq;
     }
@@ -96,58 +147,59 @@ public class SkippedPacketBuffer {
         return header;
     }
 
+    /* bit i of the mask is position i + 1, the first bit of a byte is its least significant one */
     private void fillBitMask(byte[] bitMask) {
-        int bitMaskIndex = 0;
-        for (int i = 1; i < SIZE; i++) {
-            int bitMapIndex = (i - 1) % 8;
-            boolean hasRecieved = buffer[i] != null;
-
-            if (hasRecieved) {
-                int bitPattern = (SelectiveAckHeaderExtension.BITMAP[bitMapIndex] & 0xFF) & 0xFF;
-                bitMask[bitMaskIndex] = (byte) ((bitMask[bitMaskIndex] & 0xFF) | bitPattern);
+        int first = slot(1);
+        int shift = first & 63;
+        int word = first >>> 6;
+        for (int i = 0; i < bitMask.length; i += 8) {
+            long bits = recieved[word] >>> shift;
+            word = (word + 1) & WORD_MASK;
+            if (shift != 0) {
+                bits |= recieved[word] << (64 - shift);
             }
-
-            if (i % 8 == 0) {
-                bitMaskIndex++;
+            int end = Math.min(bitMask.length, i + 8);
+            for (int j = i; j < end; j++) {
+                bitMask[j] = (byte) bits;
+                bits >>>= 8;
             }
         }
     }
 
 
     private int calculateHeaderLength() {
-        int size = getRange();
+        int size = highestPosition;
         return (((size - 1) / 32) + 1) * 4;
     }
 
-    private int getRange() {
-        int range = 0;
-        for (int i = 0; i < SIZE; i++) {
-            if (buffer[i] != null) {
-                range = i;
-            }
-        }
-        return range;
-    }
-
 
     public boolean isEmpty() {
         return elementCount == 0;
     }
 
+    /**
+     * @return the packets after the expected one up to the next missing packet, the queue is
+     * reused with the next call.
+     */
     public Queue<UtpTimestampedPacketDTO> getAllUntillNextMissing() {
-        Queue<UtpTimestampedPacketDTO> queue = new LinkedList<UtpTimestampedPacketDTO>();
+        delivered.clear();
         for (int i = 1; i < SIZE; i++) {
-            if (buffer[i] != null) {
-                queue.add(buffer[i]);
-                buffer[i] = null;
-            } else {
+            int slot = slot(i);
+            if (!isRecieved(slot)) {
                 break;
             }
+            delivered.add(buffer[slot]);
+            remove(slot);
+        }
+        if (elementCount == 0) {
+            highestPosition = 0;
         }
-        elementCount -= queue.size();
-        return queue;
+        return delivered;
     }
 
+    /**
+     * Moves the head after the last delivered sequence number, packets before it are dropped.
+     */
     public void reindex(int lastSeqNumber) throws IOException {
         int expectedSequenceNumber;
         if (lastSeqNumber == MAX_USHORT) {
@@ -155,17 +207,21 @@ public class SkippedPacketBuffer {
         } else {
             expectedSequenceNumber = lastSeqNumber + 1;
         }
-        setExpectedSequenceNumber(expectedSequenceNumber);
-        UtpTimestampedPacketDTO[] oldBuffer = buffer;
-        buffer = new UtpTimestampedPacketDTO[SIZE];
-        elementCount = 0;
-        for (UtpTimestampedPacketDTO utpTimestampedPacket : oldBuffer) {
-            if (utpTimestampedPacket != null) {
-                bufferPacket(utpTimestampedPacket);
+        int advance = expectedSequenceNumber - this.expectedSequenceNumber;
+        if (advance < 0) {
+            advance = mapOverflowPosition(expectedSequenceNumber);
+        }
+        // usually only the expected packet, the delivered ones are gone already
+        int dropped = Math.min(advance, SIZE);
+        for (int i = 0; i < dropped && elementCount > 0; i++) {
+            int slot = slot(i);
+            if (buffer[slot] != null) {
+                remove(slot);
             }
         }
-
-
+        head = slot(advance);
+        highestPosition = elementCount == 0 ? 0 : Math.max(0, highestPosition - advance);
+        setExpectedSequenceNumber(expectedSequenceNumber);
     }
 
     public int getFreeSize() throws IOException {
@@ -196,10 +252,11 @@ public class SkippedPacketBuffer {
 
             for (int i = 0; i < SIZE; i++) {
                 String seq;
-                if (buffer[i] == null) {
+                UtpTimestampedPacketDTO pkt = buffer[slot(i)];
+                if (pkt == null) {
                     seq = "_; ";
                 } else {
-                    seq = (buffer[i].utpPacket().getSequenceNumber() & 0xFFFF) + "; ";
+                    seq = (pkt.utpPacket().getSequenceNumber() & 0xFFFF) + "; ";
                 }
                 bbuffer.put((i + " -> " + seq).getBytes());
                 if (i % 50 == 0) {
@@ -36,6 +36,17 @@ public class UtpReadFutureImpl extends UtpReadFuture {
      * @param exp
      * @param buffer
      */
+    /**
+     * Finishes a read into a file.
+     *
+     * @param exp
+     * @param bytesTransferred bytes written to the file.
+     */
+    public void finished(IOException exp, long bytesTransferred) {
+        this.bytesTransferred = bytesTransferred;
+        finished(exp, (ByteBuffer) null);
+    }
+
     public void finished(IOException exp, ByteBuffer buffer) {
         this.buffer = buffer;
         this.exception = exp;
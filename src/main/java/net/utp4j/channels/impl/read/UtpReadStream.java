@@ -0,0 +1,206 @@
+package net.utp4j.channels.impl.read;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.ReadableByteChannel;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Incomming data of a connection as a stream, see {@link net.utp4j.channels.UtpSocketChannel#readStream()}.
+ * The {@link UtpReadingRunnable} puts the payload of every packet in order into a ring buffer of fixed size,
+ * the application takes it out with {@link #read(ByteBuffer)} in pieces of any size.
+ * <p>
+ * The window advertised to the remote side is the free space of the ring, so a slow application slows down
+ * the sender instead of growing the buffer. Once reading frees half the ring, the reader is told
+ * to update the window, a sender that stopped on a closed window would not ask for it.
+ */
+public class UtpReadStream implements ReadableByteChannel {
+
+    private final byte[] ring;
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition readable = lock.newCondition();
+
+    /* guarded by lock */
+    private int head;
+    private int count;
+    private boolean endOfStream;
+    private IOException exception;
+    private volatile boolean open = true;
+    private boolean blocking = true;
+
+    private Runnable windowOpenedListener;
+    private Runnable closeListener;
+
+    /**
+     * @param capacity size of the ring in bytes.
+     */
+    public UtpReadStream(int capacity) {
+        this.ring = new byte[capacity];
+    }
+
+    /**
+     * Reads the data recieved so far, at most {@code dst.remaining()} bytes.
+     * A blocking stream waits until at least one byte is available.
+     *
+     * @return bytes read, 0 if non blocking and nothing is available, -1 once the remote side
+     * ended the stream with a FIN and everything before it was read.
+     * @throws IOException if the connection failed while reading.
+     */
+    @Override
+    public int read(ByteBuffer dst) throws IOException {
+        boolean windowOpened;
+        int read;
+        lock.lock();
+        try {
+            while (count == 0 && open && !endOfStream && exception == null && blocking) {
+                readable.await();
+            }
+            if (!open) {
+                throw new ClosedChannelException();
+            }
+            if (count == 0) {
+                if (exception != null) {
+                    throw exception;
+                }
+                return endOfStream ? -1 : 0;
+            }
+            int freeBefore = ring.length - count;
+            read = Math.min(count, dst.remaining());
+            int firstPart = Math.min(read, ring.length - head);
+            dst.put(ring, head, firstPart);
+            dst.put(ring, 0, read - firstPart);
+            head = (head + read) % ring.length;
+            count -= read;
+            int half = ring.length / 2;
+            windowOpened = freeBefore < half && ring.length - count >= half;
+        } catch (InterruptedException exp) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException();
+        } finally {
+            lock.unlock();
+        }
+        Runnable listener = windowOpenedListener;
+        if (windowOpened && listener != null) {
+            listener.run();
+        }
+        return read;
+    }
+
+    /**
+     * @param block true if {@link #read(ByteBuffer)} should wait for data, which is the default.
+     */
+    public void configureBlocking(boolean block) {
+        lock.lock();
+        try {
+            this.blocking = block;
+            readable.signalAll();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public boolean isBlocking() {
+        return blocking;
+    }
+
+    /**
+     * @return bytes that can be read without blocking.
+     */
+    public int available() {
+        lock.lock();
+        try {
+            return count;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public boolean isOpen() {
+        return open;
+    }
+
+    /**
+     * Stops reading. Data not read yet is dropped.
+     */
+    @Override
+    public void close() {
+        lock.lock();
+        try {
+            if (!open) {
+                return;
+            }
+            open = false;
+            readable.signalAll();
+        } finally {
+            lock.unlock();
+        }
+        Runnable listener = closeListener;
+        if (listener != null) {
+            listener.run();
+        }
+    }
+
+    void setListeners(Runnable windowOpened, Runnable closed) {
+        this.windowOpenedListener = windowOpened;
+        this.closeListener = closed;
+    }
+
+    int capacity() {
+        return ring.length;
+    }
+
+    /**
+     * @return bytes that can be put into the stream.
+     */
+    int freeSpace() {
+        lock.lock();
+        try {
+            return ring.length - count;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Appends the payload, the caller made sure it fits.
+     */
+    void put(byte[] payload) {
+        if (payload == null || payload.length == 0) {
+            return;
+        }
+        lock.lock();
+        try {
+            int tail = (head + count) % ring.length;
+            int firstPart = Math.min(payload.length, ring.length - tail);
+            System.arraycopy(payload, 0, ring, tail, firstPart);
+            System.arraycopy(payload, firstPart, ring, 0, payload.length - firstPart);
+            count += payload.length;
+            readable.signalAll();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * No more data will come.
+     *
+     * @param exp null if the stream ended with a FIN.
+     */
+    void finished(IOException exp) {
+        lock.lock();
+        try {
+            if (exp != null) {
+                exception = exp;
+            } else {
+                endOfStream = true;
+            }
+            readable.signalAll();
+        } finally {
+            lock.unlock();
+        }
+    }
+}
@@ -16,19 +16,23 @@ package net.utp4j.channels.impl.read;
 
 import net.utp4j.channels.impl.UtpSocketChannelImpl;
 import net.utp4j.channels.impl.UtpTimestampedPacketDTO;
-import net.utp4j.channels.impl.alg.UtpAlgConfiguration;
+import net.utp4j.channels.impl.alg.UtpConnectionConfiguration;
+import net.utp4j.channels.impl.recieve.HandoffQueue;
+import net.utp4j.channels.impl.recieve.UtpTimer;
 import net.utp4j.data.MicroSecondsTimeStamp;
 import net.utp4j.data.SelectiveAckHeaderExtension;
 import net.utp4j.data.UtpPacket;
+import net.utp4j.data.UtpPacketUtils;
 import net.utp4j.data.bytes.UnsignedTypesUtil;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.io.IOException;
 import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
 import java.util.Queue;
-import java.util.concurrent.BlockingQueue;
-import java.util.concurrent.TimeUnit;
+
+import static net.utp4j.channels.impl.UtpSocketChannelImpl.WAKE_UP;
 
 /**
  * Reads incomming data.
@@ -38,35 +42,85 @@ import java.util.concurrent.TimeUnit;
 public class UtpReadingRunnable extends Thread implements Runnable {
 
     private static final int PACKET_DIFF_WARP = 50000;
+    /* time out after 4sec, when eof not reached */
+    private static final long READ_TIMEOUT_MICROS = 4000000;
     private IOException exp;
     private final ByteBuffer buffer;
+    /* null unless reading a stream, then buffer is null */
+    private final UtpReadStream stream;
+    /* null unless reading into a file, then buffer is null */
+    private final MappedFileWriter file;
     private final UtpSocketChannelImpl channel;
     private final SkippedPacketBuffer skippedBuffer = new SkippedPacketBuffer();
     private boolean exceptionOccured = false;
-    private boolean graceFullInterrupt;
+    private volatile boolean graceFullInterrupt;
     private boolean isRunning;
     private MicroSecondsTimeStamp timeStamper;
     private long totalPayloadLength = 0;
-    private long lastPacketTimestamp;
     private int lastPayloadLength;
     private final UtpReadFutureImpl readFuture;
     private long nowtimeStamp;
     private long lastPackedRecieved;
     private final long startReadingTimeStamp;
     private boolean gotLastPacket = false;
+    /* sequence number of the FIN, valid once gotFin */
+    private boolean gotFin = false;
+    private int finSeqNr;
     // in case we ack every x-th packet, this is the counter.
     private int currentPackedAck = 0;
+    private final AckFrequency ackFrequency;
+    private final int maxPacketSize;
+    // when the oldest packet not acked yet was recieved
+    private long firstUnackedTimestamp;
+    private int lastTimestampDifference;
+    private long lastAdvertisedWindow;
+    /* set by the application thread once reading freed half the stream */
+    private volatile boolean windowOpened;
+    /* wakes us up when a delayed ack or the time out is due */
+    private final UtpTimer wakeUpTimer;
 
     private static final Logger log = LoggerFactory.getLogger(UtpReadingRunnable.class);
 
     public UtpReadingRunnable(UtpSocketChannelImpl channel, ByteBuffer buff, MicroSecondsTimeStamp timestamp, UtpReadFutureImpl future) {
+        this(channel, buff, null, null, timestamp, future);
+    }
+
+    /**
+     * Reads into the file from position on, payloads go straight into a mapping of it.
+     */
+    public UtpReadingRunnable(UtpSocketChannelImpl channel, FileChannel file, long position,
+                              MicroSecondsTimeStamp timestamp, UtpReadFutureImpl future) throws IOException {
+        this(channel, null, null, new MappedFileWriter(file, position, channel.getConfiguration().getTransferMapSize()),
+                timestamp, future);
+    }
+
+    /**
+     * Reads into the stream until the remote side sends a FIN or the stream is closed.
+     */
+    public UtpReadingRunnable(UtpSocketChannelImpl channel, UtpReadStream stream, MicroSecondsTimeStamp timestamp) {
+        this(channel, null, stream, null, timestamp, null);
+    }
+
+    private UtpReadingRunnable(UtpSocketChannelImpl channel, ByteBuffer buff, UtpReadStream stream, MappedFileWriter file,
+                               MicroSecondsTimeStamp timestamp, UtpReadFutureImpl future) {
         setName("UtpReadingRunnable");
 		this.channel = channel;
 		this.buffer = buff;
+		this.stream = stream;
+		this.file = file;
 		this.timeStamper = timestamp;
 		this.readFuture = future;
-		lastPayloadLength = UtpAlgConfiguration.MAX_PACKET_SIZE;
+		UtpConnectionConfiguration config = channel.getConfiguration();
+		lastPayloadLength = config.getMaxPacketSize();
+		ackFrequency = new AckFrequency(config.getSkipPacketsUntilAck(), config.getDelayedAckMicros());
+		maxPacketSize = config.getMaxPacketSize();
 		this.startReadingTimeStamp = timestamp.timeStamp();
+		HandoffQueue<UtpTimestampedPacketDTO> dataQueue = channel.getDataQueue();
+		wakeUpTimer = channel.newTimer(() -> dataQueue.wakeUp());
+		if (stream != null) {
+			lastAdvertisedWindow = stream.capacity();
+			stream.setListeners(this::windowOpened, this::graceFullInterrupt);
+		}
 	}
 	
 	public int getBytesRead() {
@@ -88,18 +142,30 @@ public class UtpReadingRunnable extends Thread implements Runnable {
         isRunning = true;
         IOException exp = null;
         while (continueReading()) {
-            BlockingQueue<UtpTimestampedPacketDTO> queue = channel.getDataGramQueue();
+            HandoffQueue<UtpTimestampedPacketDTO> queue = channel.getDataQueue();
             try {
-                UtpTimestampedPacketDTO timestampedPair = queue.poll(UtpAlgConfiguration.TIME_WAIT_AFTER_LAST_PACKET / 2, TimeUnit.MICROSECONDS);
+                UtpTimestampedPacketDTO timestampedPair = waitForPacket(queue);
                 nowtimeStamp = timeStamper.timeStamp();
-                if (timestampedPair != null) {
+                if (timestampedPair != WAKE_UP && !hasRoomFor(timestampedPair.utpPacket())) {
+                    // the sender overran the window, it resends once the application read enough
+                    channel.ackCurrentPosition(getTimestampDifference(timestampedPair), getLeftSpaceInBuffer());
+                } else if (timestampedPair != WAKE_UP) {
+                    /* outgoing DATA already acked everything recieved so far */
+                    if (channel.isAckNumberPiggybacked()) {
+                        currentPackedAck = 0;
+                    }
+                    if (currentPackedAck == 0) {
+                        firstUnackedTimestamp = nowtimeStamp;
+                    }
                     currentPackedAck++;
+                    ackFrequency.packetRecieved(nowtimeStamp, channel.getRttMicros());
+                    lastTimestampDifference = getTimestampDifference(timestampedPair);
 //					log.debug("Seq: " + (timestampedPair.utpPacket().getSequenceNumber() & 0xFFFF));
                     lastPackedRecieved = timestampedPair.stamp();
-                    if (isLastPacket(timestampedPair)) {
-                        gotLastPacket = true;
-                        log.debug("GOT LAST PACKET");
-                        lastPacketTimestamp = timeStamper.timeStamp();
+                    if (isNewFin(timestampedPair.utpPacket())) {
+                        gotFin = true;
+                        finSeqNr = timestampedPair.utpPacket().getSequenceNumber() & 0xFFFF;
+                        log.debug("GOT FIN " + finSeqNr);
                     }
                     if (isPacketExpected(timestampedPair.utpPacket())) {
                         handleExpectedPacket(timestampedPair);
@@ -110,9 +176,12 @@ public class UtpReadingRunnable extends Thread implements Runnable {
                         currentPackedAck = 0;
                     }
                 }
+                if (isDelayedAckDue() || isWindowUpdateDue() || (isEndOfStream() && currentPackedAck > 0)) {
+                    sendDelayedAck();
+                }
 
                 /*TODO: How to measure Rtt here for dynamic timeout limit?*/
-                if (isTimedOut()) {
+                if (isReadTimeoutArmed() && isTimedOut()) {
                     if (!hasSkippedPackets()) {
                         gotLastPacket = true;
                         log.debug("ENDING READING, NO MORE INCOMMING DATA");
@@ -137,10 +206,24 @@ public class UtpReadingRunnable extends Thread implements Runnable {
             }
         }
         isRunning = false;
-        readFuture.finished(exp, buffer);
-
-
-        log.debug("Buffer position: " + buffer.position() + " buffer limit: " + buffer.limit());
+        wakeUpTimer.cancel();
+        if (isEndOfStream()) {
+            channel.lingerAfterFin();
+        }
+        if (stream != null) {
+            stream.finished(exp);
+        } else if (file != null) {
+            try {
+                file.finish();
+            } catch (IOException finishExp) {
+                finishExp.printStackTrace();
+                exp = exp == null ? finishExp : exp;
+            }
+            readFuture.finished(exp, file.getBytesWritten());
+        } else {
+            readFuture.finished(exp, buffer);
+            log.debug("Buffer position: " + buffer.position() + " buffer limit: " + buffer.limit());
+        }
         log.debug("PAYLOAD LENGHT " + totalPayloadLength);
         log.debug("READER OUT");
 
@@ -148,26 +231,81 @@ public class UtpReadingRunnable extends Thread implements Runnable {
 
     }
 
+    /* blocks until the next packet comes in or the next deadline is due */
+    private UtpTimestampedPacketDTO waitForPacket(HandoffQueue<UtpTimestampedPacketDTO> queue) throws InterruptedException {
+        UtpTimestampedPacketDTO timestampedPair = queue.poll();
+        if (timestampedPair != null) {
+            return timestampedPair;
+        }
+        long deadline = nextDeadline();
+        if (deadline == Long.MAX_VALUE) {
+            wakeUpTimer.cancel();
+        } else {
+            wakeUpTimer.schedule(deadline - timeStamper.timeStamp());
+        }
+        return queue.take();
+    }
+
+    private long nextDeadline() {
+        long deadline = Long.MAX_VALUE;
+        if (isReadTimeoutArmed()) {
+            deadline = Math.max(lastPackedRecieved, startReadingTimeStamp) + READ_TIMEOUT_MICROS;
+        }
+        if (currentPackedAck > 0) {
+            deadline = Math.min(deadline, firstUnackedTimestamp + ackFrequency.delayMicros());
+        }
+        return deadline;
+    }
+
+    /* a stream may stay idle as long as the application wants, unless packets are missing */
+    private boolean isReadTimeoutArmed() {
+        return stream == null || hasSkippedPackets();
+    }
+
     private boolean isTimedOut() {
-        //TODO: extract constants...
-        /* time out after 4sec, when eof not reached */
-        boolean timedOut = nowtimeStamp - lastPackedRecieved >= 4000000;
+        boolean timedOut = nowtimeStamp - lastPackedRecieved >= READ_TIMEOUT_MICROS;
         /* but if remote socket has not recieved synack yet, he will try to reconnect
          * await that aswell */
-        boolean connectionReattemptAwaited = nowtimeStamp - startReadingTimeStamp >= 4000000;
+        boolean connectionReattemptAwaited = nowtimeStamp - startReadingTimeStamp >= READ_TIMEOUT_MICROS;
         return timedOut && connectionReattemptAwaited;
     }
 
-    private boolean isLastPacket(UtpTimestampedPacketDTO timestampedPair) {
-//		log.debug("WindowSize: " + (timestampedPair.utpPacket().getWindowSize() & 0xFFFFFFFF));
-//		log.debug("got Packet: " + (timestampedPair.utpPacket().getSequenceNumber() & 0xFFFF) + " and will ack? " + ackThisPacket() + " acksizeCounter " + currentPackedAck);
-        return (timestampedPair.utpPacket().getWindowSize() & 0xFFFFFFFF) == 0;
+    /* a packet waited too long for the next one to be acked together */
+    private boolean isDelayedAckDue() {
+        if (channel.isAckNumberPiggybacked()) {
+            currentPackedAck = 0;
+        }
+        return currentPackedAck > 0 && nowtimeStamp - firstUnackedTimestamp >= ackFrequency.delayMicros();
+    }
+
+    private void sendDelayedAck() throws IOException {
+        if (hasSkippedPackets()) {
+            SelectiveAckHeaderExtension headerExtension = skippedBuffer.createHeaderExtension();
+            channel.selectiveAckPacket(headerExtension, lastTimestampDifference, getLeftSpaceInBuffer());
+        } else {
+            channel.ackCurrentPosition(lastTimestampDifference, getLeftSpaceInBuffer());
+        }
+        currentPackedAck = 0;
+    }
+
+    /* a FIN we did not ack yet, a resent FIN of an earlier transfer is just acked again */
+    private boolean isNewFin(UtpPacket utpPacket) {
+        if (utpPacket.getTypeVersion() != UtpPacketUtils.FIN) {
+            return false;
+        }
+        int seqNr = utpPacket.getSequenceNumber() & 0xFFFF;
+        return ((seqNr - getExpectedSeqNr()) & 0xFFFF) < PACKET_DIFF_WARP;
+    }
+
+    /* every packet up to and including the FIN was recieved and put into the buffer */
+    private boolean isEndOfStream() {
+        return gotFin && channel.getAckNumber() == finSeqNr;
     }
 
     private void handleExpectedPacket(UtpTimestampedPacketDTO timestampedPair) throws IOException {
 //		log.debug("handling expected packet: " + (timestampedPair.utpPacket().getSequenceNumber() & 0xFFFF));
         if (hasSkippedPackets()) {
-            buffer.put(timestampedPair.utpPacket().getPayload());
+            deliver(timestampedPair.utpPacket().getPayload());
             int payloadLength = timestampedPair.utpPacket().getPayload().length;
             lastPayloadLength = payloadLength;
             totalPayloadLength += payloadLength;
@@ -178,7 +316,7 @@ public class UtpReadingRunnable extends Thread implements Runnable {
             }
             UtpPacket lastPacket = null;
             for (UtpTimestampedPacketDTO p : packets) {
-                buffer.put(p.utpPacket().getPayload());
+                deliver(p.utpPacket().getPayload());
                 payloadLength += p.utpPacket().getPayload().length;
                 lastSeqNumber = p.utpPacket().getSequenceNumber() & 0xFFFF;
                 lastPacket = p.utpPacket();
@@ -200,19 +338,70 @@ public class UtpReadingRunnable extends Thread implements Runnable {
                 }
             }
         } else {
+            // delivered first, so the ack advertises the space that is left
+            deliver(timestampedPair.utpPacket().getPayload());
+            totalPayloadLength += timestampedPair.utpPacket().getPayload().length;
             if (ackThisPacket()) {
 //				log.debug("acking expected, nomore");
                 channel.ackPacket(timestampedPair.utpPacket(), getTimestampDifference(timestampedPair), getLeftSpaceInBuffer());
             } else {
                 channel.setAckNumber(timestampedPair.utpPacket().getSequenceNumber() & 0xFFFF);
             }
-            buffer.put(timestampedPair.utpPacket().getPayload());
-            totalPayloadLength += timestampedPair.utpPacket().getPayload().length;
         }
     }
 
+    private void deliver(byte[] payload) throws IOException {
+        if (stream != null) {
+            stream.put(payload);
+        } else if (file != null) {
+            file.put(payload);
+        } else {
+            buffer.put(payload);
+        }
+    }
+
+    /*
+     * A stream only takes what it can deliver. A packet out of order also needs room for
+     * every packet still missing before it, or the missing one could never be taken.
+     */
+    private boolean hasRoomFor(UtpPacket utpPacket) {
+        if (stream == null) {
+            return true;
+        }
+        int freeSpace = stream.freeSpace();
+        if (isPacketExpected(utpPacket)) {
+            int payloadLength = utpPacket.getPayload() == null ? 0 : utpPacket.getPayload().length;
+            return payloadLength + skippedBuffer.getBufferedBytes() <= freeSpace;
+        }
+        int distance = ((utpPacket.getSequenceNumber() & 0xFFFF) - getExpectedSeqNr()) & 0xFFFF;
+        if (distance > PACKET_DIFF_WARP) {
+            // already recieved, only acked again
+            return true;
+        }
+        return (long) (distance + 1) * maxPacketSize <= freeSpace;
+    }
+
+    /*
+     * The application read enough to open a window we last advertised as (nearly) closed,
+     * or packets wait for a delayed ack that would tell the sender about the space.
+     */
+    private boolean isWindowUpdateDue() throws IOException {
+        if (!windowOpened) {
+            return false;
+        }
+        windowOpened = false;
+        long half = stream.capacity() / 2;
+        return (lastAdvertisedWindow < half || currentPackedAck > 0) && freeWindow() >= half;
+    }
+
+    /* called by the stream from the application thread */
+    private void windowOpened() {
+        windowOpened = true;
+        channel.getDataQueue().wakeUp();
+    }
+
     private boolean ackThisPacket() {
-        return currentPackedAck >= UtpAlgConfiguration.SKIP_PACKETS_UNTIL_ACK;
+        return currentPackedAck >= ackFrequency.ackRatio();
     }
 
     /**
@@ -221,7 +410,16 @@ public class UtpReadingRunnable extends Thread implements Runnable {
      * @return bytes
      */
     public long getLeftSpaceInBuffer() throws IOException {
-        return (long) (skippedBuffer.getFreeSize()) * lastPayloadLength;
+        lastAdvertisedWindow = freeWindow();
+        return lastAdvertisedWindow;
+    }
+
+    private long freeWindow() throws IOException {
+        long window = (long) (skippedBuffer.getFreeSize()) * lastPayloadLength;
+        if (stream != null) {
+            window = Math.min(window, Math.max(0, stream.freeSpace() - skippedBuffer.getBufferedBytes()));
+        }
+        return window;
     }
 
     private int getTimestampDifference(UtpTimestampedPacketDTO timestampedPair) {
@@ -244,6 +442,7 @@ public class UtpReadingRunnable extends Thread implements Runnable {
         boolean saneSeqNr = expected == skippedBuffer.getExpectedSequenceNumber();
 //		log.debug("saneSeqNr: " + saneSeqNr + " alreadyAcked: " + alreadyAcked + " will ack: " + ackThisPacket());
         if (saneSeqNr && !alreadyAcked) {
+            ackFrequency.lossDetected();
             skippedBuffer.bufferPacket(timestampedPair);
             // need to create header extension after the packet is put into the incomming buffer.
             SelectiveAckHeaderExtension headerExtension = skippedBuffer.createHeaderExtension();
@@ -283,16 +482,11 @@ public class UtpReadingRunnable extends Thread implements Runnable {
 
     public void graceFullInterrupt() {
         this.graceFullInterrupt = true;
+        channel.getDataQueue().wakeUp();
     }
 
     private boolean continueReading() {
-        return !graceFullInterrupt && !exceptionOccured
-                && (!gotLastPacket || hasSkippedPackets() || !timeAwaitedAfterLastPacket());
-    }
-
-    private boolean timeAwaitedAfterLastPacket() {
-        return (timeStamper.timeStamp() - lastPacketTimestamp) > UtpAlgConfiguration.TIME_WAIT_AFTER_LAST_PACKET
-                && gotLastPacket;
+        return !graceFullInterrupt && !exceptionOccured && !gotLastPacket && !isEndOfStream();
     }
 
     public boolean isRunning() {
@@ -0,0 +1,229 @@
+package net.utp4j.channels.impl.recieve;
+
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.util.Collection;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Bounded ring that hands recieved packets from the event loop to the one reader or writer of a connection.
+ * One thread offers at a time, the event loop that handles the connection, and one thread takes.
+ * All slots are allocated up front and neither side takes a lock. The producer and consumer indices
+ * sit on cache lines of their own, so the two threads do not invalidate each others line with every packet.
+ * <p>
+ * A full ring drops the packet instead of growing, uTP resends whatever was not acked. Drops are counted.
+ * <p>
+ * The consumer can also be woken up without a packet, from any thread, see {@link #wakeUp()}.
+ * {@link #take()} then returns the wake up value given to the constructor, {@link #await()} false.
+ */
+public final class HandoffQueue<E> extends HandoffQueueParked {
+
+    private static final VarHandle HEAD;
+
+    static {
+        try {
+            HEAD = MethodHandles.lookup().findVarHandle(HandoffQueueHead.class, "head", long.class);
+        } catch (ReflectiveOperationException exp) {
+            throw new ExceptionInInitializerError(exp);
+        }
+    }
+
+    private final Object[] ring;
+    private final int mask;
+    private final E wakeUpValue;
+
+    /**
+     * @param capacity    number of packets the ring holds, rounded up to a power of two.
+     * @param wakeUpValue returned by {@link #take()} after {@link #wakeUp()}, never offered.
+     */
+    public HandoffQueue(int capacity, E wakeUpValue) {
+        int size = Integer.highestOneBit(Math.max(2, capacity) * 2 - 1);
+        ring = new Object[size];
+        mask = size - 1;
+        this.wakeUpValue = wakeUpValue;
+    }
+
+    /**
+     * Producer only.
+     *
+     * @return false if the ring is full, the element was dropped then.
+     */
+    public boolean offer(E element) {
+        long t = tail;
+        if (t - headCache >= ring.length) {
+            headCache = head;
+            if (t - headCache >= ring.length) {
+                dropped++;
+                return false;
+            }
+        }
+        ring[(int) t & mask] = element;
+        // a volatile store, so that a consumer about to park either sees the element or is seen parked
+        tail = t + 1;
+        if (parked) {
+            LockSupport.unpark(consumer);
+        }
+        return true;
+    }
+
+    /**
+     * Consumer only.
+     *
+     * @return the oldest element, null if the ring is empty.
+     */
+    @SuppressWarnings("unchecked")
+    public E poll() {
+        long h = head;
+        if (h >= tailCache) {
+            tailCache = tail;
+            if (h >= tailCache) {
+                return null;
+            }
+        }
+        int index = (int) h & mask;
+        E element = (E) ring[index];
+        ring[index] = null;
+        HEAD.setRelease(this, h + 1);
+        return element;
+    }
+
+    /**
+     * Consumer only. Moves every element offered so far to target, the slots are given back at once.
+     *
+     * @return number of elements moved.
+     */
+    @SuppressWarnings("unchecked")
+    public int drainTo(Collection<? super E> target) {
+        long h = head;
+        long t = tail;
+        tailCache = t;
+        for (long i = h; i < t; i++) {
+            int index = (int) i & mask;
+            target.add((E) ring[index]);
+            ring[index] = null;
+        }
+        HEAD.setRelease(this, t);
+        return (int) (t - h);
+    }
+
+    /**
+     * Consumer only. Waits until an element is offered or the consumer is woken up.
+     *
+     * @return the oldest element or the wake up value.
+     * @throws InterruptedException if the consumer was interrupted while waiting.
+     */
+    public E take() throws InterruptedException {
+        consumer = Thread.currentThread();
+        while (true) {
+            E element = poll();
+            if (element != null) {
+                return element;
+            }
+            if (wakeUpPending) {
+                wakeUpPending = false;
+                return wakeUpValue;
+            }
+            parked = true;
+            if (tail == head && !wakeUpPending) {
+                LockSupport.park(this);
+            }
+            parked = false;
+            if (Thread.interrupted()) {
+                throw new InterruptedException();
+            }
+        }
+    }
+
+    /**
+     * Consumer only. Waits like {@link #take()}, but leaves the element in the ring.
+     *
+     * @return true if an element is waiting, false if the consumer was woken up without one.
+     * @throws InterruptedException if the consumer was interrupted while waiting.
+     */
+    public boolean await() throws InterruptedException {
+        consumer = Thread.currentThread();
+        while (true) {
+            if (tail != head) {
+                return true;
+            }
+            if (wakeUpPending) {
+                wakeUpPending = false;
+                return false;
+            }
+            parked = true;
+            if (tail == head && !wakeUpPending) {
+                LockSupport.park(this);
+            }
+            parked = false;
+            if (Thread.interrupted()) {
+                throw new InterruptedException();
+            }
+        }
+    }
+
+    /**
+     * Wakes up the consumer, or lets its next {@link #take()} return right away. Any thread may call this,
+     * several wake ups before the consumer runs are one.
+     */
+    public void wakeUp() {
+        wakeUpPending = true;
+        if (parked) {
+            LockSupport.unpark(consumer);
+        }
+    }
+
+    /**
+     * @return number of elements waiting, a snapshot if called by neither side.
+     */
+    public int size() {
+        long h = head;
+        return (int) Math.max(0, tail - h);
+    }
+
+    public int capacity() {
+        return ring.length;
+    }
+
+    /**
+     * @return number of elements dropped because the ring was full.
+     */
+    public long getDropped() {
+        return dropped;
+    }
+}
+
+/* padding is done by inheritance, the jvm lays out the fields of a super class first */
+abstract class HandoffQueuePad0 {
+    long p00, p01, p02, p03, p04, p05, p06, p07;
+    long p10, p11, p12, p13, p14, p15, p16, p17;
+}
+
+/* written by the producer */
+abstract class HandoffQueueTail extends HandoffQueuePad0 {
+    volatile long tail;
+    long headCache;
+    volatile long dropped;
+}
+
+abstract class HandoffQueuePad1 extends HandoffQueueTail {
+    long p00, p01, p02, p03, p04, p05, p06, p07;
+    long p10, p11, p12, p13, p14, p15, p16, p17;
+}
+
+/* written by the consumer */
+abstract class HandoffQueueHead extends HandoffQueuePad1 {
+    volatile long head;
+    long tailCache;
+}
+
+abstract class HandoffQueuePad2 extends HandoffQueueHead {
+    long p00, p01, p02, p03, p04, p05, p06, p07;
+    long p10, p11, p12, p13, p14, p15, p16, p17;
+}
+
+/* read with every offer, written only when the consumer parks or is woken up */
+abstract class HandoffQueueParked extends HandoffQueuePad2 {
+    volatile boolean parked;
+    volatile boolean wakeUpPending;
+    volatile Thread consumer;
+}
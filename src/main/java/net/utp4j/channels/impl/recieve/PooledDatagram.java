@@ -0,0 +1,98 @@
+package net.utp4j.channels.impl.recieve;
+
+import net.utp4j.channels.impl.UtpTimestampedPacketDTO;
+
+import java.net.DatagramPacket;
+import java.net.SocketAddress;
+import java.nio.ByteBuffer;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static net.utp4j.data.UtpPacketUtils.MAX_UDP_HEADER_LENGTH;
+import static net.utp4j.data.UtpPacketUtils.MAX_UTP_PACKET_LENGTH;
+
+/**
+ * Reference counted recieve buffer. The {@link DatagramPacket} and {@link ByteBuffer} views
+ * are created once and reused for every datagram recieved into this buffer.
+ * The buffer goes back to its pool when the last reference is released.
+ */
+public class PooledDatagram {
+
+    private final byte[] data = new byte[MAX_UDP_HEADER_LENGTH + MAX_UTP_PACKET_LENGTH];
+    private final ByteBuffer buffer = ByteBuffer.wrap(data);
+    private final DatagramPacket packet = new DatagramPacket(data, data.length);
+    private final AtomicInteger refCnt = new AtomicInteger();
+    private final RecieveBufferPool pool;
+    private UtpTimestampedPacketDTO timestamped;
+
+    PooledDatagram(RecieveBufferPool pool) {
+        this.pool = pool;
+    }
+
+    /**
+     * @return the buffer to recieve the next datagram into, cleared.
+     */
+    ByteBuffer prepareRecieve() {
+        buffer.clear();
+        return buffer;
+    }
+
+    /**
+     * Sets length and sender of the packet view after a datagram was recieved into {@link #prepareRecieve()}.
+     */
+    void recieved(SocketAddress from) {
+        packet.setData(data, 0, buffer.position());
+        packet.setSocketAddress(from);
+    }
+
+    /**
+     * @return the recieved datagram, only valid until this buffer is released.
+     */
+    public DatagramPacket packet() {
+        return packet;
+    }
+
+    /**
+     * Hands the recieved packet on without extracting it, the DTO is created once and reused.
+     * It must be {@link UtpTimestampedPacketDTO#release() released} once it was handled.
+     *
+     * @param stamp    time stamp when the packet was recieved.
+     * @param utpStamp uTP time stamp when the packet was recieved.
+     */
+    public UtpTimestampedPacketDTO timestamped(long stamp, int utpStamp) {
+        if (timestamped == null) {
+            timestamped = new UtpTimestampedPacketDTO(this);
+        }
+        timestamped.setRecieved(stamp, utpStamp);
+        return timestamped;
+    }
+
+    void acquired() {
+        refCnt.set(1);
+    }
+
+    /**
+     * Adds a reference, every reference must be released once.
+     */
+    public PooledDatagram retain() {
+        if (refCnt.getAndIncrement() <= 0) {
+            throw new IllegalStateException("buffer already released");
+        }
+        return this;
+    }
+
+    /**
+     * Drops a reference. The last release returns the buffer to its pool.
+     */
+    public void release() {
+        int left = refCnt.decrementAndGet();
+        if (left == 0) {
+            pool.recycle(this);
+        } else if (left < 0) {
+            throw new IllegalStateException("buffer released too often");
+        }
+    }
+
+    public int refCnt() {
+        return refCnt.get();
+    }
+}
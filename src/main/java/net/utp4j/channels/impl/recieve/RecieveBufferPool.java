@@ -0,0 +1,64 @@
+package net.utp4j.channels.impl.recieve;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Bounded pool of recieve buffers. Buffers are taken by the event loop and returned by
+ * whichever thread releases the last reference, so the pool is safe for concurrent use.
+ * If the pool is empty a new buffer is allocated (a miss); if it is full a returned buffer
+ * is left to the garbage collector.
+ */
+public class RecieveBufferPool {
+
+    private final ArrayBlockingQueue<PooledDatagram> free;
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+
+    /**
+     * @param capacity maximum number of idle buffers kept, all of them are allocated up front.
+     */
+    public RecieveBufferPool(int capacity) {
+        free = new ArrayBlockingQueue<>(Math.max(1, capacity));
+        for (int i = 0; i < capacity; i++) {
+            free.offer(new PooledDatagram(this));
+        }
+    }
+
+    /**
+     * @return a buffer with a reference count of one.
+     */
+    public PooledDatagram acquire() {
+        PooledDatagram datagram = free.poll();
+        if (datagram != null) {
+            hits.increment();
+        } else {
+            misses.increment();
+            datagram = new PooledDatagram(this);
+        }
+        datagram.acquired();
+        return datagram;
+    }
+
+    void recycle(PooledDatagram datagram) {
+        free.offer(datagram);
+    }
+
+    /**
+     * @return number of buffers that were served from the pool.
+     */
+    public long getHits() {
+        return hits.sum();
+    }
+
+    /**
+     * @return number of buffers that had to be allocated because the pool was empty.
+     */
+    public long getMisses() {
+        return misses.sum();
+    }
+
+    public int getIdle() {
+        return free.size();
+    }
+}
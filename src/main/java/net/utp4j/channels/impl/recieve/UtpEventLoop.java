@@ -0,0 +1,225 @@
+package net.utp4j.channels.impl.recieve;
+
+import net.utp4j.channels.impl.alg.UtpAlgConfiguration;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.net.DatagramPacket;
+import java.net.SocketAddress;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.DatagramChannel;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.util.Iterator;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Single thread that multiplexes any number of {@link DatagramChannel}s with one {@link Selector}
+ * and passes every recieved datagram to the {@link UtpPacketRecievable} the channel was registered with.
+ * All work for a channel or a connection sharded onto this loop runs on this thread,
+ * including the timers of those connections, see {@link #newTimer(Runnable)}.
+ */
+public class UtpEventLoop extends Thread {
+
+    private final Selector selector;
+    private final Queue<Runnable> tasks = new ConcurrentLinkedQueue<>();
+    private final AtomicBoolean wakeupPending = new AtomicBoolean(false);
+    private final RecieveBufferPool bufferPool = new RecieveBufferPool(UtpAlgConfiguration.RECIEVE_BUFFER_POOL_SIZE);
+    private final UtpTimerWheel timers = new UtpTimerWheel(UtpAlgConfiguration.TIMER_WHEEL_SIZE,
+            UtpAlgConfiguration.TIMER_TICK_MICROS, this::wakeup);
+    private volatile boolean graceFullInterrupt = false;
+
+    private final static Logger log = LoggerFactory.getLogger(UtpEventLoop.class);
+
+    public UtpEventLoop(String name) throws IOException {
+        setName(name);
+        setDaemon(true);
+        this.selector = Selector.open();
+    }
+
+    /**
+     * Registers the channel on this loop. Every datagram read from the channel is passed to the reciever.
+     *
+     * @param channel  non-blocking datagram channel.
+     * @param reciever the channel or server owning that socket.
+     */
+    public void register(DatagramChannel channel, UtpPacketRecievable reciever) {
+        execute(() -> {
+            try {
+                channel.register(selector, SelectionKey.OP_READ, reciever);
+            } catch (ClosedChannelException exp) {
+                log.debug("channel closed before it could be registered");
+            }
+        });
+    }
+
+    /**
+     * Deregisters and closes the channel. The close happens on this loop, after the key is flushed
+     * from the selector, so that the port is released immediately.
+     */
+    public void close(DatagramChannel channel) {
+        execute(() -> {
+            SelectionKey key = channel.keyFor(selector);
+            try {
+                if (key != null) {
+                    key.cancel();
+                    selector.selectNow();
+                }
+                channel.close();
+            } catch (IOException exp) {
+                exp.printStackTrace();
+            }
+        });
+    }
+
+    /**
+     * Passes the packet to the reciever on this loop.
+     * If called from this loop, the packet is handled immediately.
+     */
+    public void deliver(UtpPacketRecievable reciever, DatagramPacket packet) {
+        if (inEventLoop()) {
+            reciever.recievePacket(packet);
+        } else {
+            execute(() -> reciever.recievePacket(packet));
+        }
+    }
+
+    /**
+     * Passes a pooled packet to the reciever on this loop, the reference is handed over with it.
+     */
+    public void deliver(UtpPacketRecievable reciever, PooledDatagram datagram) {
+        if (inEventLoop()) {
+            reciever.recievePacket(datagram);
+        } else {
+            execute(() -> reciever.recievePacket(datagram));
+        }
+    }
+
+    /**
+     * @return the pool this loop recieves datagrams into.
+     */
+    public RecieveBufferPool getBufferPool() {
+        return bufferPool;
+    }
+
+    /**
+     * Creates a timer that runs the task on this loop. The timer is not armed yet.
+     */
+    public UtpTimer newTimer(Runnable task) {
+        return timers.newTimer(task);
+    }
+
+    /**
+     * Runs the task on this loop.
+     */
+    public void execute(Runnable task) {
+        if (inEventLoop()) {
+            task.run();
+            return;
+        }
+        tasks.add(task);
+        wakeup();
+    }
+
+    private void wakeup() {
+        if (!inEventLoop() && wakeupPending.compareAndSet(false, true)) {
+            selector.wakeup();
+        }
+    }
+
+    public boolean inEventLoop() {
+        return Thread.currentThread() == this;
+    }
+
+    public void graceFullInterrupt() {
+        graceFullInterrupt = true;
+        selector.wakeup();
+    }
+
+    @Override
+    public void run() {
+        while (!graceFullInterrupt) {
+            try {
+                select();
+                wakeupPending.set(false);
+                processSelectedKeys();
+            } catch (IOException exp) {
+                exp.printStackTrace();
+            }
+            runTasks();
+            timers.expire();
+        }
+        try {
+            selector.close();
+        } catch (IOException exp) {
+            exp.printStackTrace();
+        }
+        log.debug("EVENT LOOP OUT");
+    }
+
+    /* sleep until a datagram arrives, a task is added or the next timer is due */
+    private void select() throws IOException {
+        long timeout = timers.timeUntilNextTick();
+        if (timeout < 0) {
+            selector.select();
+        } else if (timeout == 0) {
+            selector.selectNow();
+        } else {
+            selector.select((timeout + 999) / 1000);
+        }
+    }
+
+    private void processSelectedKeys() {
+        Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+        while (keys.hasNext()) {
+            SelectionKey key = keys.next();
+            keys.remove();
+            if (key.isValid() && key.isReadable()) {
+                readAll(key);
+            }
+        }
+    }
+
+    /* drain the socket, a single readiness event can cover many datagrams */
+    private void readAll(SelectionKey key) {
+        DatagramChannel channel = (DatagramChannel) key.channel();
+        UtpPacketRecievable reciever = (UtpPacketRecievable) key.attachment();
+        while (key.isValid()) {
+            PooledDatagram datagram = bufferPool.acquire();
+            try {
+                SocketAddress from = channel.receive(datagram.prepareRecieve());
+                if (from == null) {
+                    datagram.release();
+                    return;
+                }
+                datagram.recieved(from);
+            } catch (IOException exp) {
+                datagram.release();
+                if (channel.isOpen()) {
+                    exp.printStackTrace();
+                }
+                return;
+            }
+            try {
+                reciever.recievePacket(datagram);
+            } catch (RuntimeException exp) {
+                // a malformed packet must not take down the loop and every socket on it
+                exp.printStackTrace();
+            }
+        }
+    }
+
+    private void runTasks() {
+        Runnable task;
+        while ((task = tasks.poll()) != null) {
+            try {
+                task.run();
+            } catch (RuntimeException exp) {
+                exp.printStackTrace();
+            }
+        }
+    }
+}
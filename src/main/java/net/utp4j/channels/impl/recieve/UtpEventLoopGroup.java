@@ -0,0 +1,101 @@
+package net.utp4j.channels.impl.recieve;
+
+import net.utp4j.channels.impl.alg.UtpAlgConfiguration;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A fixed number of {@link UtpEventLoop}s that serve every socket of this process.
+ * Connections are sharded onto the loops by their connection id, so the packets of
+ * one connection are always handled by the same thread.
+ */
+public class UtpEventLoopGroup {
+
+    private static UtpEventLoopGroup defaultGroup;
+
+    private final UtpEventLoop[] loops;
+    private final AtomicInteger nextSocketLoop = new AtomicInteger();
+
+    /**
+     * Starts a group with the given number of loops.
+     *
+     * @param threads number of event loop threads, at least 1.
+     * @throws IOException if a selector cannot be opened.
+     */
+    public UtpEventLoopGroup(int threads) throws IOException {
+        if (threads < 1) {
+            throw new IllegalArgumentException("an event loop group needs at least one thread");
+        }
+        loops = new UtpEventLoop[threads];
+        for (int i = 0; i < threads; i++) {
+            loops[i] = new UtpEventLoop("UtpEventLoop_" + i);
+            loops[i].start();
+        }
+    }
+
+    /**
+     * @return the group shared by all channels, sized by {@link UtpAlgConfiguration#EVENT_LOOP_THREADS}.
+     */
+    public static synchronized UtpEventLoopGroup getDefault() {
+        if (defaultGroup == null) {
+            try {
+                defaultGroup = new UtpEventLoopGroup(UtpAlgConfiguration.EVENT_LOOP_THREADS);
+            } catch (IOException exp) {
+                throw new UncheckedIOException("Could not start utp event loops", exp);
+            }
+        }
+        return defaultGroup;
+    }
+
+    /**
+     * @param connectionId the recieving connection id.
+     * @return the loop which handles all packets of this connection.
+     */
+    public UtpEventLoop loopFor(long connectionId) {
+        return loops[(int) ((connectionId & 0xFFFF) % loops.length)];
+    }
+
+    /**
+     * @return a loop for a socket that is not bound to a single connection, e.g. a server socket.
+     */
+    public UtpEventLoop nextSocketLoop() {
+        return loops[Math.floorMod(nextSocketLoop.getAndIncrement(), loops.length)];
+    }
+
+    public int size() {
+        return loops.length;
+    }
+
+    /**
+     * @return recieve buffers served from the pools of all loops.
+     */
+    public long getRecieveBufferPoolHits() {
+        long hits = 0;
+        for (UtpEventLoop loop : loops) {
+            hits += loop.getBufferPool().getHits();
+        }
+        return hits;
+    }
+
+    /**
+     * @return recieve buffers that had to be allocated because a pool was empty.
+     */
+    public long getRecieveBufferPoolMisses() {
+        long misses = 0;
+        for (UtpEventLoop loop : loops) {
+            misses += loop.getBufferPool().getMisses();
+        }
+        return misses;
+    }
+
+    /**
+     * Stops all loops. Sockets still registered are not closed.
+     */
+    public void shutdown() {
+        for (UtpEventLoop loop : loops) {
+            loop.graceFullInterrupt();
+        }
+    }
+}
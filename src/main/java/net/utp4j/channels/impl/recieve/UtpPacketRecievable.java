@@ -13,4 +13,16 @@ public interface UtpPacketRecievable {
      */
     void recievePacket(DatagramPacket packet);
 
+    /**
+     * Recieve a packet that lives in a pooled buffer. The reciever owns the reference and
+     * must release it, by default right after the packet was handled.
+     */
+    default void recievePacket(PooledDatagram datagram) {
+        try {
+            recievePacket(datagram.packet());
+        } finally {
+            datagram.release();
+        }
+    }
+
 }
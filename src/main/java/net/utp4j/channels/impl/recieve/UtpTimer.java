@@ -0,0 +1,91 @@
+package net.utp4j.channels.impl.recieve;
+
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+
+/**
+ * Timer whose task runs on the {@link UtpEventLoop} it was created on, see {@link UtpEventLoop#newTimer(Runnable)}.
+ * A timer is allocated once, e.g. one retransmission timer per connection, and then armed, re-armed
+ * and cancelled from any thread in constant time and without allocating.
+ */
+public final class UtpTimer {
+
+    private static final VarHandle DEADLINE;
+    private static final VarHandle QUEUED;
+
+    static {
+        try {
+            MethodHandles.Lookup lookup = MethodHandles.lookup();
+            DEADLINE = lookup.findVarHandle(UtpTimer.class, "deadline", long.class);
+            QUEUED = lookup.findVarHandle(UtpTimer.class, "queued", int.class);
+        } catch (ReflectiveOperationException exp) {
+            throw new ExceptionInInitializerError(exp);
+        }
+    }
+
+    private final UtpTimerWheel wheel;
+    final Runnable task;
+
+    /* on the clock of the wheel, 0 while not armed */
+    volatile long deadline;
+    /* 1 while on the handoff stack of the wheel */
+    private volatile int queued;
+
+    /* links owned by the loop thread */
+    UtpTimer next;
+    UtpTimer previous;
+    int slot = -1;
+    UtpTimer nextQueued;
+
+    UtpTimer(UtpTimerWheel wheel, Runnable task) {
+        this.wheel = wheel;
+        this.task = task;
+    }
+
+    /**
+     * Arms the timer, replacing the deadline it was armed with before.
+     * Moving the deadline further away does not wake up the loop, the wheel picks up the new
+     * deadline once it reaches the old one.
+     *
+     * @param delayMicros from now.
+     */
+    public void schedule(long delayMicros) {
+        long newDeadline = Math.max(wheel.now() + Math.max(delayMicros, 0), 1);
+        while (true) {
+            long current = deadline;
+            if (current != 0 && newDeadline >= current) {
+                if (DEADLINE.compareAndSet(this, current, newDeadline)) {
+                    return;
+                }
+            } else if (DEADLINE.compareAndSet(this, current, newDeadline)) {
+                wheel.enqueue(this);
+                return;
+            }
+        }
+    }
+
+    /**
+     * Disarms the timer. The wheel drops it once it comes across it.
+     * A task that already started is not stopped.
+     */
+    public void cancel() {
+        deadline = 0;
+    }
+
+    public boolean isArmed() {
+        return deadline != 0;
+    }
+
+    /* claims the expiry, fails if the timer was re-armed or cancelled meanwhile */
+    boolean expire(long expectedDeadline) {
+        return DEADLINE.compareAndSet(this, expectedDeadline, 0L);
+    }
+
+    boolean markQueued() {
+        return QUEUED.compareAndSet(this, 0, 1);
+    }
+
+    void clearQueued() {
+        queued = 0;
+    }
+}
@@ -0,0 +1,232 @@
+package net.utp4j.channels.impl.recieve;
+
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.LongSupplier;
+
+/**
+ * Hashed timer wheel driven by one {@link UtpEventLoop}. Every slot covers one tick and holds an
+ * intrusive list of the timers due in it, timers further away than one turn stay in their slot and
+ * are skipped until their turn comes. Linking, unlinking and finding the next due slot are constant time.
+ * <p>
+ * Only the loop thread touches the slots. Other threads hand timers over through a lock free stack
+ * that is linked through the timers themselves, so arming a timer from the reader or writer
+ * does not allocate either.
+ */
+final class UtpTimerWheel {
+
+    private final UtpTimer[] slots;
+    /* one bit per non empty slot */
+    private final long[] occupied;
+    private final int mask;
+    private final long tickMicros;
+    private final LongSupplier clock;
+    private final AtomicReference<UtpTimer> handoff = new AtomicReference<>();
+    private final Runnable wakeup;
+
+    /* first tick not yet expired */
+    private long nextTick;
+    private int size;
+
+    /**
+     * @param wheelSize  number of slots, rounded up to a power of two of at least 64.
+     * @param tickMicros resolution, timers fire on the first tick at or after their deadline.
+     * @param wakeup     wakes up the loop thread when another thread armed a timer.
+     */
+    UtpTimerWheel(int wheelSize, long tickMicros, Runnable wakeup) {
+        this(wheelSize, tickMicros, wakeup, monotonicMicros());
+    }
+
+    UtpTimerWheel(int wheelSize, long tickMicros, Runnable wakeup, LongSupplier clock) {
+        this.clock = clock;
+        int slotCount = Math.max(64, Integer.highestOneBit(Math.max(wheelSize, 1) * 2 - 1));
+        this.slots = new UtpTimer[slotCount];
+        this.occupied = new long[slotCount / 64];
+        this.mask = slotCount - 1;
+        this.tickMicros = Math.max(tickMicros, 1);
+        this.wakeup = wakeup;
+        this.nextTick = now() / this.tickMicros;
+    }
+
+    UtpTimer newTimer(Runnable task) {
+        return new UtpTimer(this, task);
+    }
+
+    /**
+     * @return micro seconds on the clock of this wheel.
+     */
+    long now() {
+        return clock.getAsLong();
+    }
+
+    private static LongSupplier monotonicMicros() {
+        long startNanos = System.nanoTime();
+        return () -> (System.nanoTime() - startNanos) / 1000;
+    }
+
+    /* any thread */
+    void enqueue(UtpTimer timer) {
+        if (!timer.markQueued()) {
+            return;
+        }
+        UtpTimer head;
+        do {
+            head = handoff.get();
+            timer.nextQueued = head;
+        } while (!handoff.compareAndSet(head, timer));
+        wakeup.run();
+    }
+
+    /**
+     * Runs the tasks of all timers that are due. Loop thread only.
+     */
+    void expire() {
+        drainHandoff();
+        long currentTick = now() / tickMicros;
+        while (size > 0 && nextTick <= currentTick) {
+            long tick = nextOccupiedTick();
+            if (tick > currentTick) {
+                break;
+            }
+            expireSlot((int) (tick & mask), tick);
+            nextTick = tick + 1;
+        }
+        if (nextTick <= currentTick) {
+            nextTick = currentTick + 1;
+        }
+    }
+
+    /**
+     * Loop thread only.
+     *
+     * @return micro seconds until the next slot holding timers is due, 0 if due now, -1 if no timer is armed.
+     */
+    long timeUntilNextTick() {
+        drainHandoff();
+        if (size == 0) {
+            return -1;
+        }
+        return Math.max(0, nextOccupiedTick() * tickMicros - now());
+    }
+
+    /**
+     * @return number of timers linked into the wheel, including cancelled ones not yet dropped.
+     */
+    int size() {
+        return size;
+    }
+
+    private void drainHandoff() {
+        UtpTimer timer = handoff.getAndSet(null);
+        while (timer != null) {
+            UtpTimer next = timer.nextQueued;
+            timer.nextQueued = null;
+            timer.clearQueued();
+            long deadline = timer.deadline;
+            if (deadline == 0) {
+                unlink(timer);
+            } else {
+                link(timer, deadline);
+            }
+            timer = next;
+        }
+    }
+
+    private void expireSlot(int slot, long tick) {
+        UtpTimer timer = slots[slot];
+        while (timer != null) {
+            UtpTimer next = timer.next;
+            expireTimer(timer, tick, timer.deadline);
+            timer = next;
+        }
+    }
+
+    /* deadline is what the loop read, the timer may have been re-armed or cancelled since */
+    void expireTimer(UtpTimer timer, long tick, long deadline) {
+        while (true) {
+            if (deadline == 0) {
+                unlink(timer);
+                return;
+            }
+            if (tickOf(deadline) > tick) {
+                // a later turn, or re-armed to a later deadline without handing it over
+                link(timer, deadline);
+                return;
+            }
+            if (timer.expire(deadline)) {
+                unlink(timer);
+                run(timer);
+                return;
+            }
+            // re-armed or cancelled meanwhile. a later deadline is not handed over again, so look at it here
+            deadline = timer.deadline;
+        }
+    }
+
+    private void run(UtpTimer timer) {
+        try {
+            timer.task.run();
+        } catch (RuntimeException exp) {
+            exp.printStackTrace();
+        }
+    }
+
+    private long tickOf(long deadline) {
+        return (deadline + tickMicros - 1) / tickMicros;
+    }
+
+    private void link(UtpTimer timer, long deadline) {
+        long tick = Math.max(tickOf(deadline), nextTick);
+        int slot = (int) (tick & mask);
+        if (timer.slot == slot) {
+            return;
+        }
+        unlink(timer);
+        UtpTimer head = slots[slot];
+        timer.next = head;
+        if (head != null) {
+            head.previous = timer;
+        }
+        slots[slot] = timer;
+        timer.slot = slot;
+        occupied[slot >>> 6] |= 1L << slot;
+        size++;
+    }
+
+    private void unlink(UtpTimer timer) {
+        int slot = timer.slot;
+        if (slot < 0) {
+            return;
+        }
+        if (timer.previous != null) {
+            timer.previous.next = timer.next;
+        } else {
+            slots[slot] = timer.next;
+        }
+        if (timer.next != null) {
+            timer.next.previous = timer.previous;
+        }
+        timer.next = null;
+        timer.previous = null;
+        timer.slot = -1;
+        if (slots[slot] == null) {
+            occupied[slot >>> 6] &= ~(1L << slot);
+        }
+        size--;
+    }
+
+    /* first tick at or after nextTick whose slot holds timers, only valid while size > 0 */
+    private long nextOccupiedTick() {
+        int start = (int) (nextTick & mask);
+        int word = start >>> 6;
+        long bits = occupied[word] & (-1L << start);
+        for (int i = 0; i <= occupied.length; i++) {
+            if (bits != 0) {
+                int slot = (word << 6) + Long.numberOfTrailingZeros(bits);
+                return nextTick + ((slot - start) & mask);
+            }
+            word = (word + 1) % occupied.length;
+            bits = occupied[word];
+        }
+        return nextTick;
+    }
+}
@@ -30,14 +30,14 @@ public class UtpWriteFutureImpl extends UtpWriteFuture {
         super();
     }
 
-    public void finished(IOException exp, int bytesWritten) {
+    public void finished(IOException exp, long bytesWritten) {
         this.setBytesSend(bytesWritten);
         this.exception = exp;
         isDone = true;
         semaphore.release();
     }
 
-    public void setBytesSend(int position) {
+    public void setBytesSend(long position) {
         bytesWritten = position;
     }
 
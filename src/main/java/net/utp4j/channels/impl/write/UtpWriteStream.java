@@ -0,0 +1,299 @@
+package net.utp4j.channels.impl.write;
+
+import net.utp4j.channels.futures.UtpWriteFuture;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.WritableByteChannel;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Outgoing data of a connection as a stream, see {@link net.utp4j.channels.UtpSocketChannel#writeStream()}.
+ * Writes copy into a ring buffer of fixed size, the {@link UtpWritingRunnable} packs packets straight
+ * out of the ring. The bytes stay there until they are acked, a resend takes them from the ring again,
+ * so the ring bounds the data in flight.
+ * <p>
+ * A blocking write waits until all of its bytes are taken. A non blocking write takes what fits and
+ * returns the count, once the writer freed half the ring afterwards the writable listener is called.
+ */
+public class UtpWriteStream implements WritableByteChannel {
+
+    private final byte[] ring;
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition writable = lock.newCondition();
+    private final UtpWriteFuture future;
+    /* handed to the writer, positioned over the next bytes to send */
+    private final ByteBuffer view;
+    /* the whole ring, never moved, packets read their payload from it until they are acked */
+    private final ByteBuffer whole;
+
+    /* guarded by lock */
+    private int head;
+    private int count;
+    /* bytes after head that were packed into packets and wait for their ack */
+    private int sent;
+    private boolean closed;
+    private IOException exception;
+    private boolean blocking = true;
+    /* a non blocking write was cut short, the listener is waiting for space */
+    private boolean writeCutShort;
+
+    private volatile Runnable writableListener;
+    private Runnable dataListener;
+
+    /**
+     * @param capacity size of the ring in bytes.
+     * @param future   done once the stream was closed and everything was acked.
+     */
+    public UtpWriteStream(int capacity, UtpWriteFuture future) {
+        this.ring = new byte[capacity];
+        this.view = ByteBuffer.wrap(ring);
+        this.whole = ByteBuffer.wrap(ring);
+        this.future = future;
+    }
+
+    /**
+     * Takes the bytes of src. A blocking stream waits until all of them fit into the send buffer.
+     *
+     * @return bytes taken, less than {@code src.remaining()} or 0 if the stream is non blocking and full.
+     * @throws IOException if the stream was closed or the connection failed.
+     */
+    @Override
+    public int write(ByteBuffer src) throws IOException {
+        int written = 0;
+        boolean wakeWriter = false;
+        lock.lock();
+        try {
+            while (src.hasRemaining()) {
+                checkWritable();
+                int free = ring.length - count;
+                if (free == 0) {
+                    if (!blocking) {
+                        writeCutShort = true;
+                        break;
+                    }
+                    if (wakeWriter) {
+                        notifyData();
+                        wakeWriter = false;
+                    }
+                    writable.await();
+                    continue;
+                }
+                // the writer only waits for new bytes once it sent all of them
+                wakeWriter |= count == sent;
+                int length = Math.min(free, src.remaining());
+                int tail = (head + count) % ring.length;
+                int firstPart = Math.min(length, ring.length - tail);
+                src.get(ring, tail, firstPart);
+                src.get(ring, 0, length - firstPart);
+                count += length;
+                written += length;
+            }
+        } catch (InterruptedException exp) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException();
+        } finally {
+            lock.unlock();
+        }
+        if (wakeWriter) {
+            notifyData();
+        }
+        return written;
+    }
+
+    private void checkWritable() throws IOException {
+        if (exception != null) {
+            throw exception;
+        }
+        if (closed) {
+            throw new ClosedChannelException();
+        }
+    }
+
+    /**
+     * @param block true if {@link #write(ByteBuffer)} should wait for space, which is the default.
+     */
+    public void configureBlocking(boolean block) {
+        lock.lock();
+        try {
+            this.blocking = block;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public boolean isBlocking() {
+        return blocking;
+    }
+
+    /**
+     * @param listener called once space is free again after a non blocking write was cut short.
+     *                 Runs on the thread that handles acks and must not block.
+     */
+    public void setWritableListener(Runnable listener) {
+        this.writableListener = listener;
+    }
+
+    /**
+     * @return bytes that can be written without blocking.
+     */
+    public int freeSpace() {
+        lock.lock();
+        try {
+            return ring.length - count;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public boolean isOpen() {
+        lock.lock();
+        try {
+            return !closed && exception == null;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Ends the stream. The data written so far is still sent, followed by a FIN, see {@link #getWriteFuture()}.
+     */
+    @Override
+    public void close() {
+        lock.lock();
+        try {
+            if (closed) {
+                return;
+            }
+            closed = true;
+            writable.signalAll();
+        } finally {
+            lock.unlock();
+        }
+        notifyData();
+    }
+
+    /**
+     * @return done once the stream was closed and every byte and the FIN were acked, or the connection failed.
+     */
+    public UtpWriteFuture getWriteFuture() {
+        return future;
+    }
+
+    void setDataListener(Runnable listener) {
+        this.dataListener = listener;
+    }
+
+    private void notifyData() {
+        Runnable listener = dataListener;
+        if (listener != null) {
+            listener.run();
+        }
+    }
+
+    /**
+     * @return the next bytes to send in one piece, the buffer is empty if there are none.
+     * Its position is an index into the ring. Packed bytes are handed on with {@link #sent(int)}
+     * and stay in the ring until they are {@link #consumed(int)}.
+     */
+    ByteBuffer nextBytes() {
+        lock.lock();
+        try {
+            int start = (head + sent) % ring.length;
+            int length = Math.min(count - sent, ring.length - start);
+            view.limit(start + length);
+            view.position(start);
+            return view;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * @return the whole ring, the positions of {@link #nextBytes()} are indexes into it.
+     */
+    ByteBuffer ring() {
+        return whole;
+    }
+
+    /**
+     * The next bytes were packed into packets, {@link #nextBytes()} moves past them.
+     */
+    void sent(int bytes) {
+        lock.lock();
+        try {
+            sent += bytes;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Frees the first bytes of the ring, they were sent and acked.
+     */
+    void consumed(int bytes) {
+        Runnable listener = null;
+        lock.lock();
+        try {
+            head = (head + bytes) % ring.length;
+            count -= bytes;
+            sent -= bytes;
+            writable.signalAll();
+            if (writeCutShort && ring.length - count >= ring.length / 2) {
+                writeCutShort = false;
+                listener = writableListener;
+            }
+        } finally {
+            lock.unlock();
+        }
+        if (listener != null) {
+            listener.run();
+        }
+    }
+
+    /**
+     * @return bytes written but not handed on with {@link #sent(int)} yet.
+     */
+    int unsent() {
+        lock.lock();
+        try {
+            return count - sent;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * @return true if the stream was closed and every byte was sent.
+     */
+    boolean isDrained() {
+        lock.lock();
+        try {
+            return closed && count == sent;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * The writer stopped, later writes fail.
+     *
+     * @param exp reason, or null if the stream ended normally.
+     */
+    void finished(IOException exp) {
+        lock.lock();
+        try {
+            if (exp != null) {
+                exception = exp;
+            }
+            closed = true;
+            writable.signalAll();
+        } finally {
+            lock.unlock();
+        }
+    }
+}
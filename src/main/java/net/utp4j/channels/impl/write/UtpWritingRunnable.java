@@ -17,6 +17,8 @@ package net.utp4j.channels.impl.write;
 import net.utp4j.channels.impl.UtpSocketChannelImpl;
 import net.utp4j.channels.impl.UtpTimestampedPacketDTO;
 import net.utp4j.channels.impl.alg.UtpAlgorithm;
+import net.utp4j.channels.impl.recieve.HandoffQueue;
+import net.utp4j.channels.impl.recieve.UtpTimer;
 import net.utp4j.data.MicroSecondsTimeStamp;
 import net.utp4j.data.UtpPacket;
 import net.utp4j.data.bytes.UnsignedTypesUtil;
@@ -26,9 +28,12 @@ import org.slf4j.LoggerFactory;
 import java.io.IOException;
 import java.net.DatagramPacket;
 import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
 import java.util.Queue;
-import java.util.concurrent.BlockingQueue;
-import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static net.utp4j.channels.impl.UtpSocketChannelImpl.WAKE_UP;
 
 /**
  * Handles the writing job of a channel...
@@ -37,49 +42,120 @@ import java.util.concurrent.TimeUnit;
  */
 public class UtpWritingRunnable extends Thread implements Runnable {
 
-    private final ByteBuffer buffer;
+    private ByteBuffer buffer;
+    /* null unless this writer sends a stream, buffer is then a view into its ring */
+    private final UtpWriteStream stream;
+    /* position of the view when it was taken from the stream */
+    private int viewStart;
+    private long bytesSend;
+    /* payload bytes acked when they were last freed in the stream */
+    private long bytesAcked;
+    /* null unless this writer sends a file, buffer is then the part of it mapped last */
+    private FileChannel file;
+    private long fileStart;
+    private long fileEnd;
+    /* end of the mapped part */
+    private long mappedUpTo;
     private volatile boolean graceFullInterrupt;
     private final UtpSocketChannelImpl channel;
-    private boolean isRunning = false;
+    /* read by the event loop to pick between applying an ack inline and queueing it */
+    private volatile boolean isRunning = false;
+    private boolean finSend = false;
     private final UtpAlgorithm algorithm;
     private IOException possibleException = null;
     private final MicroSecondsTimeStamp timeStamper;
     private final UtpWriteFutureImpl future;
+    /* wakes us up when the next resend or burst is due and no ack came in meanwhile */
+    private final UtpTimer wakeUpTimer;
+    /* acks taken from the queue at once, handled as one batch */
+    private final ArrayList<UtpTimestampedPacketDTO> acks = new ArrayList<UtpTimestampedPacketDTO>();
+    /*
+     * only the thread that set this touches the algorithm and the bytes acked. that is this writer,
+     * except while it waits, then the event loop may apply acks inline, see ackRecievedInline.
+     * acks are taken from the queue only while this is set, and none are applied inline while
+     * the queue holds any, so acks are always applied in the order they came in.
+     */
+    private final AtomicBoolean algorithmOwned = new AtomicBoolean(true);
+    private final boolean inlineAcks;
 
     private final static Logger log = LoggerFactory.getLogger(UtpWritingRunnable.class);
 
     public UtpWritingRunnable(UtpSocketChannelImpl channel, ByteBuffer buffer,
                               MicroSecondsTimeStamp timeStamper, UtpWriteFutureImpl future) {
+        this(channel, buffer, timeStamper, future,
+                new UtpAlgorithm(channel.getConfiguration(), timeStamper, channel.getRemoteAdress()));
+    }
+
+    /**
+     * @param algorithm congestion and rtt state of the connection, carried over between writes.
+     */
+    public UtpWritingRunnable(UtpSocketChannelImpl channel, ByteBuffer buffer, MicroSecondsTimeStamp timeStamper,
+                              UtpWriteFutureImpl future, UtpAlgorithm algorithm) {
+        this(channel, buffer, null, timeStamper, future, algorithm);
+    }
+
+    /**
+     * Sends everything written to the stream until it is closed, followed by a FIN.
+     */
+    public UtpWritingRunnable(UtpSocketChannelImpl channel, UtpWriteStream stream, MicroSecondsTimeStamp timeStamper,
+                              UtpWriteFutureImpl future, UtpAlgorithm algorithm) {
+        this(channel, stream.nextBytes(), stream, timeStamper, future, algorithm);
+        viewStart = buffer.position();
+    }
+
+    /**
+     * Sends count bytes of the file from position on, followed by a FIN.
+     */
+    public UtpWritingRunnable(UtpSocketChannelImpl channel, FileChannel file, long position, long count,
+                              MicroSecondsTimeStamp timeStamper, UtpWriteFutureImpl future, UtpAlgorithm algorithm) {
+        this(channel, ByteBuffer.allocate(0), null, timeStamper, future, algorithm);
+        this.file = file;
+        this.fileStart = position;
+        this.fileEnd = position + count;
+        this.mappedUpTo = position;
+    }
+
+    private UtpWritingRunnable(UtpSocketChannelImpl channel, ByteBuffer buffer, UtpWriteStream stream,
+                               MicroSecondsTimeStamp timeStamper, UtpWriteFutureImpl future, UtpAlgorithm algorithm) {
         setName("UtpWritingRunnable");
 		this.buffer = buffer;
+		this.stream = stream;
 		this.channel = channel;
 		this.timeStamper = timeStamper;
 		this.future = future;
-		algorithm = new UtpAlgorithm(timeStamper, channel.getRemoteAdress());
+		this.algorithm = algorithm;
+		this.inlineAcks = channel.getConfiguration().isInlineAcks();
+		HandoffQueue<UtpTimestampedPacketDTO> ackQueue = channel.getAckQueue();
+		wakeUpTimer = channel.newTimer(() -> ackQueue.wakeUp());
+		if (stream != null) {
+			stream.setDataListener(() -> ackQueue.wakeUp());
+		}
 	}
 
 
     @Override
     public void run() {
-        algorithm.initiateAckPosition(channel.getSequenceNumber());
         algorithm.setTimeStamper(timeStamper);
-        algorithm.setByteBuffer(buffer);
+        algorithm.startWriting(buffer, channel.getSequenceNumber());
+        bytesAcked = algorithm.getPayloadBytesAcked();
         isRunning = true;
         IOException possibleExp = null;
         boolean exceptionOccured = false;
-        buffer.flip();
+        if (stream == null && file == null) {
+            buffer.flip();
+        }
         int durchgang = 0;
         while (continueSending()) {
             try {
+                takeMoreData();
                 if (!checkForAcks()) {
                     graceFullInterrupt = true;
                     break;
                 }
 
-                Queue<DatagramPacket> packetsToResend = algorithm.getPacketsToResend();
-                for (DatagramPacket datagramPacket : packetsToResend) {
-                    datagramPacket.setSocketAddress(channel.getRemoteAdress());
-                    channel.sendPacket(datagramPacket);
+                Queue<UtpTimestampedPacketDTO> packetsToResend = algorithm.getTimestampedPacketsToResend();
+                for (UtpTimestampedPacketDTO packet : packetsToResend) {
+                    resend(packet);
                 }
 
             } catch (IOException exp) {
@@ -101,7 +177,10 @@ public class UtpWritingRunnable extends Thread implements Runnable {
 //			}
             while (algorithm.canSendNextPacket() && !exceptionOccured && !graceFullInterrupt && buffer.hasRemaining()) {
                 try {
-                    channel.sendPacket(getNextPacket());
+                    sendNextPacket();
+                    if (!buffer.hasRemaining()) {
+                        takeMoreData();
+                    }
                 } catch (IOException exp) {
                     exp.printStackTrace();
                     graceFullInterrupt = true;
@@ -110,20 +189,20 @@ public class UtpWritingRunnable extends Thread implements Runnable {
                     break;
                 }
             }
-//			if (!buffer.hasRemaining() && !finSend) {
-//				UtpPacket fin = channel.getFinPacket();
-//				log.debug("Sending FIN");
-//				try {
-//					channel.finalizeConnection(fin);
-//					algorithm.markFinOnfly(fin);
-//				} catch (IOException exp) {
-//					exp.printStackTrace();
-//					graceFullInterrupt = true;
-//					possibleExp = exp;
-//					exceptionOccured = true;
-//				}
-//				finSend = true;
-//			}
+            if (!buffer.hasRemaining() && isEndOfData() && !finSend && !exceptionOccured && !graceFullInterrupt) {
+                UtpPacket fin = channel.getFinPacket();
+                log.debug("Sending FIN");
+                try {
+                    channel.sendPacket(fin);
+                    algorithm.markFinOnfly(fin);
+                } catch (IOException exp) {
+                    exp.printStackTrace();
+                    graceFullInterrupt = true;
+                    possibleExp = exp;
+                    exceptionOccured = true;
+                }
+                finSend = true;
+            }
             uptadeFuture();
             durchgang++;
             if (durchgang % 1000 == 0) {
@@ -135,20 +214,89 @@ public class UtpWritingRunnable extends Thread implements Runnable {
             exceptionOccured(possibleExp);
         }
         isRunning = false;
-        algorithm.end(buffer.position(), !exceptionOccured);
-        future.finished(possibleExp, buffer.position());
+        wakeUpTimer.cancel();
+        takeFromStream();
+        algorithm.end(getBytesSend(), !exceptionOccured);
+        if (stream != null) {
+            stream.finished(possibleExp);
+        }
+        future.finished(possibleExp, getBytesSend());
         log.debug("WRITER OUT");
         channel.removeWriter();
     }
 
     private void uptadeFuture() {
-        future.setBytesSend(buffer.position());
+        future.setBytesSend(getBytesSend());
+
+    }
+
+    private void takeMoreData() throws IOException {
+        if (file != null) {
+            mapNextPart();
+        } else {
+            takeFromStream();
+        }
+    }
+
+    /* the packets sent from earlier parts keep their mapping until they are acked */
+    private void mapNextPart() throws IOException {
+        if (buffer.hasRemaining() || mappedUpTo >= fileEnd) {
+            return;
+        }
+        long size = Math.min(channel.getConfiguration().getTransferMapSize(), fileEnd - mappedUpTo);
+        buffer = file.map(FileChannel.MapMode.READ_ONLY, mappedUpTo, size);
+        mappedUpTo += size;
+        algorithm.setByteBuffer(buffer);
+    }
+
+    /* hands on what was packed since the last call and moves the view to the next bytes of the stream */
+    private void takeFromStream() {
+        if (stream == null) {
+            return;
+        }
+        int taken = buffer.position() - viewStart;
+        if (taken > 0) {
+            stream.sent(taken);
+            bytesSend += taken;
+        }
+        buffer = stream.nextBytes();
+        viewStart = buffer.position();
+        algorithm.setByteBuffer(buffer);
+    }
 
+    /* the buffer is used up, but the file or the stream has more bytes for the writer to take */
+    private boolean hasDataBeyondBuffer() {
+        if (buffer.hasRemaining()) {
+            return false;
+        }
+        if (file != null) {
+            return mappedUpTo < fileEnd;
+        }
+        return stream != null && stream.unsent() > buffer.position() - viewStart;
+    }
+
+    /* a stream ends when it was closed, a file or buffer with its last byte */
+    private boolean isEndOfData() {
+        if (file != null) {
+            return mappedUpTo >= fileEnd;
+        }
+        return stream == null || stream.isDrained();
+    }
+
+    private void resend(UtpTimestampedPacketDTO packet) throws IOException {
+        if (packet.payloadSource() != null) {
+            channel.sendPacket(packet.utpPacket(), packet.payloadSource(), packet.payloadOffset(),
+                    packet.payloadLength());
+        } else {
+            DatagramPacket datagramPacket = packet.dataGram();
+            datagramPacket.setSocketAddress(channel.getRemoteAdress());
+            channel.sendPacket(datagramPacket);
+        }
     }
 
 
     private boolean checkForAcks() {
-        BlockingQueue<UtpTimestampedPacketDTO> queue = channel.getDataGramQueue();
+        HandoffQueue<UtpTimestampedPacketDTO> queue = channel.getAckQueue();
         try {
             waitAndProcessAcks(queue);
         } catch (InterruptedException ie) {
@@ -157,52 +305,108 @@ public class UtpWritingRunnable extends Thread implements Runnable {
         return true;
     }
 
-    private void waitAndProcessAcks(BlockingQueue<UtpTimestampedPacketDTO> queue) throws InterruptedException {
+    private void waitAndProcessAcks(HandoffQueue<UtpTimestampedPacketDTO> queue) throws InterruptedException {
         long waitingTimeMicros = algorithm.getWaitingTimeMicroSeconds();
-        UtpTimestampedPacketDTO temp = queue.poll(waitingTimeMicros, TimeUnit.MICROSECONDS);
-        if (temp != null) {
-            algorithm.ackRecieved(temp);
-            algorithm.removeAcked();
-            if (queue.peek() != null) {
-                processAcks(queue);
+        // acks queued while we were busy go first
+        UtpTimestampedPacketDTO temp = queue.poll();
+        if (temp == null && waitingTimeMicros > 0) {
+            wakeUpTimer.schedule(waitingTimeMicros);
+            algorithmOwned.set(false);
+            try {
+                queue.await();
+            } finally {
+                // an ack may be applied inline right now
+                while (!algorithmOwned.compareAndSet(false, true)) {
+                    Thread.onSpinWait();
+                }
             }
+            temp = queue.poll();
+        }
+        if (temp != null) {
+            acks.add(temp);
+            queue.drainTo(acks);
+            processAcks();
         }
     }
 
-    private void processAcks(BlockingQueue<UtpTimestampedPacketDTO> queue) throws InterruptedException {
-        UtpTimestampedPacketDTO pair;
-        while ((pair = queue.poll()) != null) {
-            algorithm.ackRecieved(pair);
-            algorithm.removeAcked();
+    /* everything queued meanwhile is handled as one ack, acked packets are removed once */
+    private void processAcks() {
+        acks.removeIf(ack -> ack == WAKE_UP);
+        if (acks.isEmpty()) {
+            return;
+        }
+        try {
+            algorithm.acksRecieved(acks);
+        } finally {
+            for (int i = 0; i < acks.size(); i++) {
+                acks.get(i).release();
+            }
+            acks.clear();
+        }
+        algorithm.removeAcked();
+        if (stream != null) {
+            freeAcked();
         }
     }
 
-    private DatagramPacket getNextPacket() throws IOException {
-        int packetSize = algorithm.sizeOfNextPacket();
-        int remainingBytes = buffer.remaining();
-
-        if (remainingBytes < packetSize) {
-            packetSize = remainingBytes;
+    /**
+     * Applies a STATE packet on the thread that recieved it, if this writer waits for acks.
+     * The writer is only woken up if the ack lets it send, resend or finish.
+     *
+     * @param ack         the recieved packet, still in the recieve buffer.
+     * @param utpRecieved uTP time stamp when it was recieved.
+     * @return false if the writer is busy or older acks are still queued, the ack must be queued then.
+     */
+    public boolean ackRecievedInline(DatagramPacket ack, int utpRecieved) {
+        if (!inlineAcks || !algorithmOwned.compareAndSet(false, true)) {
+            return false;
         }
+        if (channel.getAckQueue().size() > 0) {
+            algorithmOwned.set(false);
+            return false;
+        }
+        boolean wakeUp;
+        try {
+            wakeUp = algorithm.ackRecievedWhileWaiting(ack.getData(), ack.getOffset(), ack.getLength(), utpRecieved)
+                    || hasDataBeyondBuffer();
+            if (stream != null) {
+                freeAcked();
+            }
+        } finally {
+            algorithmOwned.set(false);
+        }
+        if (wakeUp) {
+            channel.getAckQueue().wakeUp();
+        }
+        return true;
+    }
 
-
-        byte[] payload = new byte[packetSize];
-        buffer.get(payload);
-        UtpPacket utpPacket = channel.getNextDataPacket();
-        utpPacket.setPayload(payload);
-
-        int leftInBuffer = buffer.remaining();
-        if (leftInBuffer > UnsignedTypesUtil.MAX_UINT) {
-            leftInBuffer = (int) (UnsignedTypesUtil.MAX_UINT & 0xFFFFFFFF);
+    /* packets are removed in sequence, so the acked bytes are always the first ones of the ring */
+    private void freeAcked() {
+        long acked = algorithm.getPayloadBytesAcked();
+        if (acked > bytesAcked) {
+            stream.consumed((int) (acked - bytesAcked));
+            bytesAcked = acked;
         }
-        utpPacket.setWindowSize(leftInBuffer);
-//		log.debug("Sending Pkt: " + utpPacket.toString());
-        byte[] utpPacketBytes = utpPacket.toByteArray();
-        DatagramPacket udpPacket = new DatagramPacket(utpPacketBytes, utpPacketBytes.length, channel.getRemoteAdress());
-        algorithm.markPacketOnfly(utpPacket, udpPacket);
-        return udpPacket;
     }
 
+    /*
+     * the payload stays in the write buffer, the mapping or the ring of the stream until it is acked,
+     * a resend sends it from there again. packets are taken again once acked, so nothing is allocated per packet.
+     */
+    private void sendNextPacket() throws IOException {
+        int packetSize = Math.min(algorithm.sizeOfNextPacket(), buffer.remaining());
+        int offset = buffer.position();
+        buffer.position(offset + packetSize);
+        UtpTimestampedPacketDTO packet = algorithm.takePacketToSend();
+        packet.setPayload(stream != null ? stream.ring() : buffer, offset, packetSize);
+        UtpPacket utpPacket = packet.utpPacket();
+        channel.fillNextDataPacket(utpPacket);
+        long left = file != null ? fileEnd - fileStart - getBytesSend() : buffer.remaining();
+        utpPacket.setWindowSize((int) Math.min(left, UnsignedTypesUtil.MAX_UINT));
+        algorithm.markPacketOnfly(packet);
+        channel.sendPacket(utpPacket, packet.payloadSource(), packet.payloadOffset(), packetSize);
+    }
 
     private void exceptionOccured(IOException exp) {
         possibleException = exp;
@@ -221,18 +425,20 @@ public class UtpWritingRunnable extends Thread implements Runnable {
     }
 
     private boolean allPacketsAckedSendAndAcked() {
-
-//		return finSend && algorithm.areAllPacketsAcked() && !buffer.hasRemaining();
-        return algorithm.areAllPacketsAcked() && !buffer.hasRemaining();
+        return finSend && algorithm.areAllPacketsAcked() && !buffer.hasRemaining();
     }
 
 
     public void graceFullInterrupt() {
         graceFullInterrupt = true;
+        channel.getAckQueue().wakeUp();
     }
 
-    public int getBytesSend() {
-        return buffer.position();
+    public long getBytesSend() {
+        if (file != null) {
+            return mappedUpTo - buffer.remaining() - fileStart;
+        }
+        return stream == null ? buffer.position() : bytesSend;
     }
 
     public boolean isRunning() {
@@ -16,6 +16,7 @@ package net.utp4j.data;
 
 import net.utp4j.data.bytes.UnsignedTypesUtil;
 
+import java.nio.ByteBuffer;
 import java.util.ArrayList;
 
 import static net.utp4j.data.UtpPacketUtils.DEF_HEADER_LENGTH;
@@ -147,6 +148,41 @@ public class UtpPacket {
 
     }
 
+    /**
+     * Writes header and extensions into dst at index, without the payload and without allocating.
+     * Multi byte fields are written big endian, dst must keep its default byte order.
+     *
+     * @return bytes written, see {@link #getHeaderLength()}.
+     */
+    public int writeHeader(ByteBuffer dst, int index) {
+        dst.put(index, typeVersion);
+        dst.put(index + 1, firstExtension);
+        dst.putShort(index + 2, connectionId);
+        dst.putInt(index + 4, timestamp);
+        dst.putInt(index + 8, timestampDifference);
+        dst.putInt(index + 12, windowSize);
+        dst.putShort(index + 16, sequenceNumber);
+        dst.putShort(index + 18, ackNumber);
+        int offset = index + DEF_HEADER_LENGTH;
+        if (extensions != null) {
+            for (UtpHeaderExtension extension : extensions) {
+                byte[] bitMask = extension.getBitMask();
+                dst.put(offset, extension.getNextExtension());
+                dst.put(offset + 1, (byte) bitMask.length);
+                dst.put(offset + 2, bitMask);
+                offset += 2 + bitMask.length;
+            }
+        }
+        return offset - index;
+    }
+
+    /**
+     * @return length of the header with its extensions.
+     */
+    public int getHeaderLength() {
+        return DEF_HEADER_LENGTH + getTotalLengthOfExtensions();
+    }
+
     private byte[] getExtensionlessByteArray() {
         return new byte[]{typeVersion, firstExtension, (byte) (connectionId >> 8), (byte) (connectionId),
                 (byte) (timestamp >> 24), (byte) (timestamp >> 16), (byte) (timestamp >> 8), (byte) (timestamp),
@@ -195,55 +231,58 @@ public class UtpPacket {
             return;
         }
 
-        typeVersion = array[0];
-        firstExtension = array[1];
-        connectionId = UnsignedTypesUtil.bytesToUshort(array[2], array[3]);
-        timestamp = UnsignedTypesUtil.bytesToUint(array[4], array[5], array[6], array[7]);
-        timestampDifference = UnsignedTypesUtil.bytesToUint(array[8], array[9], array[10], array[11]);
-        windowSize = UnsignedTypesUtil.bytesToUint(array[12], array[13], array[14], array[15]);
-        sequenceNumber = UnsignedTypesUtil.bytesToUshort(array[16], array[17]);
-        ackNumber = UnsignedTypesUtil.bytesToUshort(array[18], array[19]);
+        typeVersion = array[offset];
+        firstExtension = array[offset + 1];
+        connectionId = UnsignedTypesUtil.bytesToUshort(array[offset + 2], array[offset + 3]);
+        timestamp = UnsignedTypesUtil.bytesToUint(array[offset + 4], array[offset + 5], array[offset + 6], array[offset + 7]);
+        timestampDifference = UnsignedTypesUtil.bytesToUint(array[offset + 8], array[offset + 9], array[offset + 10], array[offset + 11]);
+        windowSize = UnsignedTypesUtil.bytesToUint(array[offset + 12], array[offset + 13], array[offset + 14], array[offset + 15]);
+        sequenceNumber = UnsignedTypesUtil.bytesToUshort(array[offset + 16], array[offset + 17]);
+        ackNumber = UnsignedTypesUtil.bytesToUshort(array[offset + 18], array[offset + 19]);
 
+        int end = offset + length;
         int utpOffset = offset + UtpPacketUtils.DEF_HEADER_LENGTH;
         if (firstExtension != 0) {
-            utpOffset += loadExtensions(array);
+            utpOffset = loadExtensions(array, utpOffset, end);
         }
 
-        payload = new byte[length - utpOffset];
-        System.arraycopy(array, utpOffset, payload, 0, length - utpOffset);
+        payload = new byte[end - utpOffset];
+        System.arraycopy(array, utpOffset, payload, 0, end - utpOffset);
 
     }
 
 
-    private int loadExtensions(byte[] array) {
-        byte extensionType = array[1];
-        int extensionStartIndex = 20;
-        int totalLength = 0;
+    /*
+     * reads the extension chain, each extension names the type of the next one.
+     * the array can be larger than the packet, nothing past end is read.
+     * returns the index where the payload starts.
+     */
+    private int loadExtensions(byte[] array, int extensionStartIndex, int end) {
+        byte extensionType = firstExtension;
 
         ArrayList<UtpHeaderExtension> list = new ArrayList<UtpHeaderExtension>();
-        UtpHeaderExtension extension = UtpHeaderExtension.resolve(extensionType);
-
-        while (extension != null) {
+        while (extensionType != 0 && extensionStartIndex + 2 <= end) {
+            byte nextExtension = array[extensionStartIndex];
             int extensionLength = array[extensionStartIndex + 1] & 0xFF;
-            byte[] bitmask = new byte[extensionLength];
-            System.arraycopy(array, extensionStartIndex + 2, bitmask, 0, extensionLength);
-            extension.setNextExtension(array[extensionStartIndex]);
-            extension.setBitMask(bitmask);
-            list.add(extension);
-            totalLength = extensionLength + 2;
-            int nextPossibleExtensionIndex = extensionLength + 2 + extensionStartIndex;
-            // packet is enough big
-            if (array.length > nextPossibleExtensionIndex) {
-                extension = UtpHeaderExtension.resolve(array[nextPossibleExtensionIndex]);
-                extensionStartIndex = nextPossibleExtensionIndex;
-            } else { // packet end reached.
-                extension = null;
+            if (extensionStartIndex + 2 + extensionLength > end) {
+                break;
+            }
+            UtpHeaderExtension extension = UtpHeaderExtension.resolve(extensionType);
+            // unknown extensions are skipped
+            if (extension != null) {
+                byte[] bitmask = new byte[extensionLength];
+                System.arraycopy(array, extensionStartIndex + 2, bitmask, 0, extensionLength);
+                extension.setNextExtension(nextExtension);
+                extension.setBitMask(bitmask);
+                list.add(extension);
             }
+            extensionStartIndex += extensionLength + 2;
+            extensionType = nextExtension;
         }
 
         UtpHeaderExtension[] extensions = list.toArray(new UtpHeaderExtension[list.size()]);
         setExtensions(extensions);
-        return totalLength;
+        return extensionStartIndex;
     }
 
 
@@ -14,6 +14,7 @@
  */
 package net.utp4j.data;
 
+import net.utp4j.data.bytes.UnsignedTypesUtil;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -45,6 +46,13 @@ public class UtpPacketUtils {
     public static final int MAX_UDP_HEADER_LENGTH = 48;
     public static final int DEF_HEADER_LENGTH = 20;
 
+    public static final int CONNECTION_ID_INDEX = 2;
+    public static final int TIMESTAMP_INDEX = 4;
+    public static final int TIMESTAMP_DIFFERENCE_INDEX = 8;
+    public static final int WINDOW_SIZE_INDEX = 12;
+    public static final int SEQUENCE_NUMBER_INDEX = 16;
+    public static final int ACK_NUMBER_INDEX = 18;
+
     private static final Logger log = LoggerFactory.getLogger(UtpPacketUtils.class);
 
     public static byte[] joinByteArray(byte[] array1, byte[] array2) {
@@ -55,17 +63,12 @@ public class UtpPacketUtils {
 
         int totalLength = length1 + length2;
         byte[] returnArray = new byte[totalLength];
-
-        int i = 0;
-        for (; i < length1; i++) {
-            returnArray[i] = array1[i];
+        if (length1 > 0) {
+            System.arraycopy(array1, 0, returnArray, 0, length1);
         }
-
-        for (int j = 0; j < length2; j++) {
-            returnArray[i] = array2[j];
-            i++;
+        if (length2 > 0) {
+            System.arraycopy(array2, 0, returnArray, length1, length2);
         }
-
         return returnArray;
 
     }
@@ -98,6 +101,60 @@ public class UtpPacketUtils {
         return pkt;
     }
 
+    /**
+     * Reads a 16 bit header field where the packet was recieved into.
+     *
+     * @param data  the recieved bytes
+     * @param index index of the field, e.g. offset + {@link #ACK_NUMBER_INDEX}
+     * @return the field as unsigned value.
+     */
+    public static int readUshort(byte[] data, int index) {
+        return UnsignedTypesUtil.bytesToUshort(data[index], data[index + 1]) & 0xFFFF;
+    }
+
+    /**
+     * Reads a 32 bit header field where the packet was recieved into.
+     */
+    public static int readUint(byte[] data, int index) {
+        return UnsignedTypesUtil.bytesToUint(data[index], data[index + 1], data[index + 2], data[index + 3]);
+    }
+
+    /**
+     * Overwrites a 32 bit header field of an encoded packet, big endian.
+     */
+    public static void writeUint(byte[] data, int index, int value) {
+        data[index] = (byte) (value >>> 24);
+        data[index + 1] = (byte) (value >>> 16);
+        data[index + 2] = (byte) (value >>> 8);
+        data[index + 3] = (byte) value;
+    }
+
+    /**
+     * Walks the extension chain of a recieved packet without extracting it.
+     *
+     * @param data   the recieved bytes
+     * @param offset start of the packet
+     * @param length length of the packet
+     * @return index of the selective ack bitmask, its length is the byte before it. -1 if there is none.
+     */
+    public static int findSelectiveAck(byte[] data, int offset, int length) {
+        int end = offset + length;
+        byte extensionType = data[offset + 1];
+        int index = offset + DEF_HEADER_LENGTH;
+        while (extensionType != NO_EXTENSION && index + 2 <= end) {
+            int extensionLength = data[index + 1] & 0xFF;
+            if (index + 2 + extensionLength > end) {
+                return -1;
+            }
+            if (extensionType == SELECTIVE_ACK) {
+                return index + 2;
+            }
+            extensionType = data[index];
+            index += extensionLength + 2;
+        }
+        return -1;
+    }
+
     public static boolean isSynPkt(UtpPacket packet) {
 
         if (packet == null) {
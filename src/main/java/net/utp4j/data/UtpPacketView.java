@@ -0,0 +1,197 @@
+package net.utp4j.data;
+
+import java.net.DatagramPacket;
+import java.nio.ByteBuffer;
+
+import static net.utp4j.data.UtpPacketUtils.*;
+
+/**
+ * Read only view of a recieved packet, the header fields are read where the packet was recieved into
+ * when they are asked for. Nothing is copied, one view is reused for every packet of a thread.
+ * <p>
+ * Extensions are walked with a cursor:
+ * <pre>
+ * byte type = view.firstExtension();
+ * for (int ext = view.firstExtensionIndex(); ext >= 0; ext = view.nextExtensionIndex(ext)) {
+ *     ... type, view.extensionDataIndex(ext), view.extensionLength(ext) ...
+ *     type = view.nextExtensionType(ext);
+ * }
+ * </pre>
+ * {@link #toUtpPacket()} still builds a {@link UtpPacket} for the code that keeps the packet.
+ */
+public final class UtpPacketView {
+
+    private ByteBuffer buffer;
+    /* the array the buffer wraps, so wrapping the same recieve buffer again allocates nothing */
+    private byte[] array;
+    private int offset;
+    private int length;
+
+    /**
+     * Views the packet in data, the array is read until the view wraps another packet.
+     */
+    public UtpPacketView wrap(byte[] data, int offset, int length) {
+        if (data != array) {
+            array = data;
+            buffer = ByteBuffer.wrap(data);
+        }
+        return view(offset, length);
+    }
+
+    public UtpPacketView wrap(DatagramPacket packet) {
+        return wrap(packet.getData(), packet.getOffset(), packet.getLength());
+    }
+
+    /**
+     * Views the packet between the position and the limit of buffer, which may be direct.
+     */
+    public UtpPacketView wrap(ByteBuffer packet) {
+        array = null;
+        buffer = packet;
+        return view(packet.position(), packet.remaining());
+    }
+
+    private UtpPacketView view(int offset, int length) {
+        this.offset = offset;
+        this.length = length;
+        return this;
+    }
+
+    /**
+     * @return true if the packet is long enough for a header and has the version we speak.
+     */
+    public boolean isValid() {
+        return length >= DEF_HEADER_LENGTH && (typeVersion() & 0x0F) == VERSION;
+    }
+
+    /**
+     * @return type and version, compare with {@link UtpPacketUtils#DATA} etc. 0 if the packet is too short.
+     */
+    public byte typeVersion() {
+        return length > 0 ? buffer.get(offset) : 0;
+    }
+
+    public boolean isType(byte typeVersion) {
+        return length >= DEF_HEADER_LENGTH && buffer.get(offset) == typeVersion;
+    }
+
+    public byte firstExtension() {
+        return buffer.get(offset + 1);
+    }
+
+    public int connectionId() {
+        return buffer.getShort(offset + CONNECTION_ID_INDEX) & 0xFFFF;
+    }
+
+    public int timestamp() {
+        return buffer.getInt(offset + TIMESTAMP_INDEX);
+    }
+
+    public int timestampDifference() {
+        return buffer.getInt(offset + TIMESTAMP_DIFFERENCE_INDEX);
+    }
+
+    public int windowSize() {
+        return buffer.getInt(offset + WINDOW_SIZE_INDEX);
+    }
+
+    public int sequenceNumber() {
+        return buffer.getShort(offset + SEQUENCE_NUMBER_INDEX) & 0xFFFF;
+    }
+
+    public int ackNumber() {
+        return buffer.getShort(offset + ACK_NUMBER_INDEX) & 0xFFFF;
+    }
+
+    /**
+     * @return index of the first extension in the wrapped buffer, -1 if there is none.
+     */
+    public int firstExtensionIndex() {
+        return extensionAt(offset + DEF_HEADER_LENGTH, firstExtension());
+    }
+
+    /**
+     * @return index of the extension after the one at index, -1 if it was the last.
+     */
+    public int nextExtensionIndex(int index) {
+        return extensionAt(index + 2 + extensionLength(index), buffer.get(index));
+    }
+
+    /* each extension names the type of the next one, nothing past the packet is read */
+    private int extensionAt(int index, byte type) {
+        int end = offset + length;
+        if (type == NO_EXTENSION || index + 2 > end || index + 2 + (buffer.get(index + 1) & 0xFF) > end) {
+            return -1;
+        }
+        return index;
+    }
+
+    /**
+     * @return type of the extension after the one at index, e.g. {@link UtpPacketUtils#SELECTIVE_ACK}.
+     */
+    public byte nextExtensionType(int index) {
+        return buffer.get(index);
+    }
+
+    public int extensionLength(int index) {
+        return buffer.get(index + 1) & 0xFF;
+    }
+
+    /**
+     * @return index of the extension data, e.g. the selective ack bitmask.
+     */
+    public int extensionDataIndex(int index) {
+        return index + 2;
+    }
+
+    /**
+     * @return index of the selective ack extension, -1 if there is none.
+     */
+    public int selectiveAckIndex() {
+        byte type = firstExtension();
+        for (int ext = firstExtensionIndex(); ext >= 0; ext = nextExtensionIndex(ext)) {
+            if (type == SELECTIVE_ACK) {
+                return ext;
+            }
+            type = nextExtensionType(ext);
+        }
+        return -1;
+    }
+
+    /**
+     * @return index of the payload in the wrapped buffer, after the last extension.
+     */
+    public int payloadIndex() {
+        int index = offset + DEF_HEADER_LENGTH;
+        for (int ext = firstExtensionIndex(); ext >= 0; ext = nextExtensionIndex(ext)) {
+            index = ext + 2 + extensionLength(ext);
+        }
+        return index;
+    }
+
+    public int payloadLength() {
+        return offset + length - payloadIndex();
+    }
+
+    /**
+     * @return the payload as a slice of the wrapped buffer, valid as long as the buffer is not reused.
+     */
+    public ByteBuffer payload() {
+        return buffer.slice(payloadIndex(), payloadLength());
+    }
+
+    /**
+     * Builds a packet that holds a copy of everything, for code that keeps it after the buffer is reused.
+     */
+    public UtpPacket toUtpPacket() {
+        UtpPacket pkt = new UtpPacket();
+        if (array != null) {
+            pkt.setFromByteArray(array, length, offset);
+        } else {
+            byte[] copy = new byte[length];
+            buffer.get(offset, copy);
+            pkt.setFromByteArray(copy, length, 0);
+        }
+        return pkt;
+    }
+}
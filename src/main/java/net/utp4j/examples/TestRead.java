@@ -20,22 +20,23 @@ import net.utp4j.channels.futures.UtpAcceptFuture;
 import net.utp4j.channels.futures.UtpReadFuture;
 
 import java.io.IOException;
+import java.io.RandomAccessFile;
 import java.net.InetSocketAddress;
-import java.nio.ByteBuffer;
 
 public class TestRead {
 
     public static void main(String[] args) throws IOException, InterruptedException {
-        ByteBuffer buffer = ByteBuffer.allocate(150000000);
         UtpServerSocketChannel server = UtpServerSocketChannel.open();
         server.bind(new InetSocketAddress(13344));
         UtpAcceptFuture acceptFuture = server.accept();
         acceptFuture.block();
         UtpSocketChannel channel = acceptFuture.getChannel();
-        UtpReadFuture readFuture = channel.read(buffer);
-        readFuture.setListener(new SaveFileListener());
+        // written straight into the file, instead of into a buffer that is saved afterwards
+        RandomAccessFile outFile = new RandomAccessFile("testData/gotData_0 .avi", "rw");
+        UtpReadFuture readFuture = channel.transferTo(outFile.getChannel(), 0);
         readFuture.block();
-        System.out.println("reading end");
+        System.out.println("reading end, " + readFuture.getTotalBytesRead() + " bytes");
+        outFile.close();
         channel.close();
         server.close();
 
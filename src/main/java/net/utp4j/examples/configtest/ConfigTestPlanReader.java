@@ -87,10 +87,10 @@ public class ConfigTestPlanReader {
 		UtpAlgConfiguration.MINIMUM_MTU = Integer.parseInt(splitParameters[4]);
 		UtpAlgConfiguration.MAX_CWND_INCREASE_PACKETS_PER_RTT = Integer.parseInt(splitParameters[5]);
 		UtpAlgConfiguration.C_CONTROL_TARGET_MICROS = Integer.parseInt(splitParameters[6]);
-		UtpAlgConfiguration.SEND_IN_BURST = toBool(splitParameters[7]);
+		// column 7 was SEND_IN_BURST, sending is paced now
 		UtpAlgConfiguration.MAX_BURST_SEND = Integer.parseInt(splitParameters[8]);
 		UtpAlgConfiguration.MIN_SKIP_PACKET_BEFORE_RESEND = Integer.parseInt(splitParameters[9]);
-		UtpAlgConfiguration.MICROSECOND_WAIT_BETWEEN_BURSTS = Integer.parseInt(splitParameters[10]);
+		// column 10 was MICROSECOND_WAIT_BETWEEN_BURSTS
 		UtpAlgConfiguration.TIME_WAIT_AFTER_LAST_PACKET = Integer.parseInt(splitParameters[11]);
 		UtpAlgConfiguration.ONLY_POSITIVE_GAIN = toBool(splitParameters[12]);
 		// new exposed UTP algorithm parameters for receiver
@@ -26,6 +26,7 @@ import net.utp4j.channels.UtpServerSocketChannel;
 import net.utp4j.channels.UtpSocketChannel;
 import net.utp4j.channels.futures.UtpAcceptFuture;
 import net.utp4j.channels.futures.UtpReadFuture;
+import net.utp4j.channels.impl.read.UtpReadStream;
 
 public class ConfigTestRead {
 
@@ -42,7 +43,8 @@ public class ConfigTestRead {
 		plan.read();
 		log.debug("test plan received! starting benchmark...");
 
-		ByteBuffer buffer = ByteBuffer.allocate(150000000);
+		// the data is streamed and dropped, no need to hold the whole transfer
+		ByteBuffer buffer = ByteBuffer.allocate(65536);
 		while(plan.hasNext()) {
 			plan.next();
             UtpServerSocketChannel server = UtpServerSocketChannel.open();
@@ -50,16 +52,16 @@ public class ConfigTestRead {
             UtpAcceptFuture acceptFuture = server.accept();
             acceptFuture.block();
             UtpSocketChannel channel = acceptFuture.getChannel();
-            UtpReadFuture readFuture = channel.read(buffer);
-            readFuture.setListener(null);
-            readFuture.block();
+            UtpReadStream stream = channel.readStream();
+            while (stream.read(buffer) >= 0) {
+                buffer.clear();
+            }
             log.debug("reading end");
             channel.close();
             server.close();
             server = null;
             channel = null;
             buffer.clear();
-            readFuture = null;
             acceptFuture = null;
             Thread.sleep(1000);
 		}
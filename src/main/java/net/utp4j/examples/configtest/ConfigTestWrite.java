@@ -78,20 +78,13 @@ public class ConfigTestWrite {
 		ConfigTestPlanReader plan = new ConfigTestPlanReader(testPlan);
 		plan.read();
 
-		ByteBuffer buffer = ByteBuffer.allocate(150000000);
 		while(plan.hasNext()) {
 			String testRunLogEntry = plan.next();
-			RandomAccessFile file     = new RandomAccessFile(testDataFile, "rw");
+			RandomAccessFile file     = new RandomAccessFile(testDataFile, "r");
 			FileChannel  fileChannel = file.getChannel();
-			int bytesRead ;
-            log.debug("start reading from file");
-            do {
-                bytesRead = fileChannel.read(buffer);
-            } while (bytesRead != -1);
-            log.debug("file read");
 
             UtpSocketChannel chanel = UtpSocketChannel.open();
-            int bytesToSend = buffer.position();
+            long bytesToSend = fileChannel.size();
 
             if (waitOnManualInput) {
                 System.out.println("Press any key to continue...");
@@ -105,7 +98,8 @@ public class ConfigTestWrite {
 			cFuture.block();
 			if (cFuture.isSuccessfull()) {
 				long start = timeStamper.timeStamp();
-				UtpWriteFuture writeFuture = chanel.write(buffer);
+				// sent straight out of the mapped file, nothing is read onto the heap
+				UtpWriteFuture writeFuture = chanel.transferFrom(fileChannel, 0, bytesToSend);
 				writeFuture.block();
 				if (!writeFuture.isSuccessfull()) {
 					plan.failed();
@@ -124,7 +118,6 @@ public class ConfigTestWrite {
 			file.close();
 			fileChannel.close();
 			chanel.close();
-			buffer.clear();
 			cpuLoad.reset();
 			Thread.sleep(1000);
 
@@ -173,7 +166,7 @@ public class ConfigTestWrite {
 	}
 
 	/* Transmission Rate calculus */
-	private static String calculateRate(int bytesToSend, long start, long end) {
+	private static String calculateRate(long bytesToSend, long start, long end) {
 		System.out.println("s: " + start + " e: " + end + " " + " bytes:" + bytesToSend);
 		double seconds = (double)(end - start)/1000000d;
 		double sendRate = ((double)bytesToSend/1024d)/seconds;
@@ -0,0 +1,139 @@
+package net.utp4j.benchmarks;
+
+import net.utp4j.channels.impl.UtpTimestampedPacketDTO;
+import net.utp4j.channels.impl.alg.OutPacketBuffer;
+import net.utp4j.channels.impl.alg.UtpAlgorithm;
+import net.utp4j.data.MicroSecondsTimeStamp;
+import net.utp4j.data.SelectiveAckHeaderExtension;
+import net.utp4j.data.UtpHeaderExtension;
+import net.utp4j.data.UtpPacket;
+import net.utp4j.data.UtpPacketUtils;
+import org.openjdk.jmh.annotations.*;
+
+import java.net.DatagramPacket;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+
+import static net.utp4j.data.bytes.UnsignedTypesUtil.longToUshort;
+
+/**
+ * One STATE packet through {@link UtpAlgorithm#ackRecieved}, read from the recieve buffer against
+ * extracting it first, which is what every ack cost before. Run with {@code -prof gc}, the recieve
+ * buffer path should allocate nothing per ack.
+ * <p>
+ * Each op sends the next packet and acks it, the ack also carries a selective ack of the
+ * {@code inFlight} packets behind it, like an ack on a lossy link. Packets are reused so that
+ * sending does not allocate either.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class AckProcessingBenchmark {
+
+    private static final int SEQ_NRS = 65535;
+    private static final byte[] PAYLOAD = new byte[1400];
+
+    @State(Scope.Thread)
+    public static class Connection {
+
+        @Param({"0", "32", "1024"})
+        int inFlight;
+
+        final MicroSecondsTimeStamp stamper = new MicroSecondsTimeStamp();
+        final UtpTimestampedPacketDTO[] packets = new UtpTimestampedPacketDTO[SEQ_NRS + 1];
+        UtpAlgorithm algorithm;
+        OutPacketBuffer buffer;
+        /* the ack as recieved, the ack number is patched for every op */
+        byte[] recieved;
+        DatagramPacket datagram;
+        int nextToSend;
+        int nextToAck;
+
+        @Setup(Level.Trial)
+        public void createPackets() {
+            for (int seqNr = 1; seqNr <= SEQ_NRS; seqNr++) {
+                UtpPacket pkt = new UtpPacket();
+                pkt.setSequenceNumber(longToUshort(seqNr));
+                pkt.setPayload(PAYLOAD);
+                packets[seqNr] = new UtpTimestampedPacketDTO(null, pkt, 0L, 0);
+            }
+            UtpPacket ack = new UtpPacket();
+            ack.setTypeVersion(UtpPacketUtils.STATE);
+            ack.setWindowSize(1 << 20);
+            ack.setTimestamp(stamper.utpTimeStamp());
+            ack.setTimestampDifference(1000);
+            if (inFlight > 0) {
+                // bit 0 is ack + 2, the one right behind the ack is missing
+                SelectiveAckHeaderExtension sack = new SelectiveAckHeaderExtension();
+                byte[] bitMask = new byte[inFlight / 8];
+                Arrays.fill(bitMask, (byte) 0xFF);
+                sack.setBitMask(bitMask);
+                sack.setNextExtension(UtpPacketUtils.NO_EXTENSION);
+                ack.setFirstExtension(UtpPacketUtils.SELECTIVE_ACK);
+                ack.setExtensions(new UtpHeaderExtension[]{sack});
+            }
+            recieved = new byte[UtpPacketUtils.MAX_UDP_HEADER_LENGTH + UtpPacketUtils.MAX_UTP_PACKET_LENGTH];
+            byte[] bytes = ack.toByteArray();
+            System.arraycopy(bytes, 0, recieved, 0, bytes.length);
+            datagram = new DatagramPacket(recieved, 0, bytes.length, new InetSocketAddress(12345));
+        }
+
+        @Setup(Level.Iteration)
+        public void connect() {
+            algorithm = new UtpAlgorithm(stamper, new InetSocketAddress(12345));
+            buffer = new OutPacketBuffer(stamper);
+            buffer.setRemoteAdress(new InetSocketAddress(12345));
+            buffer.setResendtimeOutMicros(Long.MAX_VALUE);
+            algorithm.setOutPacketBuffer(buffer);
+            algorithm.setByteBuffer(ByteBuffer.allocate(0));
+            nextToSend = 1;
+            nextToAck = 1;
+            for (int i = 0; i < inFlight + 1; i++) {
+                send();
+            }
+        }
+
+        void send() {
+            UtpTimestampedPacketDTO pkt = packets[nextToSend];
+            pkt.setPacketAcked(false);
+            pkt.setStamp(stamper.timeStamp());
+            buffer.bufferPacket(pkt);
+            nextToSend = next(nextToSend);
+        }
+
+        void nextAck() {
+            int seqNr = nextToAck;
+            nextToAck = next(nextToAck);
+            recieved[UtpPacketUtils.ACK_NUMBER_INDEX] = (byte) (seqNr >> 8);
+            recieved[UtpPacketUtils.ACK_NUMBER_INDEX + 1] = (byte) seqNr;
+        }
+
+        private static int next(int seqNr) {
+            return seqNr == SEQ_NRS ? 1 : seqNr + 1;
+        }
+    }
+
+    @Benchmark
+    public int fromRecieveBuffer(Connection state) {
+        state.nextAck();
+        state.algorithm.ackRecieved(state.recieved, 0, state.datagram.getLength(), state.stamper.utpTimeStamp());
+        state.algorithm.removeAcked();
+        state.send();
+        return state.algorithm.getCurrentWindow();
+    }
+
+    @Benchmark
+    public int extracted(Connection state) {
+        state.nextAck();
+        UtpPacket ack = UtpPacketUtils.extractUtpPacket(state.datagram);
+        state.algorithm.ackRecieved(new UtpTimestampedPacketDTO(null, ack, state.stamper.timeStamp(),
+                state.stamper.utpTimeStamp()));
+        state.algorithm.removeAcked();
+        state.send();
+        return state.algorithm.getCurrentWindow();
+    }
+}
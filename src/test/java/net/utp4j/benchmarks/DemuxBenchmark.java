@@ -0,0 +1,67 @@
+package net.utp4j.benchmarks;
+
+import net.utp4j.data.UtpPacket;
+import net.utp4j.data.UtpPacketUtils;
+import net.utp4j.data.UtpPacketView;
+import org.openjdk.jmh.annotations.*;
+
+import java.net.DatagramPacket;
+import java.util.concurrent.TimeUnit;
+
+import static net.utp4j.data.bytes.UnsignedTypesUtil.longToUshort;
+
+/**
+ * Routing and classifying one recieved DATA packet: is it a SYN, which connection id, which type,
+ * and is it a packet of a finished transfer. Through the view against extracting it for each question,
+ * which is what the server and channel did before. Run with {@code -prof gc}, the view allocates nothing.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class DemuxBenchmark {
+
+    @State(Scope.Thread)
+    public static class Recieved {
+
+        final UtpPacketView view = new UtpPacketView();
+        DatagramPacket datagram;
+
+        @Setup(Level.Trial)
+        public void recieve() {
+            UtpPacket pkt = new UtpPacket();
+            pkt.setTypeVersion(UtpPacketUtils.DATA);
+            pkt.setConnectionId(longToUshort(4242));
+            pkt.setSequenceNumber(longToUshort(1000));
+            pkt.setPayload(new byte[1400]);
+            byte[] bytes = pkt.toByteArray();
+            byte[] buffer = new byte[UtpPacketUtils.MAX_UDP_HEADER_LENGTH + UtpPacketUtils.MAX_UTP_PACKET_LENGTH];
+            System.arraycopy(bytes, 0, buffer, 0, bytes.length);
+            datagram = new DatagramPacket(buffer, 0, bytes.length);
+        }
+    }
+
+    @Benchmark
+    public int view(Recieved state) {
+        UtpPacketView pkt = state.view.wrap(state.datagram);
+        if (pkt.isType(UtpPacketUtils.SYN)) {
+            return -1;
+        }
+        int connId = pkt.connectionId();
+        return pkt.isType(UtpPacketUtils.DATA) ? connId + pkt.sequenceNumber() : connId;
+    }
+
+    @Benchmark
+    public int extracted(Recieved state) {
+        if (UtpPacketUtils.isSynPkt(state.datagram)) {
+            return -1;
+        }
+        int connId = UtpPacketUtils.extractUtpPacket(state.datagram).getConnectionId() & 0xFFFF;
+        if (UtpPacketUtils.isDataPacket(state.datagram)) {
+            UtpPacket pkt = UtpPacketUtils.extractUtpPacket(state.datagram);
+            return connId + (pkt.getSequenceNumber() & 0xFFFF);
+        }
+        return connId;
+    }
+}
@@ -0,0 +1,199 @@
+package net.utp4j.benchmarks;
+
+import net.utp4j.channels.impl.recieve.HandoffQueue;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.ArrayList;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Handing recieved packets from the event loop to the reader or writer, through the ring the channel
+ * uses against the {@link LinkedBlockingQueue} it used before.
+ * <ul>
+ * <li>{@code ring} and {@code linked}: one thread offers, one polls. {@code handedOff} is the packet
+ * rate, {@code full} counts offers into a full queue. Run with {@code -prof gc}, the linked queue
+ * allocates a node per packet.</li>
+ * <li>{@code *RoundTrip}: a packet goes to an echo thread and back, both sides wait when their queue
+ * is empty. Half of it is the latency of one handoff, including the wake up of a parked thread.</li>
+ * <li>{@code *Burst}: a burst of packets is offered and drained on one thread, the cost per packet
+ * without the scheduler in it. On a single core the other benchmarks mostly measure time slices.</li>
+ * </ul>
+ * Both queues hold {@link #SIZE} packets. The unbounded queue the channel had would not
+ * be full, it would grow instead.
+ */
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class HandoffBenchmark {
+
+    private static final int SIZE = 2048;
+    private static final int BURST = 64;
+    private static final Object PACKET = new Object();
+    private static final Object WAKE_UP = new Object();
+
+    @State(Scope.Group)
+    public static class Ring {
+        final HandoffQueue<Object> queue = new HandoffQueue<>(SIZE, WAKE_UP);
+    }
+
+    @State(Scope.Group)
+    public static class Linked {
+        final BlockingQueue<Object> queue = new LinkedBlockingQueue<>(SIZE);
+    }
+
+    @AuxCounters(AuxCounters.Type.OPERATIONS)
+    @State(Scope.Thread)
+    public static class Counters {
+        public long handedOff;
+        public long full;
+
+        @Setup(Level.Iteration)
+        public void clear() {
+            handedOff = 0;
+            full = 0;
+        }
+    }
+
+    @Benchmark
+    @Group("ring")
+    @BenchmarkMode(Mode.Throughput)
+    @OutputTimeUnit(TimeUnit.MICROSECONDS)
+    public void ringOffer(Ring state, Counters counters) {
+        if (!state.queue.offer(PACKET)) {
+            counters.full++;
+        }
+    }
+
+    @Benchmark
+    @Group("ring")
+    @BenchmarkMode(Mode.Throughput)
+    @OutputTimeUnit(TimeUnit.MICROSECONDS)
+    public void ringPoll(Ring state, Counters counters) {
+        if (state.queue.poll() != null) {
+            counters.handedOff++;
+        }
+    }
+
+    @Benchmark
+    @Group("linked")
+    @BenchmarkMode(Mode.Throughput)
+    @OutputTimeUnit(TimeUnit.MICROSECONDS)
+    public void linkedOffer(Linked state, Counters counters) {
+        if (!state.queue.offer(PACKET)) {
+            counters.full++;
+        }
+    }
+
+    @Benchmark
+    @Group("linked")
+    @BenchmarkMode(Mode.Throughput)
+    @OutputTimeUnit(TimeUnit.MICROSECONDS)
+    public void linkedPoll(Linked state, Counters counters) {
+        if (state.queue.poll() != null) {
+            counters.handedOff++;
+        }
+    }
+
+    @State(Scope.Thread)
+    public static class Burst {
+        final HandoffQueue<Object> ring = new HandoffQueue<>(SIZE, WAKE_UP);
+        final BlockingQueue<Object> linked = new LinkedBlockingQueue<>();
+        final ArrayList<Object> drained = new ArrayList<>(BURST);
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.AverageTime)
+    @OutputTimeUnit(TimeUnit.NANOSECONDS)
+    @OperationsPerInvocation(BURST)
+    public int ringBurst(Burst state) {
+        for (int i = 0; i < BURST; i++) {
+            state.ring.offer(PACKET);
+        }
+        state.drained.clear();
+        return state.ring.drainTo(state.drained);
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.AverageTime)
+    @OutputTimeUnit(TimeUnit.NANOSECONDS)
+    @OperationsPerInvocation(BURST)
+    public int linkedBurst(Burst state) {
+        for (int i = 0; i < BURST; i++) {
+            state.linked.offer(PACKET);
+        }
+        state.drained.clear();
+        return state.linked.drainTo(state.drained);
+    }
+
+    @State(Scope.Benchmark)
+    public static class RingEcho {
+        final HandoffQueue<Object> ping = new HandoffQueue<>(SIZE, WAKE_UP);
+        final HandoffQueue<Object> pong = new HandoffQueue<>(SIZE, WAKE_UP);
+        Thread echo;
+
+        @Setup(Level.Trial)
+        public void start() {
+            echo = new Thread(() -> {
+                try {
+                    for (Object packet = ping.take(); packet != WAKE_UP; packet = ping.take()) {
+                        pong.offer(packet);
+                    }
+                } catch (InterruptedException exp) {
+                    // stopped
+                }
+            });
+            echo.start();
+        }
+
+        @TearDown(Level.Trial)
+        public void stop() throws InterruptedException {
+            ping.wakeUp();
+            echo.join();
+        }
+    }
+
+    @State(Scope.Benchmark)
+    public static class LinkedEcho {
+        final BlockingQueue<Object> ping = new LinkedBlockingQueue<>();
+        final BlockingQueue<Object> pong = new LinkedBlockingQueue<>();
+        Thread echo;
+
+        @Setup(Level.Trial)
+        public void start() {
+            echo = new Thread(() -> {
+                try {
+                    for (Object packet = ping.take(); packet != WAKE_UP; packet = ping.take()) {
+                        pong.offer(packet);
+                    }
+                } catch (InterruptedException exp) {
+                    // stopped
+                }
+            });
+            echo.start();
+        }
+
+        @TearDown(Level.Trial)
+        public void stop() throws InterruptedException {
+            ping.offer(WAKE_UP);
+            echo.join();
+        }
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.AverageTime)
+    @OutputTimeUnit(TimeUnit.NANOSECONDS)
+    public Object ringRoundTrip(RingEcho state) throws InterruptedException {
+        state.ping.offer(PACKET);
+        return state.pong.take();
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.AverageTime)
+    @OutputTimeUnit(TimeUnit.NANOSECONDS)
+    public Object linkedRoundTrip(LinkedEcho state) throws InterruptedException {
+        state.ping.offer(PACKET);
+        return state.pong.take();
+    }
+}
@@ -0,0 +1,162 @@
+package net.utp4j.benchmarks;
+
+import net.utp4j.channels.impl.UtpTimestampedPacketDTO;
+import net.utp4j.channels.impl.alg.OutPacketBuffer;
+import net.utp4j.data.MicroSecondsTimeStamp;
+import net.utp4j.data.UtpPacket;
+import org.openjdk.jmh.annotations.*;
+
+import java.net.InetSocketAddress;
+import java.net.SocketException;
+import java.util.concurrent.TimeUnit;
+
+import static net.utp4j.data.bytes.UnsignedTypesUtil.longToUshort;
+
+/**
+ * Ring based {@link OutPacketBuffer} against the former list based one ({@link ListOutPacketBuffer}).
+ * <p>
+ * ackAndRefill is the steady state of a sender with {@code inFlight} packets on the wire: the
+ * oldest packet is acked, acked packets are removed, the wait time is computed from the oldest
+ * unacked packet and the next packet is sent. resendScan is the writer asking for packets to resend
+ * while every fourth packet is selectively acked.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class OutPacketBufferBenchmark {
+
+    private static final int SEQ_NRS = 65535;
+    private static final byte[] PAYLOAD = new byte[1400];
+
+    @State(Scope.Thread)
+    public static class Packets {
+
+        @Param({"100", "1000", "5000"})
+        int inFlight;
+
+        final MicroSecondsTimeStamp stamper = new MicroSecondsTimeStamp();
+        final UtpTimestampedPacketDTO[] packets = new UtpTimestampedPacketDTO[SEQ_NRS + 1];
+        int nextToSend;
+        int nextToAck;
+
+        @Setup(Level.Trial)
+        public void createPackets() {
+            for (int seqNr = 1; seqNr <= SEQ_NRS; seqNr++) {
+                UtpPacket pkt = new UtpPacket();
+                pkt.setSequenceNumber(longToUshort(seqNr));
+                pkt.setPayload(PAYLOAD);
+                packets[seqNr] = new UtpTimestampedPacketDTO(null, pkt, 0L, 0);
+            }
+        }
+
+        UtpTimestampedPacketDTO send() {
+            UtpTimestampedPacketDTO pkt = packets[nextToSend];
+            pkt.setPacketAcked(false);
+            pkt.setStamp(stamper.timeStamp());
+            nextToSend = next(nextToSend);
+            return pkt;
+        }
+
+        int ack() {
+            int seqNr = nextToAck;
+            nextToAck = next(nextToAck);
+            return seqNr;
+        }
+
+        void reset() {
+            nextToSend = 1;
+            nextToAck = 1;
+        }
+
+        private static int next(int seqNr) {
+            return seqNr == SEQ_NRS ? 1 : seqNr + 1;
+        }
+    }
+
+    @State(Scope.Thread)
+    public static class Ring extends Packets {
+        OutPacketBuffer buffer;
+
+        @Setup(Level.Iteration)
+        public void fill() {
+            reset();
+            buffer = new OutPacketBuffer(stamper);
+            buffer.setRemoteAdress(new InetSocketAddress(12345));
+            buffer.setResendtimeOutMicros(Long.MAX_VALUE);
+            for (int i = 0; i < inFlight; i++) {
+                buffer.bufferPacket(send());
+            }
+        }
+    }
+
+    @State(Scope.Thread)
+    public static class List extends Packets {
+        ListOutPacketBuffer buffer;
+
+        @Setup(Level.Iteration)
+        public void fill() {
+            reset();
+            buffer = new ListOutPacketBuffer(stamper);
+            buffer.setRemoteAdress(new InetSocketAddress(12345));
+            buffer.setResendtimeOutMicros(Long.MAX_VALUE);
+            for (int i = 0; i < inFlight; i++) {
+                buffer.bufferPacket(send());
+            }
+        }
+    }
+
+    @State(Scope.Thread)
+    public static class SackedRing extends Ring {
+        @Setup(Level.Iteration)
+        public void sack() throws SocketException {
+            for (int seqNr = 4; seqNr <= inFlight; seqNr += 4) {
+                buffer.markPacketAcked(seqNr, 0, false);
+            }
+            // the first scan triggers the fast resends, later scans find nothing new
+            buffer.getPacketsToResend(Integer.MAX_VALUE);
+        }
+    }
+
+    @State(Scope.Thread)
+    public static class SackedList extends List {
+        @Setup(Level.Iteration)
+        public void sack() throws SocketException {
+            for (int seqNr = 4; seqNr <= inFlight; seqNr += 4) {
+                buffer.markPacketAcked(seqNr, 0, false);
+            }
+            buffer.getPacketsToResend(Integer.MAX_VALUE);
+        }
+    }
+
+    @Benchmark
+    public long ringAckAndRefill(Ring state) {
+        OutPacketBuffer buffer = state.buffer;
+        buffer.markPacketAcked(state.ack(), 0, true);
+        buffer.removeAcked();
+        long oldest = buffer.getOldestUnackedTimestamp();
+        buffer.bufferPacket(state.send());
+        return oldest;
+    }
+
+    @Benchmark
+    public long listAckAndRefill(List state) {
+        ListOutPacketBuffer buffer = state.buffer;
+        buffer.markPacketAcked(state.ack(), 0, true);
+        buffer.removeAcked();
+        long oldest = buffer.getOldestUnackedTimestamp();
+        buffer.bufferPacket(state.send());
+        return oldest;
+    }
+
+    @Benchmark
+    public int ringResendScan(SackedRing state) throws SocketException {
+        return state.buffer.getPacketsToResend(Integer.MAX_VALUE).size();
+    }
+
+    @Benchmark
+    public int listResendScan(SackedList state) throws SocketException {
+        return state.buffer.getPacketsToResend(Integer.MAX_VALUE).size();
+    }
+}
@@ -0,0 +1,114 @@
+package net.utp4j.benchmarks;
+
+import net.utp4j.channels.impl.UtpSocketChannelImpl;
+import net.utp4j.channels.impl.UtpTimestampedPacketDTO;
+import net.utp4j.channels.impl.alg.UtpAlgorithm;
+import net.utp4j.data.UtpPacket;
+import net.utp4j.data.UtpPacketUtils;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.net.DatagramPacket;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.DatagramChannel;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * One DATA packet out of a write buffer onto a loopback socket, as the writer sends it, in packets
+ * per second on one core. Each op also acks the packet so the send buffer stays small.
+ * Run with {@code -prof gc} for the bytes allocated per packet.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class SendPathBenchmark {
+
+    private static final int PAYLOAD = 1400;
+
+    @State(Scope.Thread)
+    public static class Sender {
+
+        final byte[] ack = new byte[UtpPacketUtils.DEF_HEADER_LENGTH];
+        ByteBuffer data;
+        DatagramChannel sink;
+        UtpSocketChannelImpl channel;
+        UtpAlgorithm algorithm;
+
+        @Setup(Level.Trial)
+        public void open() throws IOException {
+            sink = DatagramChannel.open().bind(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0));
+            DatagramChannel socket = DatagramChannel.open()
+                    .bind(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0));
+            socket.configureBlocking(false);
+            channel = new UtpSocketChannelImpl();
+            channel.setDgChannel(socket);
+            channel.setRemoteAddress(sink.getLocalAddress());
+            channel.setupRandomSeqNumber();
+            algorithm = channel.getAlgorithm();
+            data = ByteBuffer.allocate(1 << 20);
+            algorithm.startWriting(data, channel.getSequenceNumber());
+            ack[0] = UtpPacketUtils.STATE;
+        }
+
+        @TearDown(Level.Trial)
+        public void close() throws IOException {
+            channel.getDgChannel().close();
+            sink.close();
+        }
+
+        void rewindIfEmpty() {
+            if (data.remaining() < PAYLOAD) {
+                data.clear();
+            }
+        }
+
+        void acked(int seqNr) {
+            ack[UtpPacketUtils.ACK_NUMBER_INDEX] = (byte) (seqNr >> 8);
+            ack[UtpPacketUtils.ACK_NUMBER_INDEX + 1] = (byte) seqNr;
+            algorithm.ackRecieved(ack, 0, ack.length, 0);
+            algorithm.removeAcked();
+        }
+    }
+
+    /* the payload is copied into its own array and then into the datagram, which is how packets were sent before */
+    @Benchmark
+    public int copied(Sender state) throws IOException {
+        state.rewindIfEmpty();
+        byte[] payload = new byte[PAYLOAD];
+        state.data.get(payload);
+        UtpPacket utpPacket = state.channel.getNextDataPacket();
+        utpPacket.setPayload(payload);
+        utpPacket.setWindowSize(state.data.remaining());
+        byte[] utpPacketBytes = utpPacket.toByteArray();
+        DatagramPacket udpPacket = new DatagramPacket(utpPacketBytes, utpPacketBytes.length,
+                state.channel.getRemoteAdress());
+        state.algorithm.markPacketOnfly(utpPacket, udpPacket);
+        state.channel.sendPacket(udpPacket);
+        int seqNr = utpPacket.getSequenceNumber() & 0xFFFF;
+        state.acked(seqNr);
+        return seqNr;
+    }
+
+    /* the payload is put into the datagram straight from the write buffer, the packet is reused once acked */
+    @Benchmark
+    public int fromWriteBuffer(Sender state) throws IOException {
+        state.rewindIfEmpty();
+        ByteBuffer data = state.data;
+        int offset = data.position();
+        data.position(offset + PAYLOAD);
+        UtpTimestampedPacketDTO packet = state.algorithm.takePacketToSend();
+        packet.setPayload(data, offset, PAYLOAD);
+        UtpPacket utpPacket = packet.utpPacket();
+        state.channel.fillNextDataPacket(utpPacket);
+        utpPacket.setWindowSize(data.remaining());
+        state.algorithm.markPacketOnfly(packet);
+        state.channel.sendPacket(utpPacket, data, offset, PAYLOAD);
+        int seqNr = utpPacket.getSequenceNumber() & 0xFFFF;
+        state.acked(seqNr);
+        return seqNr;
+    }
+}
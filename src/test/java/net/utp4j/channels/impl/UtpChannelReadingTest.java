@@ -15,6 +15,7 @@
 package net.utp4j.channels.impl;
 
 import net.utp4j.channels.UtpSocketState;
+import net.utp4j.channels.futures.UtpReadFuture;
 import net.utp4j.channels.impl.alg.UtpAlgConfiguration;
 import net.utp4j.data.MicroSecondsTimeStamp;
 import net.utp4j.data.UtpHeaderExtension;
@@ -27,9 +28,9 @@ import org.mockito.junit.jupiter.MockitoExtension;
 
 import java.io.IOException;
 import java.net.DatagramPacket;
-import java.net.DatagramSocket;
 import java.net.InetSocketAddress;
 import java.nio.ByteBuffer;
+import java.nio.channels.DatagramChannel;
 import java.util.Iterator;
 import java.util.List;
 
@@ -37,6 +38,7 @@ import static net.utp4j.data.bytes.BinaryToStringTestHelper.toBinaryString;
 import static net.utp4j.data.bytes.UnsignedTypesUtil.longToUbyte;
 import static net.utp4j.data.bytes.UnsignedTypesUtil.longToUshort;
 import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.any;
 import static org.mockito.ArgumentMatchers.anyInt;
 import static org.mockito.Mockito.*;
 
@@ -53,7 +55,7 @@ public class UtpChannelReadingTest {
         //mocking stuff
         UtpSocketChannelImpl channel = new UtpSocketChannelImpl();
         channel.setState(UtpSocketState.CONNECTED);
-        DatagramSocket socket = mock(DatagramSocket.class);
+        DatagramChannel socket = mock(DatagramChannel.class);
 
         MicroSecondsTimeStamp stamp = mock(MicroSecondsTimeStamp.class);
         when(stamp.utpDifference(anyInt(), anyInt())).thenReturn(500000000);
@@ -61,7 +63,7 @@ public class UtpChannelReadingTest {
         when(stamp.utpTimeStamp()).thenReturn(1251241241);
 
         channel.setTimetamper(stamp);
-        channel.setDgSocket(socket);
+        channel.setDgChannel(socket);
         channel.setRemoteAddress(new InetSocketAddress("localhost", 12345));
 
         // last recieved packet has seqNr. 2, next one will be packet with seqNr. 3
@@ -71,7 +73,7 @@ public class UtpChannelReadingTest {
          * argument captor on socket, which will record all invocations of socket.send(packet)
          * and capture the arguments, in this case the arguments are ack packets.
          */
-        ArgumentCaptor<DatagramPacket> ackOne = ArgumentCaptor.forClass(DatagramPacket.class);
+        ArgumentCaptor<ByteBuffer> ackOne = ArgumentCaptor.forClass(ByteBuffer.class);
 
         try {
             // order of recieving the data packets -> 3,4,6,8,5, 7
@@ -90,17 +92,17 @@ public class UtpChannelReadingTest {
             Thread.sleep(1000);
 
             // verify 6 ack packets where send and capture them
-            verify(socket, times(6)).send(ackOne.capture());
-            List<DatagramPacket> allValues = ackOne.getAllValues();
-            Iterator<DatagramPacket> iterator = allValues.iterator();
+            verify(socket, times(6)).send(ackOne.capture(), any());
+            List<ByteBuffer> allValues = ackOne.getAllValues();
+            Iterator<ByteBuffer> iterator = allValues.iterator();
 
             // extract utp packets from the udp packets.
-            UtpPacket three = UtpPacketUtils.extractUtpPacket(iterator.next());
-            UtpPacket four = UtpPacketUtils.extractUtpPacket(iterator.next());
-            UtpPacket six = UtpPacketUtils.extractUtpPacket(iterator.next());
-            UtpPacket eight = UtpPacketUtils.extractUtpPacket(iterator.next());
-            UtpPacket five = UtpPacketUtils.extractUtpPacket(iterator.next());
-            UtpPacket seven = UtpPacketUtils.extractUtpPacket(iterator.next());
+            UtpPacket three = extractUtpPacket(iterator.next());
+            UtpPacket four = extractUtpPacket(iterator.next());
+            UtpPacket six = extractUtpPacket(iterator.next());
+            UtpPacket eight = extractUtpPacket(iterator.next());
+            UtpPacket five = extractUtpPacket(iterator.next());
+            UtpPacket seven = extractUtpPacket(iterator.next());
 
 
             // first two packets were acked normally
@@ -168,6 +170,86 @@ public class UtpChannelReadingTest {
         }
     }
 
+    @Test
+    public void testReadEndsWithFin() throws InterruptedException, IOException {
+        DatagramChannel socket = mock(DatagramChannel.class);
+        UtpSocketChannelImpl channel = createChannel(socket);
+
+        // the read time out never fires on a frozen clock, only the FIN can end the read
+        channel.recievePacket(createPacket(3));
+        channel.recievePacket(createPacket(4));
+        channel.recievePacket(createFinPacket(5));
+
+        ByteBuffer buffer = ByteBuffer.allocate(30000);
+        UtpReadFuture future = channel.read(buffer);
+        Thread.sleep(1000);
+        assertTrue(future.isDone());
+        assertTrue(future.isSuccessfull());
+        assertEquals(2000, buffer.position());
+
+        ArgumentCaptor<ByteBuffer> acks = ArgumentCaptor.forClass(ByteBuffer.class);
+        verify(socket, times(3)).send(acks.capture(), any());
+        testPacket(extractUtpPacket(acks.getAllValues().get(2)), 5, null, UtpPacketUtils.STATE);
+        channel.close();
+    }
+
+    @Test
+    public void testFinBeforeMissingPacket() throws InterruptedException, IOException {
+        DatagramChannel socket = mock(DatagramChannel.class);
+        UtpSocketChannelImpl channel = createChannel(socket);
+
+        // order of recieving -> 3, FIN 5, 4
+        channel.recievePacket(createPacket(3)); // ack 3
+        channel.recievePacket(createFinPacket(5)); // ack 3, Sack 5 -> 00000001
+        ByteBuffer buffer = ByteBuffer.allocate(30000);
+        UtpReadFuture future = channel.read(buffer);
+        Thread.sleep(500);
+        // the FIN alone does not end the read while packet 4 is missing
+        assertFalse(future.isDone());
+
+        channel.recievePacket(createPacket(4)); // ack 5, everything up to the FIN
+        Thread.sleep(1000);
+        assertTrue(future.isDone());
+        assertTrue(future.isSuccessfull());
+
+        ArgumentCaptor<ByteBuffer> acks = ArgumentCaptor.forClass(ByteBuffer.class);
+        verify(socket, times(3)).send(acks.capture(), any());
+        List<ByteBuffer> allValues = acks.getAllValues();
+        testPacket(extractUtpPacket(allValues.get(0)), 3, null, UtpPacketUtils.STATE);
+        String selAckFin = "00000001" + "00000000" + "00000000" + "00000000";
+        testPacket(extractUtpPacket(allValues.get(1)), 3, selAckFin, UtpPacketUtils.STATE);
+        testPacket(extractUtpPacket(allValues.get(2)), 5, null, UtpPacketUtils.STATE);
+
+        buffer.flip();
+        assertEquals(2000, buffer.limit());
+        byte[] third = new byte[1000];
+        buffer.get(third);
+        byte[] fourth = new byte[1000];
+        buffer.get(fourth);
+        assertArrayEquals(getPayload(3), third);
+        assertArrayEquals(getPayload(4), fourth);
+        channel.close();
+    }
+
+    /* connected channel, the last packet recieved had seqNr. 2 */
+    private UtpSocketChannelImpl createChannel(DatagramChannel socket) {
+        UtpAlgConfiguration.AUTO_ACK_SMALLER_THAN_ACK_NUMBER = false;
+        UtpAlgConfiguration.SKIP_PACKETS_UNTIL_ACK = 1;
+
+        UtpSocketChannelImpl channel = new UtpSocketChannelImpl();
+        channel.setState(UtpSocketState.CONNECTED);
+        MicroSecondsTimeStamp stamp = mock(MicroSecondsTimeStamp.class);
+        when(stamp.utpDifference(anyInt(), anyInt())).thenReturn(500000000);
+        when(stamp.timeStamp()).thenReturn(10000000000000L);
+        when(stamp.utpTimeStamp()).thenReturn(1251241241);
+
+        channel.setTimetamper(stamp);
+        channel.setDgChannel(socket);
+        channel.setRemoteAddress(new InetSocketAddress("localhost", 12345));
+        channel.setAckNumber(2);
+        return channel;
+    }
+
     private void testPacket(UtpPacket pkt, int seq, String selAck, byte type) {
 
         assertEquals(longToUshort(seq), pkt.getAckNumber());
@@ -189,6 +271,12 @@ public class UtpChannelReadingTest {
 
     }
 
+    private UtpPacket extractUtpPacket(ByteBuffer sent) {
+        byte[] array = new byte[sent.remaining()];
+        sent.duplicate().get(array);
+        return UtpPacketUtils.extractUtpPacket(new DatagramPacket(array, array.length));
+    }
+
     public DatagramPacket createPacket(int seqNumber) {
         UtpPacket utpPacket = new UtpPacket();
         utpPacket.setSequenceNumber(longToUshort(seqNumber));
@@ -199,6 +287,15 @@ public class UtpChannelReadingTest {
         return new DatagramPacket(array, array.length);
     }
 
+    private DatagramPacket createFinPacket(int seqNumber) {
+        UtpPacket utpPacket = new UtpPacket();
+        utpPacket.setSequenceNumber(longToUshort(seqNumber));
+        utpPacket.setTypeVersion(UtpPacketUtils.FIN);
+        utpPacket.setWindowSize(1);
+        byte[] array = utpPacket.toByteArray();
+        return new DatagramPacket(array, array.length);
+    }
+
     private byte[] getPayload(int seqNumber) {
         byte[] array = new byte[1000];
         for (int i = 0; i < 1000; i++) {
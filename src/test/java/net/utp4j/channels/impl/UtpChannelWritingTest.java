@@ -0,0 +1,195 @@
+package net.utp4j.channels.impl;
+
+import net.utp4j.channels.UtpSocketState;
+import net.utp4j.channels.futures.UtpWriteFuture;
+import net.utp4j.channels.impl.alg.UtpConnectionConfiguration;
+import net.utp4j.channels.impl.recieve.PooledDatagram;
+import net.utp4j.channels.impl.recieve.RecieveBufferPool;
+import net.utp4j.data.MicroSecondsTimeStamp;
+import net.utp4j.data.UtpPacket;
+import net.utp4j.data.UtpPacketUtils;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.ArgumentCaptor;
+import org.mockito.junit.jupiter.MockitoExtension;
+
+import java.io.IOException;
+import java.net.DatagramPacket;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.DatagramChannel;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static net.utp4j.data.bytes.UnsignedTypesUtil.longToUshort;
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.Mockito.*;
+
+@ExtendWith(MockitoExtension.class)
+public class UtpChannelWritingTest {
+
+    @Test
+    public void testWriteEndsWithAckedFin() throws InterruptedException, IOException {
+        DatagramChannel socket = mock(DatagramChannel.class);
+        UtpSocketChannelImpl channel = createChannel(socket);
+
+        // the writer flips the buffer
+        ByteBuffer buffer = ByteBuffer.allocate(1000);
+        buffer.put(new byte[1000]);
+        UtpWriteFuture future = channel.write(buffer);
+        Thread.sleep(500);
+
+        // one DATA packet followed by the FIN
+        ArgumentCaptor<ByteBuffer> sent = ArgumentCaptor.forClass(ByteBuffer.class);
+        verify(socket, times(2)).send(sent.capture(), any());
+        List<ByteBuffer> allValues = sent.getAllValues();
+        UtpPacket data = extractUtpPacket(allValues.get(0));
+        UtpPacket fin = extractUtpPacket(allValues.get(1));
+        assertEquals(UtpPacketUtils.DATA, data.getTypeVersion());
+        assertEquals(UtpPacketUtils.FIN, fin.getTypeVersion());
+        int dataSeqNr = data.getSequenceNumber() & 0xFFFF;
+        assertEquals((dataSeqNr + 1) & 0xFFFF, fin.getSequenceNumber() & 0xFFFF);
+
+        // all data is acked, but the write is not over before the FIN is
+        channel.recievePacket(createAck(dataSeqNr));
+        Thread.sleep(500);
+        assertFalse(future.isDone());
+
+        channel.recievePacket(createAck(fin.getSequenceNumber() & 0xFFFF));
+        Thread.sleep(500);
+        assertTrue(future.isDone());
+        assertTrue(future.isSuccessfull());
+        assertEquals(1000, future.getBytesSend());
+        channel.close();
+    }
+
+    @Test
+    public void testInlineAckWhileWriterBusy() throws InterruptedException, IOException {
+        DatagramChannel socket = mock(DatagramChannel.class);
+        UtpSocketChannelImpl channel = createChannel(socket,
+                UtpConnectionConfiguration.builder().inlineAcks(true).build());
+
+        // the writer is stuck sending its DATA packet, it owns the algorithm meanwhile
+        CountDownLatch sending = new CountDownLatch(1);
+        CountDownLatch sent = new CountDownLatch(1);
+        int[] dataSeqNr = new int[1];
+        when(socket.send(any(), any())).thenAnswer(invocation -> {
+            if (sending.getCount() > 0) {
+                dataSeqNr[0] = extractUtpPacket(invocation.getArgument(0)).getSequenceNumber() & 0xFFFF;
+                sending.countDown();
+                sent.await();
+            }
+            return 0;
+        });
+        ByteBuffer buffer = ByteBuffer.allocate(1000);
+        buffer.put(new byte[1000]);
+        UtpWriteFuture future = channel.write(buffer);
+        assertTrue(sending.await(5, TimeUnit.SECONDS));
+
+        // so the ack is not applied inline, it is queued for the writer
+        RecieveBufferPool pool = new RecieveBufferPool(2);
+        channel.recievePacket(createPooledAck(pool, dataSeqNr[0]));
+        assertEquals(1, channel.getAckQueue().size());
+
+        // then the writer sends the FIN and waits for its ack, which ends the write
+        sent.countDown();
+        verify(socket, timeout(5000).times(2)).send(any(), any());
+        Thread.sleep(500);
+        channel.recievePacket(createPooledAck(pool, (dataSeqNr[0] + 1) & 0xFFFF));
+        Thread.sleep(500);
+        assertTrue(future.isDone());
+        assertTrue(future.isSuccessfull());
+        assertEquals(0, channel.getAckQueue().size());
+        assertEquals(2, pool.getIdle());
+        channel.close();
+    }
+
+    @Test
+    public void testInlineAckAfterQueuedAck() throws InterruptedException, IOException {
+        DatagramChannel socket = mock(DatagramChannel.class);
+        UtpSocketChannelImpl channel = createChannel(socket,
+                UtpConnectionConfiguration.builder().inlineAcks(true).build());
+        CountDownLatch sending = new CountDownLatch(1);
+        CountDownLatch sent = new CountDownLatch(1);
+        int[] dataSeqNr = new int[1];
+        when(socket.send(any(), any())).thenAnswer(invocation -> {
+            if (sending.getCount() > 0) {
+                dataSeqNr[0] = extractUtpPacket(invocation.getArgument(0)).getSequenceNumber() & 0xFFFF;
+                sending.countDown();
+                sent.await();
+            }
+            return 0;
+        });
+        ByteBuffer buffer = ByteBuffer.allocate(1000);
+        buffer.put(new byte[1000]);
+        UtpWriteFuture future = channel.write(buffer);
+        assertTrue(sending.await(5, TimeUnit.SECONDS));
+
+        // an older ack closing the window is queued while the writer is busy
+        DatagramPacket older = createAck(dataSeqNr[0]);
+        UtpPacketUtils.writeUint(older.getData(), UtpPacketUtils.WINDOW_SIZE_INDEX, 0);
+        channel.recievePacket(older);
+
+        // the writer sends the FIN and waits, the newer ack opening the window again is applied inline
+        sent.countDown();
+        verify(socket, timeout(5000).times(2)).send(any(), any());
+        Thread.sleep(500);
+        RecieveBufferPool pool = new RecieveBufferPool(2);
+        channel.recievePacket(createPooledAck(pool, (dataSeqNr[0] + 1) & 0xFFFF));
+        Thread.sleep(500);
+        assertTrue(future.isDone());
+        assertTrue(future.isSuccessfull());
+
+        // the older ack was not applied after the newer one
+        assertTrue(channel.getAlgorithm().canSendNextPacket());
+        channel.close();
+    }
+
+    private UtpSocketChannelImpl createChannel(DatagramChannel socket) {
+        return createChannel(socket, UtpConnectionConfiguration.defaults());
+    }
+
+    /* connected channel on a frozen clock, nothing is resent */
+    private UtpSocketChannelImpl createChannel(DatagramChannel socket, UtpConnectionConfiguration config) {
+        UtpSocketChannelImpl channel = new UtpSocketChannelImpl(config);
+        channel.setState(UtpSocketState.CONNECTED);
+        channel.setupRandomSeqNumber();
+        MicroSecondsTimeStamp stamp = mock(MicroSecondsTimeStamp.class);
+        when(stamp.utpDifference(anyInt(), anyInt())).thenReturn(500000000);
+        when(stamp.timeStamp()).thenReturn(10000000000000L);
+        when(stamp.utpTimeStamp()).thenReturn(1251241241);
+
+        channel.setTimetamper(stamp);
+        channel.setDgChannel(socket);
+        channel.setRemoteAddress(new InetSocketAddress("localhost", 12345));
+        return channel;
+    }
+
+    private UtpPacket extractUtpPacket(ByteBuffer sent) {
+        byte[] array = new byte[sent.remaining()];
+        sent.duplicate().get(array);
+        return UtpPacketUtils.extractUtpPacket(new DatagramPacket(array, array.length));
+    }
+
+    private DatagramPacket createAck(int ackNumber) {
+        UtpPacket utpPacket = new UtpPacket();
+        utpPacket.setAckNumber(longToUshort(ackNumber));
+        utpPacket.setTypeVersion(UtpPacketUtils.STATE);
+        utpPacket.setWindowSize(100000);
+        byte[] array = utpPacket.toByteArray();
+        return new DatagramPacket(array, array.length);
+    }
+
+    /* the ack as the event loop hands it over, still in its recieve buffer */
+    private PooledDatagram createPooledAck(RecieveBufferPool pool, int ackNumber) {
+        DatagramPacket ack = createAck(ackNumber);
+        PooledDatagram datagram = pool.acquire();
+        DatagramPacket packet = datagram.packet();
+        System.arraycopy(ack.getData(), 0, packet.getData(), 0, ack.getLength());
+        packet.setLength(ack.getLength());
+        return datagram;
+    }
+}
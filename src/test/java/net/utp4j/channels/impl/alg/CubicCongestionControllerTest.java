@@ -0,0 +1,68 @@
+package net.utp4j.channels.impl.alg;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class CubicCongestionControllerTest {
+
+    private static final long RTT_MICROS = 100000;
+
+    @Test
+    public void testSlowStartAndLoss() {
+        int mss = UtpAlgConfiguration.MAX_PACKET_SIZE;
+        CubicCongestionController cubic = new CubicCongestionController(UtpConnectionConfiguration.defaults());
+        assertEquals(0, cubic.getPacingRate());
+        cubic.rttSample(RTT_MICROS, RTT_MICROS);
+
+        // slow start grows by every acked byte
+        int window = cubic.getWindow();
+        cubic.ackRecieved(mss, true, 1);
+        assertEquals(window + mss, cubic.getWindow());
+        assertEquals(2L * cubic.getWindow() * 1000000L / RTT_MICROS, cubic.getPacingRate());
+
+        window = cubic.getWindow();
+        assertTrue(cubic.packetLost(false, 2));
+        assertEquals((int) (window * 0.7), cubic.getWindow());
+
+        // a timeout restarts slow start from one packet
+        assertTrue(cubic.packetLost(true, 3));
+        assertEquals(mss, cubic.getWindow());
+    }
+
+    @Test
+    public void testCubicGrowth() {
+        int mss = UtpAlgConfiguration.MAX_PACKET_SIZE;
+        CubicCongestionController cubic = new CubicCongestionController(UtpConnectionConfiguration.defaults());
+        cubic.rttSample(RTT_MICROS, RTT_MICROS);
+        int maxWindow = 100 * mss;
+        cubic.setWindow(maxWindow);
+        cubic.packetLost(false, RTT_MICROS);
+        assertEquals((int) (maxWindow * 0.7), cubic.getWindow());
+
+        // it takes k = cbrt(30 packets / 0.4) = 4.2 seconds to reach the old maximum again
+        long now = ackOneWindowPerRtt(cubic, RTT_MICROS, 1000000);
+        assertTrue(cubic.getWindow() > maxWindow * 0.7);
+        assertTrue(cubic.getWindow() < maxWindow * 0.95);
+
+        now = ackOneWindowPerRtt(cubic, now, 3200000);
+        assertTrue(cubic.getWindow() > maxWindow * 0.95);
+        assertTrue(cubic.getWindow() < maxWindow * 1.05);
+
+        // then probes beyond it
+        ackOneWindowPerRtt(cubic, now, 5000000);
+        assertTrue(cubic.getWindow() > maxWindow * 1.2);
+    }
+
+    private long ackOneWindowPerRtt(CubicCongestionController cubic, long start, long duration) {
+        int mss = UtpAlgConfiguration.MAX_PACKET_SIZE;
+        long now = start;
+        for (; now < start + duration; now += RTT_MICROS) {
+            int packets = cubic.getWindow() / mss;
+            for (int i = 0; i < packets; i++) {
+                cubic.ackRecieved(mss, true, now);
+            }
+        }
+        return now;
+    }
+}
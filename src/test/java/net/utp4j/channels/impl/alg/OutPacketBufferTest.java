@@ -26,6 +26,7 @@ import java.net.DatagramPacket;
 import java.net.InetSocketAddress;
 import java.net.SocketAddress;
 import java.net.SocketException;
+import java.nio.ByteBuffer;
 import java.util.Queue;
 
 import static net.utp4j.data.bytes.UnsignedTypesUtil.longToUshort;
@@ -120,14 +121,224 @@ public class OutPacketBufferTest {
         assertTrue(packetsToResend.isEmpty());
     }
 
+    @Test
+    public void testWrappingAndGrowing() throws SocketException {
+        MicroSecondsTimeStamp stamper = mock(MicroSecondsTimeStamp.class);
+        OutPacketBuffer buffer = new OutPacketBuffer(stamper);
+
+        // 3000 packets, more than the initial ring, wrapping from 65535 to 1
+        int seqNr = 64000;
+        for (int i = 0; i < 3000; i++) {
+            UtpTimestampedPacketDTO pkt = createPacket(seqNr);
+            pkt.setStamp(100 + i);
+            buffer.bufferPacket(pkt);
+            seqNr = seqNr == 65535 ? 1 : seqNr + 1;
+        }
+        assertEquals(3000 * (PAYLOAD_LENGTH + UtpPacketUtils.DEF_HEADER_LENGTH), buffer.getBytesOnfly());
+        assertEquals(100, buffer.getOldestUnackedTimestamp());
+        assertEquals(100 + 1535, buffer.getSendTimeStamp(65535));
+        assertEquals(100 + 1536, buffer.getSendTimeStamp(1));
+        assertEquals(-1, buffer.getSendTimeStamp(0));
+
+        // ack everything up to 10, across the wrap
+        assertEquals(PAYLOAD_LENGTH + UtpPacketUtils.DEF_HEADER_LENGTH, buffer.markPacketAcked(10, 1, true));
+        assertEquals(100 + 1546, buffer.getOldestUnackedTimestamp());
+        buffer.removeAcked();
+        assertEquals((3000 - 1546) * (PAYLOAD_LENGTH + UtpPacketUtils.DEF_HEADER_LENGTH), buffer.getBytesOnfly());
+        assertEquals(-1, buffer.getSendTimeStamp(65535));
+        assertEquals(100 + 1546, buffer.getSendTimeStamp(11));
+
+        // a selective ack in the middle does not change the oldest unacked packet
+        buffer.markPacketAcked(500, 1, false);
+        buffer.removeAcked();
+        assertEquals(100 + 1546, buffer.getOldestUnackedTimestamp());
+        assertFalse(buffer.isEmpty());
+
+        buffer.markPacketAcked(seqNr - 1, 1, true);
+        buffer.removeAcked();
+        assertTrue(buffer.isEmpty());
+        assertEquals(0, buffer.getBytesOnfly());
+        assertEquals(0L, buffer.getOldestUnackedTimestamp());
+    }
+
+    @Test
+    public void testScoreboard() throws SocketException {
+        UtpAlgConfiguration.MIN_SKIP_PACKET_BEFORE_RESEND = 3;
+        MicroSecondsTimeStamp stamper = mock(MicroSecondsTimeStamp.class);
+        OutPacketBuffer buffer = new OutPacketBuffer(stamper);
+        buffer.setRemoteAdress(new InetSocketAddress(12345));
+        buffer.setResendtimeOutMicros(Long.MAX_VALUE);
+
+        // 65530,...,65535,1,...,10 on fly
+        int seqNr = 65530;
+        for (int i = 0; i < 16; i++) {
+            buffer.bufferPacket(createPacket(seqNr));
+            seqNr = seqNr == 65535 ? 1 : seqNr + 1;
+        }
+
+        assertFalse(buffer.hasPacketsToFastResend());
+
+        // acks arrive out of order and across the wrap: 3 or more packets are acked
+        // past 65530, 65531, 65532 and 65535
+        buffer.markPacketAcked(2, 1, false);
+        buffer.markPacketAcked(1, 1, false);
+        buffer.markPacketAcked(65533, 1, false);
+        buffer.markPacketAcked(65534, 1, false);
+        buffer.markPacketAcked(3, 1, false);
+        assertTrue(buffer.hasPacketsToFastResend());
+
+        // at most 1 + 1 packets per call, the rest follows with the next call
+        Queue<UtpTimestampedPacketDTO> packetsToResend = buffer.getPacketsToResend(1);
+        assertEquals(2, packetsToResend.size());
+        assertEquals(65530, packetsToResend.remove().utpPacket().getSequenceNumber() & 0xFFFF);
+        assertEquals(65531, packetsToResend.remove().utpPacket().getSequenceNumber() & 0xFFFF);
+        packetsToResend = buffer.getPacketsToResend(1);
+        assertEquals(2, packetsToResend.size());
+        assertEquals(65532, packetsToResend.remove().utpPacket().getSequenceNumber() & 0xFFFF);
+        assertEquals(65535, packetsToResend.remove().utpPacket().getSequenceNumber() & 0xFFFF);
+
+        // every lost packet is fast resent once
+        assertFalse(buffer.hasPacketsToFastResend());
+        assertTrue(buffer.getPacketsToResend(50).isEmpty());
+
+        // an ack below the threshold does not move it, 4 is not lost yet
+        buffer.markPacketAcked(65530, 1, false);
+        buffer.markPacketAcked(6, 1, false);
+        buffer.markPacketAcked(7, 1, false);
+        assertTrue(buffer.getPacketsToResend(50).isEmpty());
+        buffer.markPacketAcked(8, 1, false);
+        assertTrue(buffer.hasPacketsToFastResend());
+        packetsToResend = buffer.getPacketsToResend(50);
+        assertEquals(2, packetsToResend.size());
+        assertEquals(4, packetsToResend.remove().utpPacket().getSequenceNumber() & 0xFFFF);
+        assertEquals(5, packetsToResend.remove().utpPacket().getSequenceNumber() & 0xFFFF);
+    }
+
+    @Test
+    public void testPayloadOutsidePacket() throws SocketException {
+        MicroSecondsTimeStamp stamper = mock(MicroSecondsTimeStamp.class);
+        when(stamper.timeStamp()).thenReturn(2L);
+        OutPacketBuffer buffer = new OutPacketBuffer(stamper);
+        buffer.setRemoteAdress(new InetSocketAddress(12345));
+        buffer.setResendtimeOutMicros(1L);
+
+        ByteBuffer file = ByteBuffer.allocateDirect(3 * PAYLOAD_LENGTH);
+        for (int seqNr = 1; seqNr <= 3; seqNr++) {
+            UtpPacket pkt = new UtpPacket();
+            pkt.setSequenceNumber(longToUshort(seqNr));
+            ByteBuffer slice = file.slice((seqNr - 1) * PAYLOAD_LENGTH, PAYLOAD_LENGTH);
+            buffer.bufferPacket(new UtpTimestampedPacketDTO(null, pkt, slice, 0L, 0));
+        }
+        assertEquals(3 * (PAYLOAD_LENGTH + UtpPacketUtils.DEF_HEADER_LENGTH), buffer.getBytesOnfly());
+
+        // timed out, the payload is resent from the slice, no datagram is built
+        Queue<UtpTimestampedPacketDTO> packetsToResend = buffer.getPacketsToResend(50);
+        assertEquals(3, packetsToResend.size());
+        UtpTimestampedPacketDTO first = packetsToResend.remove();
+        assertNull(first.dataGram());
+        assertNotNull(first.payloadSource());
+        assertEquals(0, first.payloadOffset());
+        assertEquals(PAYLOAD_LENGTH, first.payloadLength());
+        assertEquals(2L, first.stamp());
+
+        buffer.markPacketAcked(3, 3, true);
+        buffer.removeAcked();
+        assertTrue(buffer.isEmpty());
+        assertEquals(0, buffer.getBytesOnfly());
+    }
+
+    @Test
+    public void testAckedPacketsAreReused() throws SocketException {
+        MicroSecondsTimeStamp stamper = mock(MicroSecondsTimeStamp.class);
+        OutPacketBuffer buffer = new OutPacketBuffer(stamper);
+        buffer.setRemoteAdress(new InetSocketAddress(12345));
+
+        ByteBuffer data = ByteBuffer.allocate(2 * PAYLOAD_LENGTH);
+        UtpTimestampedPacketDTO[] sent = new UtpTimestampedPacketDTO[2];
+        for (int seqNr = 1; seqNr <= 2; seqNr++) {
+            UtpTimestampedPacketDTO pkt = new UtpTimestampedPacketDTO(new UtpPacket());
+            pkt.utpPacket().setSequenceNumber(longToUshort(seqNr));
+            pkt.setPayload(data, (seqNr - 1) * PAYLOAD_LENGTH, PAYLOAD_LENGTH);
+            buffer.bufferPacket(pkt);
+            sent[seqNr - 1] = pkt;
+        }
+        // not reusable, e.g. the FIN
+        buffer.bufferPacket(createPacket(3));
+        assertNull(buffer.takeReusable());
+
+        buffer.markPacketAcked(1, 0, false);
+        buffer.removeAcked();
+        assertSame(sent[0], buffer.takeReusable());
+        assertFalse(sent[0].isPacketAcked());
+        assertNull(sent[0].payloadSource());
+        assertNull(buffer.takeReusable());
+
+        buffer.markPacketAcked(3, 0, true);
+        buffer.removeAcked();
+        assertSame(sent[1], buffer.takeReusable());
+        assertNull(buffer.takeReusable());
+        assertTrue(buffer.isEmpty());
+        assertEquals(3 * PAYLOAD_LENGTH, buffer.getPayloadBytesRemoved());
+    }
+
+    @Test
+    public void testUnackedOfSelectiveAckWord() throws SocketException {
+        MicroSecondsTimeStamp stamper = mock(MicroSecondsTimeStamp.class);
+        OutPacketBuffer buffer = new OutPacketBuffer(stamper);
+        buffer.setRemoteAdress(new InetSocketAddress(12345));
+        // 65500 ... 65535, 1 ... 1164, the buffer grows on the way
+        int first = 65500;
+        for (int i = 0; i < 1200; i++) {
+            buffer.bufferPacket(createPacket((first - 1 + i) % 65535 + 1));
+        }
+        buffer.markPacketAcked(65500, 0, false);
+        buffer.markPacketAcked(65501, 0, false);
+        buffer.removeAcked();
+        buffer.markPacketAcked(65535, 0, false);
+        buffer.markPacketAcked(2, 0, false);
+
+        // bit 0 is 65530: 65535 and 2 were acked
+        assertEquals(~((1L << 5) | (1L << 7)), buffer.unackedOf(65530, -1L));
+        // bit 0 is 65499: the first 3 were removed, 65535 is bit 36
+        assertEquals((-1L << 3) & ~(1L << 36) & ~(1L << 38), buffer.unackedOf(65499, -1L));
+        // nothing on fly past the last packet
+        assertEquals((1L << 4) - 1, buffer.unackedOf(1161, -1L));
+        assertEquals(0, buffer.unackedOf(1165, -1L));
+        assertEquals(0, buffer.unackedOf(60000, -1L));
+    }
+
+    @Test
+    public void testResendPatchesTimestampInPlace() throws SocketException {
+        MicroSecondsTimeStamp stamper = mock(MicroSecondsTimeStamp.class);
+        when(stamper.timeStamp()).thenReturn(5000L);
+        when(stamper.utpTimeStamp()).thenReturn(0x01020304);
+        OutPacketBuffer buffer = new OutPacketBuffer(stamper);
+        InetSocketAddress remote = new InetSocketAddress(12345);
+        buffer.setRemoteAdress(remote);
+        buffer.setResendtimeOutMicros(1L);
+
+        UtpTimestampedPacketDTO pkt = createPacket(1);
+        DatagramPacket datagram = pkt.dataGram();
+        byte[] encoded = datagram.getData();
+        buffer.bufferPacket(pkt);
+
+        Queue<UtpTimestampedPacketDTO> packetsToResend = buffer.getPacketsToResend(50);
+        assertSame(pkt, packetsToResend.remove());
+        // the same datagram goes out again, only the timestamp changed
+        assertSame(datagram, pkt.dataGram());
+        assertSame(encoded, datagram.getData());
+        assertEquals(remote, datagram.getSocketAddress());
+        pkt.utpPacket().setTimestamp(0x01020304);
+        assertArrayEquals(pkt.utpPacket().toByteArray(), encoded);
+    }
 
     private UtpTimestampedPacketDTO createPacket(int sequenceNumber) throws SocketException {
         UtpPacket pkt = new UtpPacket();
         pkt.setSequenceNumber(longToUshort(sequenceNumber));
         pkt.setPayload(new byte[PAYLOAD_LENGTH]);
-        byte[] array = {(byte) 1};
+        byte[] array = pkt.toByteArray();
         SocketAddress addr = new InetSocketAddress(111);
-        DatagramPacket mockDgPkt = new DatagramPacket(array, 1, addr);
+        DatagramPacket mockDgPkt = new DatagramPacket(array, array.length, addr);
 
         return new UtpTimestampedPacketDTO(mockDgPkt, pkt, 1L, 0);
     }
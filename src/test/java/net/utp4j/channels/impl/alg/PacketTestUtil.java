@@ -18,7 +18,8 @@ public class PacketTestUtil {
         pkt.setSequenceNumber(longToUshort(sequenceNumber));
         pkt.setPayload(new byte[packetLength]);
         SocketAddress addr = new InetSocketAddress(111);
-        DatagramPacket mockDgPkt = new DatagramPacket(pkt.toByteArray(), 1, addr);
+        byte[] encoded = pkt.toByteArray();
+        DatagramPacket mockDgPkt = new DatagramPacket(encoded, encoded.length, addr);
         UtpTimestampedPacketDTO toReturn = new UtpTimestampedPacketDTO(mockDgPkt, pkt, 1L, 0);
 
         return toReturn;
@@ -15,6 +15,7 @@
 package net.utp4j.channels.impl.alg;
 
 import net.utp4j.channels.impl.UtpTimestampedPacketDTO;
+import net.utp4j.channels.impl.log.UtpNopLogger;
 import net.utp4j.data.MicroSecondsTimeStamp;
 import net.utp4j.data.SelectiveAckHeaderExtension;
 import net.utp4j.data.UtpPacket;
@@ -28,12 +29,13 @@ import java.net.InetSocketAddress;
 import java.net.SocketAddress;
 import java.net.SocketException;
 import java.nio.ByteBuffer;
+import java.util.Arrays;
 import java.util.Queue;
 
 import static net.utp4j.data.bytes.UnsignedTypesUtil.longToUshort;
 import static org.junit.jupiter.api.Assertions.*;
-import static org.mockito.Mockito.mock;
-import static org.mockito.Mockito.when;
+import static org.mockito.ArgumentMatchers.*;
+import static org.mockito.Mockito.*;
 
 import net.utp4j.channels.impl.UtpTimestampedPacketDTO;
 import net.utp4j.channels.impl.alg.MinimumDelay;
@@ -172,6 +174,140 @@ public class UtpAlgorithmTest {
 
     }
 
+    @Test
+    public void testAckingFromRecieveBuffer() throws SocketException {
+        UtpAlgConfiguration.AUTO_ACK_SMALLER_THAN_ACK_NUMBER = true;
+        UtpAlgConfiguration.MIN_SKIP_PACKET_BEFORE_RESEND = 3;
+
+        MicroSecondsTimeStamp stamper = mock(MicroSecondsTimeStamp.class);
+        when(stamper.timeStamp()).thenReturn(0L);
+
+        UtpAlgorithm algorithm = new UtpAlgorithm(stamper, new InetSocketAddress(51235));
+        algorithm.setByteBuffer(ByteBuffer.allocate(10000));
+        for (int seqNr = 3; seqNr <= 14; seqNr++) {
+            UtpTimestampedPacketDTO pkt = PacketTestUtil.createPacket(seqNr);
+            algorithm.markPacketOnfly(pkt.utpPacket(), pkt.dataGram());
+        }
+
+        // ACK:5, SACK: 7...14 like testAcking, behind an unknown extension and inside a larger buffer
+        byte[] selAck = {(byte) 255, (byte) 0, (byte) 0, (byte) 0};
+        UtpPacket ack = PacketTestUtil.createSelAckPacket(5, selAck).utpPacket();
+        ack.setTypeVersion(UtpPacketUtils.STATE);
+        ack.setPayload(null);
+        byte[] packet = ack.toByteArray();
+        byte[] unknown = {UtpPacketUtils.SELECTIVE_ACK, 2, 42, 42};
+        byte[] recieveBuffer = new byte[100];
+        int offset = 7;
+        System.arraycopy(packet, 0, recieveBuffer, offset, UtpPacketUtils.DEF_HEADER_LENGTH);
+        recieveBuffer[offset + 1] = 2;
+        System.arraycopy(unknown, 0, recieveBuffer, offset + UtpPacketUtils.DEF_HEADER_LENGTH, unknown.length);
+        int sackLength = packet.length - UtpPacketUtils.DEF_HEADER_LENGTH;
+        System.arraycopy(packet, UtpPacketUtils.DEF_HEADER_LENGTH, recieveBuffer,
+                offset + UtpPacketUtils.DEF_HEADER_LENGTH + unknown.length, sackLength);
+        int length = packet.length + unknown.length;
+
+        algorithm.ackRecieved(recieveBuffer, offset, length, 0);
+        algorithm.removeAcked();
+        assertEquals("6 7 8 9 10 11 12 13 14", algorithm.getLeftElements());
+        Queue<DatagramPacket> packetsToResend = algorithm.getPacketsToResend();
+        assertEquals(1, packetsToResend.size());
+
+        // a packet cut short in its extension acks only up to its ack number
+        recieveBuffer[offset + UtpPacketUtils.ACK_NUMBER_INDEX + 1] = 6;
+        algorithm.ackRecieved(recieveBuffer, offset, length - 1, 0);
+        algorithm.removeAcked();
+        assertEquals("", algorithm.getLeftElements());
+    }
+
+    @Test
+    public void testLongSelectiveAckAcrossSeqNrWrap() throws SocketException {
+        UtpAlgConfiguration.AUTO_ACK_SMALLER_THAN_ACK_NUMBER = false;
+        UtpAlgConfiguration.MIN_SKIP_PACKET_BEFORE_RESEND = 3;
+
+        MicroSecondsTimeStamp stamper = mock(MicroSecondsTimeStamp.class);
+        when(stamper.timeStamp()).thenReturn(0L);
+
+        UtpAlgorithm algorithm = new UtpAlgorithm(stamper, new InetSocketAddress(51235));
+        algorithm.setByteBuffer(ByteBuffer.allocate(10000));
+        int packets = 1100;
+        for (int k = 0; k < packets; k++) {
+            UtpTimestampedPacketDTO pkt = PacketTestUtil.createPacket(seqNrAfter(65000, k));
+            algorithm.markPacketOnfly(pkt.utpPacket(), pkt.dataGram());
+        }
+
+        // ACK: 65000, SACK: every third packet from 65002 on, the mask reaches past the last packet sent
+        byte[] selAck = new byte[160];
+        for (int bit = 0; bit < selAck.length * 8; bit += 3) {
+            selAck[bit / 8] |= (byte) (1 << (bit % 8));
+        }
+        UtpTimestampedPacketDTO ack = PacketTestUtil.createSelAckPacket(65000, selAck);
+        ack.utpPacket().setTypeVersion(UtpPacketUtils.STATE);
+        algorithm.ackRecieved(ack);
+        algorithm.removeAcked();
+        assertTrue(algorithm.getLeftElements().startsWith("65001 65002 65003"));
+
+        // once a missing packet is acked, it goes together with the selectively acked one behind it
+        for (int k = 1; k < packets; k++) {
+            if (k % 3 == 2) {
+                continue;
+            }
+            UtpTimestampedPacketDTO holeAck = PacketTestUtil.createSelAckPacket(seqNrAfter(65000, k), null);
+            holeAck.utpPacket().setTypeVersion(UtpPacketUtils.STATE);
+            holeAck.utpPacket().setFirstExtension((byte) 0);
+            holeAck.utpPacket().setExtensions(null);
+            algorithm.ackRecieved(holeAck);
+            algorithm.removeAcked();
+            int nextHole = k % 3 == 1 ? k + 2 : k + 1;
+            if (nextHole < packets) {
+                assertEquals(String.valueOf(seqNrAfter(65000, nextHole)), algorithm.getLeftElements().split(" ")[0]);
+            }
+        }
+        assertEquals("", algorithm.getLeftElements());
+        assertEquals(0, algorithm.getCurrentWindow());
+    }
+
+    @Test
+    public void testBatchedAcks() throws SocketException {
+        UtpAlgConfiguration.AUTO_ACK_SMALLER_THAN_ACK_NUMBER = true;
+        UtpAlgConfiguration.MIN_SKIP_PACKET_BEFORE_RESEND = 3;
+
+        MicroSecondsTimeStamp stamper = mock(MicroSecondsTimeStamp.class);
+        when(stamper.timeStamp()).thenReturn(0L);
+        CongestionController controller = mock(CongestionController.class);
+
+        UtpAlgorithm algorithm = new UtpAlgorithm(stamper, new InetSocketAddress(51235));
+        algorithm.setCongestionController(controller);
+        algorithm.setByteBuffer(ByteBuffer.allocate(10000));
+        for (int seqNr = 3; seqNr <= 14; seqNr++) {
+            UtpTimestampedPacketDTO pkt = PacketTestUtil.createPacket(seqNr);
+            algorithm.markPacketOnfly(pkt.utpPacket(), pkt.dataGram());
+        }
+
+        // ACK:5 SACK:7...14, then a late ACK:4 and ACK:6, which fills the hole
+        UtpTimestampedPacketDTO sack = PacketTestUtil.createSelAckPacket(5, new byte[]{(byte) 255, 0, 0, 0});
+        sack.utpPacket().setTypeVersion(UtpPacketUtils.STATE);
+        algorithm.acksRecieved(Arrays.asList(sack, stateAck(4), stateAck(6)));
+        algorithm.removeAcked();
+
+        assertEquals("", algorithm.getLeftElements());
+        assertEquals(0, algorithm.getCurrentWindow());
+        // one ack for the batch, but the delay of each ack is sampled
+        verify(controller, times(1)).ackRecieved(anyInt(), anyBoolean(), anyLong());
+        verify(controller, times(3)).delaySample(anyLong(), anyInt(), anyLong());
+    }
+
+    private static UtpTimestampedPacketDTO stateAck(int ackNumber) throws SocketException {
+        UtpTimestampedPacketDTO ack = PacketTestUtil.createSelAckPacket(ackNumber, null);
+        ack.utpPacket().setTypeVersion(UtpPacketUtils.STATE);
+        ack.utpPacket().setFirstExtension((byte) 0);
+        ack.utpPacket().setExtensions(null);
+        return ack;
+    }
+
+    private static int seqNrAfter(int seqNr, int ahead) {
+        return (seqNr - 1 + ahead) % 65535 + 1;
+    }
+
     @Test
 	public void testResendNoTriggerReduceWindow() throws SocketException {
 		UtpAlgConfiguration.AUTO_ACK_SMALLER_THAN_ACK_NUMBER = true;
@@ -218,78 +354,63 @@ public class UtpAlgorithmTest {
     @Test
     public void testPacketSending() throws SocketException {
         MicroSecondsTimeStamp stamper = mock(MicroSecondsTimeStamp.class);
-        when(stamper.timeStamp()).thenReturn(0L);
-        UtpAlgorithm algorithm = new UtpAlgorithm(stamper, new InetSocketAddress(51235));
-        UtpAlgConfiguration.SEND_IN_BURST = true;
-        UtpAlgConfiguration.MAX_BURST_SEND = 3;
+        when(stamper.timeStamp()).thenReturn(1000000L);
+        UtpConnectionConfiguration config = UtpConnectionConfiguration.defaults();
+        UtpAlgorithm algorithm = new UtpAlgorithm(config, stamper, new InetSocketAddress(51235));
+        LedbatCongestionController ledbat = new LedbatCongestionController(config, new UtpNopLogger());
+        algorithm.setCongestionController(ledbat);
+        algorithm.setByteBuffer(ByteBuffer.allocate(100000));
 
         int packetLength = 1000;
+        int packetSize = UtpPacketUtils.DEF_HEADER_LENGTH + packetLength;
 
         // make room for 10 packets.
         algorithm.setMaxWindow(packetLength * 10);
 
         // mark 5 packets on fly, will be ~5100 bytes of currentWindow
-        UtpTimestampedPacketDTO pkt5 = PacketTestUtil.createPacket(5, packetLength);
-        UtpTimestampedPacketDTO pkt6 = PacketTestUtil.createPacket(6, packetLength);
-        UtpTimestampedPacketDTO pkt7 = PacketTestUtil.createPacket(7, packetLength);
-        UtpTimestampedPacketDTO pkt8 = PacketTestUtil.createPacket(8, packetLength);
-        UtpTimestampedPacketDTO pkt9 = PacketTestUtil.createPacket(9, packetLength);
-
-        algorithm.markPacketOnfly(pkt5.utpPacket(), pkt5.dataGram());
-        algorithm.markPacketOnfly(pkt6.utpPacket(), pkt6.dataGram());
-        algorithm.markPacketOnfly(pkt7.utpPacket(), pkt7.dataGram());
-        algorithm.markPacketOnfly(pkt8.utpPacket(), pkt8.dataGram());
-        algorithm.markPacketOnfly(pkt9.utpPacket(), pkt9.dataGram());
-
-        assertEquals(5 * (UtpPacketUtils.DEF_HEADER_LENGTH + packetLength), algorithm.getCurrentWindow());
+        for (int i = 5; i < 10; i++) {
+            UtpTimestampedPacketDTO pkt = PacketTestUtil.createPacket(i, packetLength);
+            algorithm.markPacketOnfly(pkt.utpPacket(), pkt.dataGram());
+        }
+        assertEquals(5 * packetSize, algorithm.getCurrentWindow());
 
-        // our current window is smaller than max window. MAX_BURST_SEND times invocating should trigger a true
-        for (int i = 0; i < UtpAlgConfiguration.MAX_BURST_SEND; i++) {
+        // no rtt measured yet, only the window limits sending
+        for (int i = 0; i < 10; i++) {
             assertTrue(algorithm.canSendNextPacket());
         }
 
-        // now we cannot send a packet anymore
+        // 100ms rtt: 10 packets per rtt, paced at 1.2 * 100 kB/s
+        ledbat.rttSample(100000, 100000);
+        assertTrue(algorithm.canSendNextPacket());
+        UtpTimestampedPacketDTO pkt10 = PacketTestUtil.createPacket(10, packetLength);
+        algorithm.markPacketOnfly(pkt10.utpPacket(), pkt10.dataGram());
         assertFalse(algorithm.canSendNextPacket());
 
-        // now again we can send 3 packets...
-        for (int i = 0; i < UtpAlgConfiguration.MAX_BURST_SEND; i++) {
-            assertTrue(algorithm.canSendNextPacket());
-        }
-        // and now false.
+        // the next packet is due once the pacer earned its size back
+        long pacingDelay = algorithm.getWaitingTimeMicroSeconds();
+        assertEquals(packetSize * 1000000L / 120000, pacingDelay);
+        when(stamper.timeStamp()).thenReturn(1000000L + pacingDelay - 1);
         assertFalse(algorithm.canSendNextPacket());
+        when(stamper.timeStamp()).thenReturn(1000000L + pacingDelay);
+        assertTrue(algorithm.canSendNextPacket());
 
         // lets reduce maxwindow to 4* packet length, no packets can be send now.
         algorithm.setMaxWindow(packetLength * 4);
-        for (int i = 0; i < UtpAlgConfiguration.MAX_BURST_SEND; i++) {
-            assertFalse(algorithm.canSendNextPacket());
-        }
-
-        // we still cannot send packets...
-        for (int i = 0; i < UtpAlgConfiguration.MAX_BURST_SEND; i++) {
-            assertFalse(algorithm.canSendNextPacket());
-        }
+        assertFalse(algorithm.canSendNextPacket());
 
         // increase max window again.
         algorithm.setMaxWindow(10 * packetLength);
-
-        // send 3 packets in one burst.
-        for (int i = 0; i < UtpAlgConfiguration.MAX_BURST_SEND; i++) {
-            assertTrue(algorithm.canSendNextPacket());
-        }
-
-        // current burst full, next invocation should be false.
-        assertFalse(algorithm.canSendNextPacket());
-
+        assertTrue(algorithm.canSendNextPacket());
     }
 
     @Test
     public void testWaitingTime() {
         /*Behaviour should be:
          *
-         * timeout time when next packet will timeout, but only if window is full. else waiting time micros.
-         * immidiately when packet has timed out. else waiting time micros
-         * when buffer empty, maxWindow 0 => waiting time
-         * when buffer non empty, maxwindow = 0; nontimeout => waiting time.
+         * timeout time when next packet will timeout, but only if window is full. else until the pacer allows the next packet.
+         * immidiately when packet has timed out.
+         * when buffer empty, maxWindow 0 => timeout time
+         * when buffer non empty, maxwindow = 0; nontimeout => timeout time.
          *  when buffer non empty, maxwindow = 0; timedout = immidiately
          */
         UtpAlgConfiguration.MINIMUM_TIMEOUT_MILLIS = 500;
@@ -317,8 +438,14 @@ public class UtpAlgorithmTest {
 //		when(outBuffer.getBytesOnfly()).thenReturn(10000); // 20 kB onfly
         algorithm.setCurrentWindow(10000);
 
+        // nothing to send, wait for the timeout
         waitingTime = algorithm.getWaitingTimeMicroSeconds();
-        assertEquals(UtpAlgConfiguration.MICROSECOND_WAIT_BETWEEN_BURSTS, waitingTime);
+        assertEquals(100000, waitingTime);
+
+        // with data to send and no pacing rate yet, send right away
+        algorithm.setByteBuffer(ByteBuffer.allocate(1000));
+        waitingTime = algorithm.getWaitingTimeMicroSeconds();
+        assertEquals(0, waitingTime);
 
         // now test when a packet has timed out.
 
@@ -334,7 +461,7 @@ public class UtpAlgorithmTest {
         when(outBuffer.getOldestUnackedTimestamp()).thenReturn(100000L);
         when(stamper.timeStamp()).thenReturn(500000L);
         waitingTime = algorithm.getWaitingTimeMicroSeconds();
-        assertEquals(UtpAlgConfiguration.MICROSECOND_WAIT_BETWEEN_BURSTS, waitingTime);
+        assertEquals(100000, waitingTime);
 
         // same scenario but timed out. 100'000 + timeout = 600'000 => timed out since 100'000
         // continue immidiately
@@ -344,12 +471,128 @@ public class UtpAlgorithmTest {
         assertEquals(0L, waitingTime);
     }
 
+    @Test
+    public void testStateCarriesOverWrites() throws SocketException {
+        MicroSecondsTimeStamp stamper = mock(MicroSecondsTimeStamp.class);
+        when(stamper.timeStamp()).thenReturn(1000000L);
+        UtpAlgorithm algorithm = new UtpAlgorithm(stamper, new InetSocketAddress(51235));
+        algorithm.setMaxWindow(30000);
+
+        algorithm.startWriting(ByteBuffer.allocate(1000), 5);
+        UtpTimestampedPacketDTO pkt5 = PacketTestUtil.createPacket(5, 1000);
+        algorithm.markPacketOnfly(pkt5.utpPacket(), pkt5.dataGram());
+        UtpTimestampedPacketDTO ack = PacketTestUtil.createPacket(2);
+        ack.utpPacket().setAckNumber(longToUshort(5));
+        ack.utpPacket().setTypeVersion(UtpPacketUtils.STATE);
+        ack.utpPacket().setWindowSize(100000);
+        algorithm.ackRecieved(ack);
+        algorithm.removeAcked();
+        algorithm.end(1000, true);
+
+        // the next write continues with the window reached so far
+        when(stamper.timeStamp()).thenReturn(60000000L);
+        algorithm.startWriting(ByteBuffer.allocate(1000), 6);
+        assertEquals(30000, algorithm.getMaxWindow());
+        assertEquals(0, algorithm.getCurrentWindow());
+        assertFalse(algorithm.isTimedOut());
+
+        // a failed write does not leave its packets on fly
+        UtpTimestampedPacketDTO pkt6 = PacketTestUtil.createPacket(6, 1000);
+        algorithm.markPacketOnfly(pkt6.utpPacket(), pkt6.dataGram());
+        algorithm.end(0, false);
+        algorithm.startWriting(ByteBuffer.allocate(1000), 7);
+        assertTrue(algorithm.areAllPacketsAcked());
+        assertEquals(0, algorithm.getCurrentWindow());
+    }
+
+    @Test
+    public void testWakeUpWhileWaiting() throws SocketException {
+        UtpAlgConfiguration.AUTO_ACK_SMALLER_THAN_ACK_NUMBER = true;
+        UtpAlgConfiguration.MIN_SKIP_PACKET_BEFORE_RESEND = 3;
+
+        // 5 packets of 1020 bytes on fly, the congestion window holds less than 4 of them
+        UtpAlgorithm algorithm = waitingAlgorithm(4000);
+        assertFalse(algorithm.ackRecievedWhileWaiting(stateAckBytes(5, null), 0, stateAckBytes(5, null).length, 0));
+        assertEquals("6 7 8 9", algorithm.getLeftElements());
+
+        // 2 packets on fly, the window opened again
+        assertTrue(algorithm.ackRecievedWhileWaiting(stateAckBytes(7, null), 0, stateAckBytes(7, null).length, 0));
+
+        // nothing left on fly
+        assertTrue(algorithm.ackRecievedWhileWaiting(stateAckBytes(9, null), 0, stateAckBytes(9, null).length, 0));
+        assertTrue(algorithm.areAllPacketsAcked());
+
+        // ACK:4 SACK:6,7,8, packet 5 must be resent while the window stays closed
+        algorithm = waitingAlgorithm(1000);
+        byte[] sack = stateAckBytes(4, new byte[]{(byte) 7, 0, 0, 0});
+        assertTrue(algorithm.ackRecievedWhileWaiting(sack, 0, sack.length, 0));
+        assertEquals("5 6 7 8 9", algorithm.getLeftElements());
+        assertEquals(1, algorithm.getPacketsToResend().size());
+    }
+
+    /* a writer with packets 5...9 on fly, waiting for acks */
+    private static UtpAlgorithm waitingAlgorithm(int congestionWindow) throws SocketException {
+        MicroSecondsTimeStamp stamper = mock(MicroSecondsTimeStamp.class);
+        when(stamper.timeStamp()).thenReturn(1000000L);
+        CongestionController controller = mock(CongestionController.class);
+        when(controller.getWindow()).thenReturn(congestionWindow);
+
+        UtpAlgorithm algorithm = new UtpAlgorithm(stamper, new InetSocketAddress(51235));
+        algorithm.setCongestionController(controller);
+        algorithm.startWriting(ByteBuffer.allocate(10000), 5);
+        for (int seqNr = 5; seqNr <= 9; seqNr++) {
+            UtpTimestampedPacketDTO pkt = PacketTestUtil.createPacket(seqNr, 1000);
+            algorithm.markPacketOnfly(pkt.utpPacket(), pkt.dataGram());
+        }
+        return algorithm;
+    }
+
+    private static byte[] stateAckBytes(int ackNumber, byte[] selAck) throws SocketException {
+        UtpTimestampedPacketDTO ack = selAck == null ? stateAck(ackNumber)
+                : PacketTestUtil.createSelAckPacket(ackNumber, selAck);
+        ack.utpPacket().setTypeVersion(UtpPacketUtils.STATE);
+        ack.utpPacket().setWindowSize(100000);
+        ack.utpPacket().setPayload(null);
+        return ack.utpPacket().toByteArray();
+    }
+
+    @Test
+    public void testFinDoesNotCloseWindow() throws SocketException {
+        MicroSecondsTimeStamp stamper = mock(MicroSecondsTimeStamp.class);
+        when(stamper.timeStamp()).thenReturn(1000000L);
+        UtpAlgorithm algorithm = new UtpAlgorithm(stamper, new InetSocketAddress(51235));
+        algorithm.setMaxWindow(30000);
+        algorithm.startWriting(ByteBuffer.allocate(10000), 5);
+        assertTrue(algorithm.canSendNextPacket());
+
+        // the remote side ends its own transfer while we write, the window field of its FIN is 0
+        UtpTimestampedPacketDTO fin = stateAck(4);
+        fin.utpPacket().setTypeVersion(UtpPacketUtils.FIN);
+        fin.utpPacket().setWindowSize(0);
+        algorithm.ackRecieved(fin);
+        assertTrue(algorithm.canSendNextPacket());
+
+        // so is the one of a DATA packet
+        UtpTimestampedPacketDTO data = stateAck(4);
+        data.utpPacket().setTypeVersion(UtpPacketUtils.DATA);
+        data.utpPacket().setWindowSize(0);
+        algorithm.ackRecieved(data);
+        assertTrue(algorithm.canSendNextPacket());
+
+        // a STATE packet advertises the recieve window
+        UtpTimestampedPacketDTO state = stateAck(4);
+        state.utpPacket().setWindowSize(0);
+        algorithm.ackRecieved(state);
+        assertFalse(algorithm.canSendNextPacket());
+    }
+
     private UtpTimestampedPacketDTO createPacket(int sequenceNumber, int packetLength) {
         UtpPacket pkt = new UtpPacket();
         pkt.setSequenceNumber(longToUshort(sequenceNumber));
         pkt.setPayload(new byte[packetLength]);
         SocketAddress addr = new InetSocketAddress(111);
-        DatagramPacket mockDgPkt = new DatagramPacket(pkt.toByteArray(), 1, addr);
+        byte[] encoded = pkt.toByteArray();
+        DatagramPacket mockDgPkt = new DatagramPacket(encoded, encoded.length, addr);
 
         return new UtpTimestampedPacketDTO(mockDgPkt, pkt, 1L, 0);
     }
@@ -0,0 +1,42 @@
+package net.utp4j.channels.impl.alg;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class UtpConnectionConfigurationTest {
+
+    @Test
+    public void testDefaultsAreCopied() {
+        int staticSize = UtpAlgConfiguration.MAX_PACKET_SIZE;
+        try {
+            UtpAlgConfiguration.MAX_PACKET_SIZE = 1000;
+            UtpConnectionConfiguration config = UtpConnectionConfiguration.defaults();
+            assertEquals(1000, config.getMaxPacketSize());
+
+            // later changes of the statics do not reach connections that are already configured
+            UtpAlgConfiguration.MAX_PACKET_SIZE = 1200;
+            assertEquals(1000, config.getMaxPacketSize());
+        } finally {
+            UtpAlgConfiguration.MAX_PACKET_SIZE = staticSize;
+        }
+    }
+
+    @Test
+    public void testBuilder() {
+        UtpConnectionConfiguration lan = UtpConnectionConfiguration.builder()
+                .cControlTargetMicros(5000)
+                .minimumTimeoutMillis(50)
+                .congestionControlMode(CongestionControlModus.CUBIC)
+                .build();
+        UtpConnectionConfiguration wan = lan.toBuilder()
+                .cControlTargetMicros(100000)
+                .build();
+
+        assertEquals(5000, lan.getCControlTargetMicros());
+        assertEquals(100000, wan.getCControlTargetMicros());
+        assertEquals(50, wan.getMinimumTimeoutMillis());
+        assertEquals(CongestionControlModus.CUBIC, wan.getCongestionControlMode());
+        assertEquals(UtpAlgConfiguration.MAX_BURST_SEND, wan.getMaxBurstSend());
+    }
+}
@@ -0,0 +1,43 @@
+package net.utp4j.channels.impl.alg;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class UtpPacerTest {
+
+    @Test
+    public void testSpreadsPacketsAtRate() {
+        UtpPacer pacer = new UtpPacer(2000, 2000);
+        assertTrue(pacer.canSend(0));
+
+        // 1 MB/s: 1000 bytes every 1000 micros
+        pacer.setRate(1000000);
+        long now = 1000000;
+        int sent = 0;
+        for (; now < 1100000; now += 100) {
+            while (pacer.canSend(now)) {
+                pacer.packetSent(1000, now);
+                sent++;
+            }
+        }
+        assertEquals(100, sent);
+        assertEquals(100, pacer.timeUntilNextSend(now - 100));
+    }
+
+    @Test
+    public void testIdleCreditIsCapped() {
+        UtpPacer pacer = new UtpPacer(2000, 2000);
+        pacer.setRate(10000000);
+        pacer.canSend(0);
+
+        // a second of idling earns 2 ms worth at 10 MB/s, not a whole second
+        int burst = 0;
+        while (pacer.canSend(1000000)) {
+            pacer.packetSent(1000, 1000000);
+            burst++;
+        }
+        assertEquals(21, burst);
+        assertEquals(100, pacer.timeUntilNextSend(1000000));
+    }
+}
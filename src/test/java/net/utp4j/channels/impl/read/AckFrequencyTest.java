@@ -0,0 +1,57 @@
+package net.utp4j.channels.impl.read;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class AckFrequencyTest {
+
+    private static final long RTT = 40000;
+
+    @Test
+    public void testRatioFollowsPacketsPerRtt() {
+        AckFrequency frequency = new AckFrequency(4, 100000);
+        long now = 1000000;
+        // ramp up, every packet is acked
+        for (int i = 0; i < AckFrequency.QUICK_ACK_PACKETS; i++) {
+            assertEquals(1, frequency.ackRatio());
+            frequency.packetRecieved(now, RTT);
+        }
+        // 100 packets per rtt, as many as allowed go together
+        now = recieveRtt(frequency, now, 100);
+        assertEquals(4, frequency.ackRatio());
+
+        // 8 packets per rtt, still 4 acks per rtt
+        now = recieveRtt(frequency, now, 8);
+        assertEquals(2, frequency.ackRatio());
+
+        // a loss, every packet is acked until the hole is long gone
+        frequency.lossDetected();
+        for (int i = 0; i < AckFrequency.QUICK_ACK_PACKETS; i++) {
+            assertEquals(1, frequency.ackRatio());
+            frequency.packetRecieved(now, RTT);
+        }
+        assertEquals(2, frequency.ackRatio());
+    }
+
+    @Test
+    public void testDelayIsBoundByRtt() {
+        AckFrequency frequency = new AckFrequency(2, 100000);
+        assertEquals(100000, frequency.delayMicros());
+        frequency.packetRecieved(0, RTT);
+        assertEquals(RTT / 4, frequency.delayMicros());
+        frequency.packetRecieved(0, 1000000);
+        assertEquals(100000, frequency.delayMicros());
+        frequency.packetRecieved(0, 100);
+        assertTrue(frequency.delayMicros() > 0);
+    }
+
+    /* packets spread over one rtt, the ratio is taken with the one that ends it */
+    private static long recieveRtt(AckFrequency frequency, long now, int packets) {
+        for (int i = 0; i < packets; i++) {
+            frequency.packetRecieved(now + i * (RTT / packets), RTT);
+        }
+        frequency.packetRecieved(now + RTT, RTT);
+        return now + RTT;
+    }
+}
@@ -0,0 +1,88 @@
+package net.utp4j.channels.impl.read;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class MappedFileWriterTest {
+
+    @TempDir
+    Path dir;
+
+    @Test
+    public void testPayloadsAcrossMappings() throws IOException {
+        Path path = dir.resolve("recieved");
+        try (FileChannel file = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.READ,
+                StandardOpenOption.WRITE)) {
+            MappedFileWriter writer = new MappedFileWriter(file, 2, 4);
+            writer.put(new byte[]{1, 2, 3});
+            writer.put(new byte[]{4, 5, 6, 7, 8, 9});
+            writer.put(null);
+            assertEquals(9, writer.getBytesWritten());
+            writer.finish();
+        }
+        // mapped up to 13 bytes, cut back to what was written
+        assertArrayEquals(new byte[]{0, 0, 1, 2, 3, 4, 5, 6, 7, 8, 9}, Files.readAllBytes(path));
+    }
+
+    @Test
+    public void testMappingGrowsWithData() throws IOException {
+        Path path = dir.resolve("growing");
+        try (FileChannel file = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.READ,
+                StandardOpenOption.WRITE)) {
+            MappedFileWriter writer = new MappedFileWriter(file, 0, 1024);
+            writer.put(new byte[10]);
+            assertEquals(10, file.size());
+            // the next piece is as large as everything written before
+            writer.put(new byte[1]);
+            assertEquals(20, file.size());
+            writer.put(new byte[9]);
+            writer.put(new byte[5]);
+            assertEquals(40, file.size());
+            for (int i = 0; i < 200; i++) {
+                writer.put(new byte[10]);
+            }
+            // but never more than mapSize at once
+            assertEquals(1280 + 1024, file.size());
+            writer.finish();
+            assertEquals(2025, file.size());
+        }
+    }
+
+    @Test
+    public void testAppendsPastEndWithoutMapping() throws IOException {
+        Path path = dir.resolve("appended");
+        Files.write(path, new byte[]{9, 9, 9, 9, 9, 9});
+        try (FileChannel file = FileChannel.open(path, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            MappedFileWriter writer = new MappedFileWriter(file, 2, 4, false);
+            writer.put(new byte[]{1, 2, 3});
+            assertEquals(6, file.size());
+            // one byte is left in the file, the rest is appended
+            writer.put(new byte[]{4, 5, 6, 7, 8});
+            assertEquals(10, file.size());
+            writer.put(new byte[]{9});
+            assertEquals(11, file.size());
+            writer.finish();
+        }
+        assertArrayEquals(new byte[]{9, 9, 1, 2, 3, 4, 5, 6, 7, 8, 9}, Files.readAllBytes(path));
+    }
+
+    @Test
+    public void testLargerFileKeepsItsSize() throws IOException {
+        Path path = dir.resolve("existing");
+        Files.write(path, new byte[]{9, 9, 9, 9, 9, 9});
+        try (FileChannel file = FileChannel.open(path, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            MappedFileWriter writer = new MappedFileWriter(file, 0, 16);
+            writer.put(new byte[]{1, 2});
+            writer.finish();
+        }
+        assertArrayEquals(new byte[]{1, 2, 9, 9, 9, 9}, Files.readAllBytes(path));
+    }
+}
@@ -408,5 +408,76 @@ public class SkippedPacketBufferTest {
         assertEquals(12, headerExtension.getBitMask().length);
     }
 
+    @Test
+    public void testBufferedBytes() throws IOException {
+        SkippedPacketBuffer buffer = new SkippedPacketBuffer();
+        buffer.setExpectedSequenceNumber(5);
+        UtpTimestampedPacketDTO seven = createPacket(7);
+        seven.utpPacket().setPayload(new byte[100]);
+        UtpTimestampedPacketDTO eight = createPacket(8);
+        eight.utpPacket().setPayload(new byte[50]);
+
+        buffer.bufferPacket(seven);
+        buffer.bufferPacket(eight);
+        // a packet recieved twice is only counted once
+        buffer.bufferPacket(seven);
+        assertEquals(150, buffer.getBufferedBytes());
+
+        buffer.bufferPacket(createPacket(6));
+        buffer.getAllUntillNextMissing();
+        assertEquals(0, buffer.getBufferedBytes());
+    }
+
+    /**
+     * Test the header while the head moves around the ring many times, every 5th packet is missing
+     *
+     * @throws IOException
+     */
+    @Test
+    public void testHeaderAcrossRingWrap() throws IOException {
+        SkippedPacketBuffer buffer = new SkippedPacketBuffer();
+        int expected = (int) MAX_USHORT - 1000;
+        buffer.setExpectedSequenceNumber(expected);
+        for (int round = 0; round < 100; round++) {
+            // expected is missing, then 4 recieved, 1 missing, ... up to 70 packets ahead
+            for (int i = 1; i <= 70; i++) {
+                if (i % 5 != 0) {
+                    buffer.bufferPacket(createPacket(seqNr(expected, i)));
+                    // recieved twice
+                    buffer.bufferPacket(createPacket(seqNr(expected, i)));
+                }
+            }
+            assertEquals(1999 - 56, buffer.getFreeSize());
+
+            byte[] bitMask = buffer.createHeaderExtension().getBitMask();
+            assertEquals(12, bitMask.length);
+            for (int bit = 0; bit < bitMask.length * 8; bit++) {
+                int position = bit + 1;
+                boolean set = (bitMask[bit / 8] & (1 << (bit % 8))) != 0;
+                assertEquals(position <= 70 && position % 5 != 0, set, "bit " + bit);
+            }
+
+            // every missing packet arrives, the 4 after it can be delivered
+            while (!buffer.isEmpty()) {
+                Queue<UtpTimestampedPacketDTO> packets = buffer.getAllUntillNextMissing();
+                assertEquals(4, packets.size());
+                int last = 0;
+                for (UtpTimestampedPacketDTO pkt : packets) {
+                    last = pkt.utpPacket().getSequenceNumber() & 0xFFFF;
+                }
+                assertEquals(seqNr(expected, 4), last);
+                buffer.reindex(last);
+                expected = seqNr(last, 1);
+                assertEquals(expected, buffer.getExpectedSequenceNumber());
+            }
+            assertEquals(1999, buffer.getFreeSize());
+        }
+    }
+
+    /* sequence numbers after MAX_USHORT start at 1 again */
+    private static int seqNr(int seqNr, int ahead) {
+        return (int) ((seqNr - 1 + ahead) % MAX_USHORT) + 1;
+    }
+
 
 }
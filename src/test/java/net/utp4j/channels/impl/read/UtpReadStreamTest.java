@@ -0,0 +1,71 @@
+package net.utp4j.channels.impl.read;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class UtpReadStreamTest {
+
+    @Test
+    public void testPartialReadsAcrossWrap() throws IOException {
+        UtpReadStream stream = new UtpReadStream(10);
+        stream.put(new byte[]{1, 2, 3, 4, 5, 6});
+        ByteBuffer dst = ByteBuffer.allocate(4);
+        assertEquals(4, stream.read(dst));
+        assertArrayEquals(new byte[]{1, 2, 3, 4}, dst.array());
+
+        // wraps around the end of the ring
+        assertEquals(8, stream.freeSpace());
+        stream.put(new byte[]{7, 8, 9, 10, 11, 12});
+        dst = ByteBuffer.allocate(100);
+        assertEquals(8, stream.read(dst));
+        dst.flip();
+        for (int i = 5; i <= 12; i++) {
+            assertEquals(i, dst.get());
+        }
+        assertEquals(10, stream.freeSpace());
+    }
+
+    @Test
+    public void testEndOfStream() throws IOException {
+        UtpReadStream stream = new UtpReadStream(10);
+        stream.configureBlocking(false);
+        ByteBuffer dst = ByteBuffer.allocate(10);
+        assertEquals(0, stream.read(dst));
+
+        stream.put(new byte[]{1, 2, 3});
+        stream.finished(null);
+        // data before the FIN is read first
+        assertEquals(3, stream.read(dst));
+        assertEquals(-1, stream.read(dst));
+
+        UtpReadStream failed = new UtpReadStream(10);
+        failed.finished(new IOException("timed out"));
+        assertThrows(IOException.class, () -> failed.read(ByteBuffer.allocate(10)));
+    }
+
+    @Test
+    public void testWindowOpensAtHalf() throws IOException {
+        UtpReadStream stream = new UtpReadStream(10);
+        AtomicInteger windowOpened = new AtomicInteger();
+        AtomicInteger closed = new AtomicInteger();
+        stream.setListeners(windowOpened::incrementAndGet, closed::incrementAndGet);
+
+        stream.put(new byte[8]);
+        stream.read(ByteBuffer.allocate(2));
+        assertEquals(0, windowOpened.get());
+        stream.read(ByteBuffer.allocate(2));
+        assertEquals(1, windowOpened.get());
+        stream.read(ByteBuffer.allocate(2));
+        assertEquals(1, windowOpened.get());
+
+        stream.close();
+        stream.close();
+        assertEquals(1, closed.get());
+        assertFalse(stream.isOpen());
+    }
+}
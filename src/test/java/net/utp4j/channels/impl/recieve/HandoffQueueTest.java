@@ -0,0 +1,128 @@
+package net.utp4j.channels.impl.recieve;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class HandoffQueueTest {
+
+    private static final Integer WAKE_UP = -1;
+
+    @Test
+    public void testFullRingDrops() {
+        HandoffQueue<Integer> queue = new HandoffQueue<>(3, WAKE_UP);
+        assertEquals(4, queue.capacity());
+
+        // wraps around the ring a few times
+        int next = 0;
+        for (int round = 0; round < 5; round++) {
+            for (int i = 0; i < 3; i++) {
+                assertTrue(queue.offer(next + i));
+            }
+            for (int i = 0; i < 3; i++) {
+                assertEquals(next++, queue.poll());
+            }
+        }
+        assertNull(queue.poll());
+
+        for (int i = 0; i < 4; i++) {
+            assertTrue(queue.offer(i));
+        }
+        assertFalse(queue.offer(4));
+        assertFalse(queue.offer(5));
+        assertEquals(2, queue.getDropped());
+        assertEquals(4, queue.size());
+
+        // a polled slot is free again
+        assertEquals(0, queue.poll());
+        assertTrue(queue.offer(6));
+
+        List<Integer> drained = new ArrayList<>();
+        assertEquals(4, queue.drainTo(drained));
+        assertEquals(List.of(1, 2, 3, 6), drained);
+        assertEquals(0, queue.size());
+        assertEquals(0, queue.drainTo(drained));
+    }
+
+    @Test
+    public void testWakeUp() throws InterruptedException {
+        HandoffQueue<Integer> queue = new HandoffQueue<>(4, WAKE_UP);
+        queue.offer(1);
+        queue.wakeUp();
+        queue.wakeUp();
+        // packets come first, several wake ups are one
+        assertEquals(1, queue.take());
+        assertSame(WAKE_UP, queue.take());
+        assertNull(queue.poll());
+
+        Thread consumer = Thread.currentThread();
+        Thread waker = new Thread(() -> {
+            waitUntilParked(consumer);
+            queue.wakeUp();
+        });
+        waker.start();
+        assertSame(WAKE_UP, queue.take());
+        waker.join();
+    }
+
+    @Test
+    public void testAwaitLeavesElement() throws InterruptedException {
+        HandoffQueue<Integer> queue = new HandoffQueue<>(4, WAKE_UP);
+        queue.offer(1);
+        assertTrue(queue.await());
+        assertEquals(1, queue.size());
+        assertEquals(1, queue.poll());
+
+        queue.wakeUp();
+        assertFalse(queue.await());
+
+        Thread consumer = Thread.currentThread();
+        Thread producer = new Thread(() -> {
+            waitUntilParked(consumer);
+            queue.offer(2);
+        });
+        producer.start();
+        assertTrue(queue.await());
+        producer.join();
+        assertEquals(2, queue.take());
+    }
+
+    @Test
+    public void testHandoffBetweenThreads() throws InterruptedException {
+        int packets = 200000;
+        HandoffQueue<Integer> queue = new HandoffQueue<>(64, WAKE_UP);
+        Thread producer = new Thread(() -> {
+            for (int i = 0; i < packets; ) {
+                if (queue.offer(i)) {
+                    i++;
+                } else {
+                    Thread.yield();
+                }
+            }
+        });
+        producer.start();
+        // every packet arrives once and in order, the consumer parks whenever the ring runs dry
+        for (int i = 0; i < packets; i++) {
+            assertEquals(i, queue.take());
+        }
+        producer.join();
+        assertNull(queue.poll());
+    }
+
+    @Test
+    public void testInterruptWhileWaiting() {
+        HandoffQueue<Integer> queue = new HandoffQueue<>(4, WAKE_UP);
+        Thread.currentThread().interrupt();
+        assertThrows(InterruptedException.class, queue::take);
+        assertFalse(Thread.interrupted());
+    }
+
+    private static void waitUntilParked(Thread thread) {
+        while (thread.getState() != Thread.State.WAITING) {
+            Thread.yield();
+        }
+    }
+}
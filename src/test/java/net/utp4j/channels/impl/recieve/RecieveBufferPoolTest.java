@@ -0,0 +1,46 @@
+package net.utp4j.channels.impl.recieve;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class RecieveBufferPoolTest {
+
+    @Test
+    public void testRecycling() {
+        RecieveBufferPool pool = new RecieveBufferPool(2);
+        assertEquals(2, pool.getIdle());
+
+        PooledDatagram first = pool.acquire();
+        PooledDatagram second = pool.acquire();
+        PooledDatagram third = pool.acquire();
+        assertEquals(2, pool.getHits());
+        assertEquals(1, pool.getMisses());
+        assertEquals(0, pool.getIdle());
+
+        first.release();
+        second.release();
+        third.release();
+        /* pool is bounded, the third buffer is dropped */
+        assertEquals(2, pool.getIdle());
+
+        PooledDatagram again = pool.acquire();
+        assertSame(first, again);
+        assertEquals(3, pool.getHits());
+        assertEquals(1, again.refCnt());
+    }
+
+    @Test
+    public void testReferenceCounting() {
+        RecieveBufferPool pool = new RecieveBufferPool(1);
+        PooledDatagram datagram = pool.acquire();
+        datagram.retain();
+        datagram.release();
+        assertEquals(0, pool.getIdle());
+        datagram.release();
+        assertEquals(1, pool.getIdle());
+
+        assertThrows(IllegalStateException.class, datagram::release);
+        assertThrows(IllegalStateException.class, datagram::retain);
+    }
+}
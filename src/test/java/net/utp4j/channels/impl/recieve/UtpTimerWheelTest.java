@@ -0,0 +1,148 @@
+package net.utp4j.channels.impl.recieve;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class UtpTimerWheelTest {
+
+    private long now = 1000000;
+
+    @Test
+    public void testFiresOnTickAfterDeadline() {
+        UtpTimerWheel wheel = new UtpTimerWheel(64, 1000, () -> { }, () -> now);
+        AtomicInteger fired = new AtomicInteger();
+        UtpTimer timer = wheel.newTimer(fired::incrementAndGet);
+
+        timer.schedule(2500);
+        assertEquals(3000, wheel.timeUntilNextTick());
+        now += 2000;
+        wheel.expire();
+        assertEquals(0, fired.get());
+
+        now += 1000;
+        wheel.expire();
+        assertEquals(1, fired.get());
+        assertFalse(timer.isArmed());
+        assertEquals(0, wheel.size());
+
+        now += 1000;
+        wheel.expire();
+        assertEquals(1, fired.get());
+        assertEquals(-1, wheel.timeUntilNextTick());
+    }
+
+    @Test
+    public void testCancelAndReschedule() {
+        AtomicInteger wakeups = new AtomicInteger();
+        UtpTimerWheel wheel = new UtpTimerWheel(64, 1000, wakeups::incrementAndGet, () -> now);
+        AtomicInteger fired = new AtomicInteger();
+        UtpTimer timer = wheel.newTimer(fired::incrementAndGet);
+
+        timer.schedule(1000);
+        timer.cancel();
+        now += 5000;
+        wheel.expire();
+        assertEquals(0, fired.get());
+        assertEquals(0, wheel.size());
+
+        // moving the deadline further away does not hand the timer over again
+        timer.schedule(1000);
+        wheel.expire();
+        int handedOver = wakeups.get();
+        timer.schedule(5000);
+        assertEquals(handedOver, wakeups.get());
+        now += 2000;
+        wheel.expire();
+        assertEquals(0, fired.get());
+        now += 3000;
+        wheel.expire();
+        assertEquals(1, fired.get());
+
+        // an earlier deadline is handed over, once while the timer waits on the handoff stack
+        timer.schedule(5000);
+        timer.schedule(1000);
+        assertEquals(handedOver + 1, wakeups.get());
+        now += 1000;
+        wheel.expire();
+        assertEquals(2, fired.get());
+    }
+
+    @Test
+    public void testReArmedWhileExpiring() {
+        UtpTimerWheel wheel = new UtpTimerWheel(64, 1000, () -> { }, () -> now);
+        AtomicInteger fired = new AtomicInteger();
+        UtpTimer timer = wheel.newTimer(fired::incrementAndGet);
+        timer.schedule(1000);
+        wheel.expire();
+
+        // the loop read the due deadline, then the writer moved it further away
+        now += 1000;
+        long read = timer.deadline;
+        timer.schedule(3000);
+        wheel.expireTimer(timer, now / 1000, read);
+        assertEquals(0, fired.get());
+        assertTrue(timer.isArmed());
+        assertEquals(1, wheel.size());
+
+        now += 3000;
+        wheel.expire();
+        assertEquals(1, fired.get());
+        assertEquals(0, wheel.size());
+
+        // moved later but still due, it fires right away
+        timer.schedule(1000);
+        wheel.expire();
+        now += 2000;
+        read = timer.deadline;
+        timer.schedule(0);
+        wheel.expireTimer(timer, now / 1000, read);
+        assertEquals(2, fired.get());
+        assertFalse(timer.isArmed());
+        assertEquals(0, wheel.size());
+    }
+
+    @Test
+    public void testBeyondOneTurn() {
+        UtpTimerWheel wheel = new UtpTimerWheel(64, 1000, () -> { }, () -> now);
+        AtomicInteger fired = new AtomicInteger();
+        UtpTimer far = wheel.newTimer(fired::incrementAndGet);
+        UtpTimer near = wheel.newTimer(fired::incrementAndGet);
+
+        far.schedule(200000);
+        near.schedule(136000);
+        for (int i = 0; i < 135; i++) {
+            now += 1000;
+            wheel.expire();
+        }
+        assertEquals(0, fired.get());
+        now += 1000;
+        wheel.expire();
+        assertEquals(1, fired.get());
+
+        now += 64000;
+        wheel.expire();
+        assertEquals(2, fired.get());
+        assertEquals(0, wheel.size());
+    }
+
+    @Test
+    public void testTaskReschedulesItself() {
+        UtpTimerWheel wheel = new UtpTimerWheel(64, 1000, () -> { }, () -> now);
+        AtomicInteger fired = new AtomicInteger();
+        UtpTimer[] timer = new UtpTimer[1];
+        timer[0] = wheel.newTimer(() -> {
+            if (fired.incrementAndGet() < 3) {
+                timer[0].schedule(1000);
+            }
+        });
+        timer[0].schedule(1000);
+        for (int i = 0; i < 10; i++) {
+            now += 1000;
+            wheel.expire();
+        }
+        assertEquals(3, fired.get());
+    }
+}
@@ -0,0 +1,87 @@
+package net.utp4j.channels.impl.write;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class UtpWriteStreamTest {
+
+    @Test
+    public void testNonBlockingWriteTakesWhatFits() throws Exception {
+        UtpWriteStream stream = new UtpWriteStream(10, new UtpWriteFutureImpl());
+        stream.configureBlocking(false);
+        ByteBuffer src = ByteBuffer.wrap(new byte[]{1, 2, 3, 4, 5, 6, 7, 8, 9, 10, 11, 12});
+        assertEquals(10, stream.write(src));
+        assertEquals(2, src.remaining());
+        assertEquals(0, stream.write(src));
+        assertEquals(0, stream.freeSpace());
+    }
+
+    @Test
+    public void testBytesAcrossWrap() throws Exception {
+        UtpWriteStream stream = new UtpWriteStream(10, new UtpWriteFutureImpl());
+        stream.write(ByteBuffer.wrap(new byte[]{1, 2, 3, 4, 5, 6, 7, 8}));
+        ByteBuffer view = stream.nextBytes();
+        assertEquals(8, view.remaining());
+        view.position(view.position() + 6);
+        stream.sent(6);
+        // sent bytes wait for their ack in the ring
+        assertEquals(2, stream.freeSpace());
+        assertArrayEquals(new byte[]{7, 8}, take(stream.nextBytes()));
+        stream.consumed(6);
+
+        stream.write(ByteBuffer.wrap(new byte[]{9, 10, 11, 12}));
+        // the view ends at the end of the ring, the rest follows from its start
+        view = stream.nextBytes();
+        assertEquals(4, view.remaining());
+        assertArrayEquals(new byte[]{7, 8, 9, 10}, take(view));
+        stream.sent(4);
+        view = stream.nextBytes();
+        assertArrayEquals(new byte[]{11, 12}, take(view));
+        stream.sent(2);
+        assertEquals(4, stream.freeSpace());
+        stream.consumed(6);
+        assertEquals(10, stream.freeSpace());
+    }
+
+    @Test
+    public void testWritableOnceHalfFree() throws Exception {
+        UtpWriteStream stream = new UtpWriteStream(10, new UtpWriteFutureImpl());
+        AtomicInteger writable = new AtomicInteger();
+        AtomicInteger data = new AtomicInteger();
+        stream.setWritableListener(writable::incrementAndGet);
+        stream.setDataListener(data::incrementAndGet);
+        stream.configureBlocking(false);
+
+        stream.write(ByteBuffer.allocate(12));
+        stream.write(ByteBuffer.allocate(1));
+        assertEquals(1, data.get());
+        stream.sent(10);
+        stream.consumed(4);
+        assertEquals(0, writable.get());
+        stream.consumed(1);
+        assertEquals(1, writable.get());
+        stream.consumed(5);
+        assertEquals(1, writable.get());
+
+        stream.close();
+        assertEquals(2, data.get());
+        assertTrue(stream.isDrained());
+        assertThrows(ClosedChannelException.class, () -> stream.write(ByteBuffer.allocate(1)));
+
+        UtpWriteStream failed = new UtpWriteStream(10, new UtpWriteFutureImpl());
+        failed.finished(new IOException("timed out"));
+        assertThrows(IOException.class, () -> failed.write(ByteBuffer.allocate(1)));
+    }
+
+    private static byte[] take(ByteBuffer view) {
+        byte[] bytes = new byte[view.remaining()];
+        view.get(bytes);
+        return bytes;
+    }
+}
@@ -16,7 +16,10 @@ package net.utp4j.data;
 
 import org.junit.jupiter.api.Test;
 
+import java.nio.ByteBuffer;
+
 import static net.utp4j.data.bytes.UnsignedTypesUtil.*;
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
 import static org.junit.jupiter.api.Assertions.assertEquals;
 
 public class  UtpPacketTest {
@@ -107,6 +110,24 @@ public class  UtpPacketTest {
     }
 
 
+    @Test
+    public void testWriteHeaderLikeByteArray() {
+        UtpPacket header = createMaxHeader(UtpPacketUtils.STATE, UtpPacketUtils.SELECTIVE_ACK);
+        applySelectiveAck(header, UtpPacketUtils.NO_EXTENSION);
+        header.setConnectionId((short) 0x1234);
+        header.setTimestamp(0x01020304);
+        header.setAckNumber((short) 7);
+        byte[] expected = header.toByteArray();
+
+        ByteBuffer frame = ByteBuffer.allocateDirect(64);
+        int length = header.writeHeader(frame, 3);
+        assertEquals(expected.length, length);
+        assertEquals(expected.length, header.getHeaderLength());
+        byte[] actual = new byte[length];
+        frame.get(3, actual);
+        assertArrayEquals(expected, actual);
+    }
+
     /**
      * returns standart header with full of 0xFF fields except of first two bytes which are specified as parameters.
      *
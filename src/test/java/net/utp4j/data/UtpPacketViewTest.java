@@ -0,0 +1,122 @@
+package net.utp4j.data;
+
+import org.junit.jupiter.api.Test;
+
+import java.net.DatagramPacket;
+import java.nio.ByteBuffer;
+
+import static net.utp4j.data.bytes.UnsignedTypesUtil.*;
+import static org.junit.jupiter.api.Assertions.*;
+
+public class UtpPacketViewTest {
+
+    private static final byte UNKNOWN_EXTENSION = 2;
+
+    @Test
+    public void testHeaderAtOffset() {
+        UtpPacket pkt = packet(UtpPacketUtils.STATE);
+        byte[] bytes = pkt.toByteArray();
+        byte[] recieved = new byte[bytes.length + 10];
+        System.arraycopy(bytes, 0, recieved, 7, bytes.length);
+
+        UtpPacketView view = new UtpPacketView().wrap(new DatagramPacket(recieved, 7, bytes.length));
+
+        assertTrue(view.isValid());
+        assertTrue(view.isType(UtpPacketUtils.STATE));
+        assertFalse(view.isType(UtpPacketUtils.DATA));
+        assertEquals(40000, view.connectionId());
+        assertEquals(pkt.getTimestamp(), view.timestamp());
+        assertEquals(pkt.getTimestampDifference(), view.timestampDifference());
+        assertEquals(pkt.getWindowSize(), view.windowSize());
+        assertEquals(65000, view.sequenceNumber());
+        assertEquals(12, view.ackNumber());
+        assertEquals(-1, view.firstExtensionIndex());
+        assertEquals(-1, view.selectiveAckIndex());
+        assertEquals(0, view.payloadLength());
+        assertEquals(pkt, view.toUtpPacket());
+    }
+
+    @Test
+    public void testExtensionsAndPayload() {
+        byte[] recieved = withUnknownExtensionAndPayload();
+        UtpPacketView view = new UtpPacketView().wrap(recieved, 0, recieved.length);
+
+        int sack = view.firstExtensionIndex();
+        assertEquals(UtpPacketUtils.DEF_HEADER_LENGTH, sack);
+        assertEquals(sack, view.selectiveAckIndex());
+        assertEquals(4, view.extensionLength(sack));
+        assertEquals((byte) 0xA5, recieved[view.extensionDataIndex(sack)]);
+        assertEquals(UNKNOWN_EXTENSION, view.nextExtensionType(sack));
+
+        int unknown = view.nextExtensionIndex(sack);
+        assertEquals(sack + 6, unknown);
+        assertEquals(3, view.extensionLength(unknown));
+        assertEquals(UtpPacketUtils.NO_EXTENSION, view.nextExtensionType(unknown));
+        assertEquals(-1, view.nextExtensionIndex(unknown));
+
+        assertEquals(unknown + 5, view.payloadIndex());
+        assertEquals(ByteBuffer.wrap(new byte[]{1, 2, 3, 4, 5}), view.payload());
+    }
+
+    @Test
+    public void testTruncatedExtensionIsNotRead() {
+        byte[] recieved = withUnknownExtensionAndPayload();
+        int end = UtpPacketUtils.DEF_HEADER_LENGTH + 6 + 2;
+        UtpPacketView view = new UtpPacketView().wrap(recieved, 0, end);
+
+        // the unknown extension claims 3 bytes, the packet ends before them
+        int sack = view.firstExtensionIndex();
+        assertEquals(-1, view.nextExtensionIndex(sack));
+        assertEquals(sack + 6, view.payloadIndex());
+        assertEquals(2, view.payloadLength());
+    }
+
+    @Test
+    public void testDirectBufferAndRewrap() {
+        byte[] recieved = withUnknownExtensionAndPayload();
+        ByteBuffer direct = ByteBuffer.allocateDirect(recieved.length + 3);
+        direct.position(3);
+        direct.put(recieved);
+        direct.position(3);
+
+        UtpPacketView view = new UtpPacketView().wrap(direct);
+        assertTrue(view.isType(UtpPacketUtils.DATA));
+        assertEquals(65000, view.sequenceNumber());
+        assertEquals(5, view.payload().remaining());
+        assertArrayEquals(new byte[]{1, 2, 3, 4, 5}, view.toUtpPacket().getPayload());
+
+        byte[] tooShort = new byte[UtpPacketUtils.DEF_HEADER_LENGTH - 1];
+        tooShort[0] = UtpPacketUtils.DATA;
+        view.wrap(tooShort, 0, tooShort.length);
+        assertFalse(view.isValid());
+        assertFalse(view.isType(UtpPacketUtils.DATA));
+    }
+
+    private static byte[] withUnknownExtensionAndPayload() {
+        UtpPacket pkt = packet(UtpPacketUtils.DATA);
+        SelectiveAckHeaderExtension sack = new SelectiveAckHeaderExtension();
+        sack.setBitMask(new byte[]{(byte) 0xA5, 0, 0, 1});
+        sack.setNextExtension(UNKNOWN_EXTENSION);
+        pkt.setFirstExtension(UtpPacketUtils.SELECTIVE_ACK);
+        pkt.setExtensions(new UtpHeaderExtension[]{sack});
+        byte[] header = pkt.toByteArray();
+        byte[] unknownAndPayload = {UtpPacketUtils.NO_EXTENSION, 3, 9, 9, 9, 1, 2, 3, 4, 5};
+        byte[] recieved = new byte[header.length + unknownAndPayload.length];
+        System.arraycopy(header, 0, recieved, 0, header.length);
+        System.arraycopy(unknownAndPayload, 0, recieved, header.length, unknownAndPayload.length);
+        return recieved;
+    }
+
+    private static UtpPacket packet(byte type) {
+        UtpPacket pkt = new UtpPacket();
+        pkt.setTypeVersion(type);
+        pkt.setFirstExtension(UtpPacketUtils.NO_EXTENSION);
+        pkt.setConnectionId(longToUshort(40000));
+        pkt.setTimestamp(123456789);
+        pkt.setTimestampDifference(-42);
+        pkt.setWindowSize(1 << 20);
+        pkt.setSequenceNumber(longToUshort(65000));
+        pkt.setAckNumber(longToUshort(12));
+        return pkt;
+    }
+}